@@ -0,0 +1,71 @@
+package io.famiemu.bench;
+
+import io.famiemu.Machine;
+import io.famiemu.apu.SampleRingBuffer;
+import io.famiemu.memory.MemoryBus;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Frames per second of a {@link Machine} playing all five channels,
+ * with samples drained after each frame, and with the output off.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AudioBenchmark {
+
+    @Param({"true", "false"})
+    public boolean output;
+
+    private Machine machine;
+    private final short[] samples = new short[4096];
+
+    @Setup
+    public void setup() {
+        machine = new Machine(Programs.prgRom(Programs.COPY_LOOP));
+        machine.getApu().setOutputEnabled(output);
+        machine.reset();
+        final MemoryBus bus = machine.getBus();
+
+        write(bus, 0x4015, 0x1F);
+        // pulses at 440 and 660 Hz, held
+        write(bus, 0x4000, 0xBF);
+        write(bus, 0x4002, 0xFD);
+        write(bus, 0x4003, 0x00);
+        write(bus, 0x4004, 0x7F);
+        write(bus, 0x4006, 0xA8);
+        write(bus, 0x4007, 0x00);
+        // triangle, noise and a looping DMC sample from the PRG
+        write(bus, 0x4008, 0xFF);
+        write(bus, 0x400A, 0x7E);
+        write(bus, 0x400B, 0x01);
+        write(bus, 0x400C, 0x38);
+        write(bus, 0x400E, 0x04);
+        write(bus, 0x400F, 0x00);
+        write(bus, 0x4010, 0x4E);
+        write(bus, 0x4012, 0x00);
+        write(bus, 0x4013, 0x10);
+        write(bus, 0x4015, 0x1F);
+    }
+
+    private static void write(MemoryBus bus, int address, int value) {
+        bus.writeByte(address, (byte) value);
+    }
+
+    @Benchmark
+    public int runFrame() {
+        machine.runFrame();
+        final SampleRingBuffer ring = machine.getApu().getOutput();
+        int n = 0;
+        int k;
+        while ((k = ring.read(samples, 0, samples.length)) > 0) {
+            n += k;
+        }
+        return n;
+    }
+}
@@ -0,0 +1,54 @@
+package io.famiemu.bench;
+
+import io.famiemu.batch.BatchJob;
+import io.famiemu.batch.BatchResult;
+import io.famiemu.batch.BatchRunner;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link BatchRunner} throughput in emulated cycles per second, by pool size.
+ * Runs the same fixed batch at every size, so the scores compare how it scales with cores.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BatchBenchmark {
+
+    static final int JOBS = 16;
+    static final long CYCLES = 1_000_000;
+
+    @Param({"1", "2", "4", "8"})
+    public int parallelism;
+
+    private BatchRunner runner;
+    private List<BatchJob> jobs;
+
+    @Setup
+    public void setup() {
+        runner = new BatchRunner(parallelism);
+        jobs = new ArrayList<>();
+        String[] names = {"copy", "call", "branch", "alu"};
+        for (int i = 0; i < JOBS; i++) {
+            String name = names[i % names.length];
+            jobs.add(new BatchJob(name, Programs.prgRom(Programs.byName(name)), CYCLES));
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        runner.close();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation((int) (JOBS * CYCLES))
+    public List<BatchResult> batch() {
+        return runner.runAll(jobs);
+    }
+}
@@ -0,0 +1,71 @@
+package io.famiemu.bench;
+
+import io.famiemu.cpu.OP;
+import io.famiemu.cpu.OpCode;
+import io.famiemu.memory.MemoryBus;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Opcode lookup and decode, per opcode.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DecodeBenchmark {
+
+    private MemoryBus bus;
+    private final OpCode holder = new OpCode();
+
+    @Setup
+    public void setup() {
+        bus = Programs.bus(Programs.COPY_LOOP);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(256)
+    public void lookup(Blackhole bh) {
+        for (int code = 0; code < 256; code++) {
+            bh.consume(OP.lookup(code));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(7)
+    public void parse(Blackhole bh) {
+        // the 7 instructions of COPY_LOOP
+        int address = Programs.ORIGIN;
+        for (int i = 0; i < 7; i++) {
+            OpCode code = OpCode.parse(bus, address);
+            bh.consume(code);
+            address += code.op.Bytes();
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(7)
+    public void parseInto(Blackhole bh) {
+        int address = Programs.ORIGIN;
+        for (int i = 0; i < 7; i++) {
+            OpCode code = OpCode.parse(bus, address, holder);
+            bh.consume(code.arg);
+            address += code.op.Bytes();
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(7)
+    public void decode(Blackhole bh) {
+        int address = Programs.ORIGIN;
+        for (int i = 0; i < 7; i++) {
+            long code = OpCode.decode(bus, address);
+            bh.consume(code);
+            address += OpCode.length(code);
+        }
+    }
+}
@@ -0,0 +1,68 @@
+package io.famiemu.bench;
+
+import io.famiemu.cpu.BlockCache;
+import io.famiemu.cpu.DispatchTable;
+import io.famiemu.cpu.Processor;
+import io.famiemu.memory.MemoryBus;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Enum switch interpreter ({@link Processor#run(int)}) against the handler table ({@link DispatchTable})
+ * and the block cache ({@link BlockCache}), with and without compiling hot blocks.
+ * Score is emulated cycles per second.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DispatchBenchmark {
+
+    static final int CYCLES = 100_000;
+
+    @Param({"copy", "call", "branch", "alu"})
+    public String program;
+
+    private Processor cpu;
+    private DispatchTable table;
+    private BlockCache blocks;
+    private BlockCache compiled;
+
+    @Setup
+    public void setup() {
+        MemoryBus bus = Programs.bus(Programs.byName(program));
+        cpu = new Processor(bus, bus);
+        cpu.reset();
+        table = DispatchTable.get();
+        blocks = new BlockCache(cpu, bus);
+        compiled = new BlockCache(cpu, bus);
+        compiled.setJitThreshold(1000);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(CYCLES)
+    public int switchCore() {
+        return cpu.run(CYCLES);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(CYCLES)
+    public int tableCore() {
+        return table.run(cpu, CYCLES);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(CYCLES)
+    public int blockCore() {
+        return blocks.run(CYCLES);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(CYCLES)
+    public int jitCore() {
+        return compiled.run(CYCLES);
+    }
+}
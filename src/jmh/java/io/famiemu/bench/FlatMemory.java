@@ -0,0 +1,34 @@
+package io.famiemu.bench;
+
+import io.famiemu.AddressReader;
+import io.famiemu.AddressWriter;
+
+/**
+ * Plain 64K array, so benchmarks measure the processor and not the memory map.
+ */
+public class FlatMemory implements AddressReader, AddressWriter {
+
+    public final byte[] bytes = new byte[0x10000];
+
+    @Override
+    public byte readByte(int address) {
+        return bytes[address & 0xFFFF];
+    }
+
+    @Override
+    public void writeByte(int address, byte value) {
+        bytes[address & 0xFFFF] = value;
+    }
+
+    /**
+     * Copy program at address, and point the reset vector to it.
+     */
+    public FlatMemory load(int address, int... program) {
+        for (int i = 0; i < program.length; i++) {
+            bytes[address + i] = (byte) program[i];
+        }
+        bytes[0xFFFC] = (byte) address;
+        bytes[0xFFFD] = (byte) (address >>> 8);
+        return this;
+    }
+}
@@ -0,0 +1,47 @@
+package io.famiemu.bench;
+
+import io.famiemu.Machine;
+import org.openjdk.jmh.annotations.*;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Branching a running {@link Machine}: copy-on-write {@link Machine#fork()}
+ * against a new machine restored from a full save-state.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ForkBenchmark {
+
+    private byte[] prg;
+    private Machine parent;
+    private ByteBuffer state;
+
+    @Setup
+    public void setup() {
+        prg = Programs.prgRom(Programs.COPY_LOOP);
+        parent = new Machine(prg);
+        parent.reset();
+        parent.runFrame();
+        state = ByteBuffer.allocate(Machine.STATE_SIZE);
+        parent.saveState(state);
+    }
+
+    @Benchmark
+    public Machine fork() {
+        return parent.fork();
+    }
+
+    @Benchmark
+    public Machine restore() {
+        Machine child = new Machine(prg);
+        state.clear();
+        child.loadState(state);
+        return child;
+    }
+}
@@ -0,0 +1,79 @@
+package io.famiemu.bench;
+
+import io.famiemu.Machine;
+import io.famiemu.mapper.Mmc3;
+import io.famiemu.mapper.Nrom;
+import io.famiemu.rom.InesBuilder;
+import io.famiemu.rom.RomImage;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Frames per second of a loop switching the PRG bank at $8000 on every iteration, on MMC3,
+ * against the same loop on NROM, where the writes are ignored. The JIT threshold is 0 or 2.
+ * <pre>
+ * E000  SEI
+ * E001  LDA #$06
+ * E003  STA $8000
+ * E006  STX $8001
+ * E009  LDA $8000
+ * E00C  STA $0200,X
+ * E00F  INX
+ * E010  JMP $E001
+ * </pre>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MapperBenchmark {
+
+    static final int[] SWITCH_LOOP = {
+            0x78,
+            0xA9, 0x06,
+            0x8D, 0x00, 0x80,
+            0x8E, 0x01, 0x80,
+            0xAD, 0x00, 0x80,
+            0x9D, 0x00, 0x02,
+            0xE8,
+            0x4C, 0x01, 0xE0,
+    };
+
+    @Param({"nrom", "mmc3"})
+    public String mapper;
+
+    @Param({"0", "2"})
+    public int jitThreshold;
+
+    private Machine machine;
+
+    @Setup
+    public void setup() throws IOException {
+        final boolean mmc3 = mapper.equals("mmc3");
+        machine = new Machine(image(mmc3 ? Mmc3.NUMBER : Nrom.NUMBER, mmc3 ? 8 : 2));
+        if (jitThreshold > 0)
+            machine.useBlockCache(jitThreshold);
+        machine.reset();
+    }
+
+    /**
+     * iNES image with CHR-RAM, the program in the last 8K and each 8K bank starting with its number.
+     */
+    static RomImage image(int mapperNumber, int prgBanks) throws IOException {
+        return new InesBuilder(mapperNumber, prgBanks, 0)
+                .numberPrg(0x2000)
+                .put(prgBanks - 1, 0xE000, SWITCH_LOOP)
+                .put(prgBanks - 1, 0xFFFC, 0x00, 0xE0)
+                .build();
+    }
+
+    @Benchmark
+    public byte[] runFrame() {
+        machine.runFrame();
+        return machine.getBus().getRam();
+    }
+}
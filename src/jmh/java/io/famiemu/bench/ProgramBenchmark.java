@@ -0,0 +1,51 @@
+package io.famiemu.bench;
+
+import io.famiemu.cpu.Processor;
+import io.famiemu.memory.MemoryBus;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Whole-program runs of the synthetic loops in {@link Programs} on a {@link MemoryBus}.
+ * <p></p>
+ * {@link #instructions()} scores instructions per second, {@link #cycles()} emulated cycles per second.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ProgramBenchmark {
+
+    static final int STEPS = 10_000;
+    static final int CYCLES = 100_000;
+
+    @Param({"copy", "call", "branch", "alu"})
+    public String program;
+
+    private Processor cpu;
+
+    @Setup
+    public void setup() {
+        MemoryBus bus = Programs.bus(Programs.byName(program));
+        cpu = new Processor(bus, bus);
+        cpu.reset();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(STEPS)
+    public int instructions() {
+        for (int i = 0; i < STEPS; i++) {
+            cpu.singleStep();
+        }
+        return cpu.programCounter;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(CYCLES)
+    public int cycles() {
+        return cpu.run(CYCLES);
+    }
+}
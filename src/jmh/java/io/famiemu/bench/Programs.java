@@ -0,0 +1,156 @@
+package io.famiemu.bench;
+
+import io.famiemu.memory.MemoryBus;
+
+/**
+ * Synthetic 6502 loops used by the benchmarks. All of them loop forever.
+ */
+public final class Programs {
+
+    public static final int ORIGIN = 0x8000;
+
+    /**
+     * Copy a 255-byte table backwards, masking each byte.
+     * <pre>
+     * 8000  LDX #$FF
+     * 8002  LDA $0200,X
+     * 8005  AND #$7F
+     * 8007  STA $0300,X
+     * 800A  DEX
+     * 800B  BNE $8002
+     * 800D  JMP $8000
+     * </pre>
+     */
+    public static final int[] COPY_LOOP = {
+            0xA2, 0xFF,
+            0xBD, 0x00, 0x02,
+            0x29, 0x7F,
+            0x9D, 0x00, 0x03,
+            0xCA,
+            0xD0, 0xF5,
+            0x4C, 0x00, 0x80,
+    };
+
+    /**
+     * Subroutine calls with stack traffic.
+     * <pre>
+     * 8000  LDX #$10
+     * 8002  JSR $8010
+     * 8005  DEX
+     * 8006  BNE $8002
+     * 8008  JMP $8000
+     * 800B  NOP * 5
+     * 8010  PHA
+     * 8011  LDA $00
+     * 8013  TAY
+     * 8014  PLA
+     * 8015  RTS
+     * </pre>
+     */
+    public static final int[] CALL_LOOP = {
+            0xA2, 0x10,
+            0x20, 0x10, 0x80,
+            0xCA,
+            0xD0, 0xFA,
+            0x4C, 0x00, 0x80,
+            0xEA, 0xEA, 0xEA, 0xEA, 0xEA,
+            0x48,
+            0xA5, 0x00,
+            0xA8,
+            0x68,
+            0x60,
+    };
+
+    /**
+     * Compare and branch over a table read through a zero page pointer.
+     * <pre>
+     * 8000  LDY #$00
+     * 8002  LDA ($10),Y
+     * 8004  CMP #$80
+     * 8006  BCS $800A
+     * 8008  LDX #$01
+     * 800A  INY
+     * 800B  BNE $8002
+     * 800D  JMP $8000
+     * </pre>
+     */
+    public static final int[] BRANCH_LOOP = {
+            0xA0, 0x00,
+            0xB1, 0x10,
+            0xC9, 0x80,
+            0xB0, 0x02,
+            0xA2, 0x01,
+            0xC8,
+            0xD0, 0xF5,
+            0x4C, 0x00, 0x80,
+    };
+
+    /**
+     * Flag-setting ALU instructions, most results never read by a branch.
+     * <pre>
+     * 8000  LDX #$00
+     * 8002  LDA $0200,X
+     * 8005  LSR A
+     * 8006  AND #$3F
+     * 8008  TAY
+     * 8009  INY
+     * 800A  DEY
+     * 800B  CMP #$10
+     * 800D  INX
+     * 800E  BNE $8002
+     * 8010  JMP $8000
+     * </pre>
+     */
+    public static final int[] ALU_LOOP = {
+            0xA2, 0x00,
+            0xBD, 0x00, 0x02,
+            0x4A,
+            0x29, 0x3F,
+            0xA8,
+            0xC8,
+            0x88,
+            0xC9, 0x10,
+            0xE8,
+            0xD0, 0xF2,
+            0x4C, 0x00, 0x80,
+    };
+
+    /**
+     * 16K PRG-ROM with program at $8000 and the reset vector pointing to it.
+     */
+    public static byte[] prgRom(int[] program) {
+        byte[] prg = new byte[0x4000];
+        for (int i = 0; i < program.length; i++) {
+            prg[i] = (byte) program[i];
+        }
+        // reset vector at $FFFC, mirrored from $BFFC
+        prg[0x3FFC] = (byte) ORIGIN;
+        prg[0x3FFD] = (byte) (ORIGIN >>> 8);
+        return prg;
+    }
+
+    public static MemoryBus bus(int[] program) {
+        MemoryBus bus = new MemoryBus();
+        bus.mapPrgRom(prgRom(program));
+        // some data for the loops to chew on
+        byte[] ram = bus.getRam();
+        for (int i = 0; i < ram.length; i++) {
+            ram[i] = (byte) (i * 31);
+        }
+        ram[0x10] = 0x00;
+        ram[0x11] = 0x02;
+        return bus;
+    }
+
+    public static int[] byName(String name) {
+        switch (name) {
+            case "copy": return COPY_LOOP;
+            case "call": return CALL_LOOP;
+            case "branch": return BRANCH_LOOP;
+            case "alu": return ALU_LOOP;
+            default: throw new IllegalArgumentException(name);
+        }
+    }
+
+    private Programs() {}
+}
@@ -0,0 +1,85 @@
+package io.famiemu.bench;
+
+import io.famiemu.Machine;
+import io.famiemu.memory.MemoryBus;
+import io.famiemu.ppu.PictureProcessor;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Frames per second of a {@link Machine} with the PPU off, drawing the background,
+ * drawing the background under 64 sprites, 8 on most lines,
+ * and the same without drawing, with a render interval of 0.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RenderBenchmark {
+
+    @Param({"off", "bg", "all", "skip"})
+    public String render;
+
+    private Machine machine;
+
+    @Setup
+    public void setup() {
+        machine = new Machine(Programs.prgRom(Programs.COPY_LOOP));
+        machine.reset();
+        final MemoryBus bus = machine.getBus();
+
+        // 16 tiles of CHR-RAM with different patterns
+        write(bus, 0x2006, 0x00);
+        write(bus, 0x2006, 0x00);
+        for (int i = 0; i < 16 * 16; i++) {
+            write(bus, 0x2007, i * 37);
+        }
+        // nametable 0 and its attributes
+        write(bus, 0x2006, 0x20);
+        write(bus, 0x2006, 0x00);
+        for (int i = 0; i < PictureProcessor.NAMETABLE_SIZE; i++) {
+            write(bus, 0x2007, i & 15);
+        }
+        write(bus, 0x2006, 0x3F);
+        write(bus, 0x2006, 0x00);
+        for (int i = 0; i < PictureProcessor.PALETTE_SIZE; i++) {
+            write(bus, 0x2007, i * 3);
+        }
+        // sprites in 8 rows of 8
+        write(bus, 0x2003, 0);
+        for (int i = 0; i < 64; i++) {
+            write(bus, 0x2004, 16 + (i >>> 3) * 24);
+            write(bus, 0x2004, i & 15);
+            write(bus, 0x2004, i & 0x63);
+            write(bus, 0x2004, (i & 7) * 30);
+        }
+
+        switch (render) {
+            case "bg":
+                write(bus, 0x2001, PictureProcessor.MASK_BG | PictureProcessor.MASK_BG_LEFT);
+                break;
+            case "skip":
+                machine.getPpu().setRenderInterval(0);
+                // fall through
+            case "all":
+                write(bus, 0x2001, PictureProcessor.MASK_BG | PictureProcessor.MASK_BG_LEFT
+                        | PictureProcessor.MASK_SPRITES | PictureProcessor.MASK_SPRITES_LEFT);
+                break;
+            default:
+                write(bus, 0x2001, 0);
+        }
+    }
+
+    private static void write(MemoryBus bus, int address, int value) {
+        bus.writeByte(address, (byte) value);
+    }
+
+    @Benchmark
+    public int[] runFrame() {
+        machine.runFrame();
+        return machine.getPpu().getFrameBuffer();
+    }
+}
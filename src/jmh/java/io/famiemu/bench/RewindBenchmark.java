@@ -0,0 +1,62 @@
+package io.famiemu.bench;
+
+import io.famiemu.Machine;
+import io.famiemu.RewindBuffer;
+import org.openjdk.jmh.annotations.*;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of one rewind snapshot per frame: a ring of full save-states against {@link RewindBuffer},
+ * after a frame that wrote a couple of RAM pages (zero page and stack).
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RewindBenchmark {
+
+    static final int FRAMES = 60;
+
+    private Machine machine;
+    private RewindBuffer rewind;
+    private ByteBuffer[] full;
+    private int next;
+
+    @Setup
+    public void setup() {
+        machine = new Machine(Programs.prgRom(Programs.COPY_LOOP));
+        machine.reset();
+        rewind = new RewindBuffer(machine, FRAMES);
+        full = new ByteBuffer[FRAMES];
+        for (int i = 0; i < FRAMES; i++) {
+            full[i] = ByteBuffer.allocate(Machine.STATE_SIZE);
+        }
+    }
+
+    private void frameWrites() {
+        machine.getBus().writeByte(0x0010, (byte) next);
+        machine.getBus().writeByte(0x01FF, (byte) next);
+    }
+
+    @Benchmark
+    public ByteBuffer fullSnapshot() {
+        frameWrites();
+        ByteBuffer buf = full[next];
+        next = (next + 1) % FRAMES;
+        buf.clear();
+        machine.saveState(buf);
+        return buf;
+    }
+
+    @Benchmark
+    public RewindBuffer pagedSnapshot() {
+        frameWrites();
+        next = (next + 1) % FRAMES;
+        rewind.capture();
+        return rewind;
+    }
+}
@@ -0,0 +1,51 @@
+package io.famiemu.bench;
+
+import io.famiemu.Machine;
+import org.openjdk.jmh.annotations.*;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Snapshots and restores per second of a whole {@link Machine} save-state, into a reused buffer.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SaveStateBenchmark {
+
+    @Param({"heap", "direct"})
+    public String buffer;
+
+    private Machine machine;
+    private ByteBuffer state;
+
+    @Setup
+    public void setup() {
+        machine = new Machine(Programs.prgRom(Programs.COPY_LOOP));
+        machine.reset();
+        machine.runFrame();
+
+        state = "direct".equals(buffer)
+                ? ByteBuffer.allocateDirect(Machine.STATE_SIZE)
+                : ByteBuffer.allocate(Machine.STATE_SIZE);
+        machine.saveState(state);
+    }
+
+    @Benchmark
+    public ByteBuffer snapshot() {
+        state.clear();
+        machine.saveState(state);
+        return state;
+    }
+
+    @Benchmark
+    public Machine restore() {
+        state.clear();
+        machine.loadState(state);
+        return machine;
+    }
+}
@@ -0,0 +1,105 @@
+package io.famiemu.bench;
+
+import io.famiemu.cpu.Processor;
+import io.famiemu.trace.BinaryTraceSink;
+import io.famiemu.trace.RingBufferTraceSink;
+import io.famiemu.trace.TextTraceSink;
+import io.famiemu.trace.TraceSink;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Instructions per second with tracing off, in a ring buffer, formatted as text,
+ * and recorded as binary on the background writer. Output is discarded.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TraceBenchmark {
+
+    static final int STEPS = 10_000;
+
+    @Param({"off", "ring", "text", "binary"})
+    public String sink;
+
+    private Processor cpu;
+
+    @Setup
+    public void setup() {
+        FlatMemory mem = new FlatMemory().load(Programs.ORIGIN, Programs.COPY_LOOP);
+        cpu = new Processor(mem, mem);
+        cpu.reset();
+
+        switch (sink) {
+            case "ring":
+                cpu.setTraceSink(new RingBufferTraceSink(1 << 12));
+                break;
+            case "text":
+                cpu.setTraceSink(new TextTraceSink(NullWriter.INSTANCE));
+                break;
+            case "binary":
+                cpu.setTraceSink(new BinaryTraceSink(new NullChannel()));
+                break;
+            default:
+                cpu.setTraceSink(TraceSink.NONE);
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        TraceSink trace = cpu.getTraceSink();
+        if (trace instanceof BinaryTraceSink)
+            ((BinaryTraceSink) trace).close();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(STEPS)
+    public int singleStep() {
+        for (int i = 0; i < STEPS; i++) {
+            cpu.singleStep();
+        }
+        return cpu.programCounter;
+    }
+
+    static final class NullWriter extends Writer {
+        static final NullWriter INSTANCE = new NullWriter();
+
+        @Override
+        public void write(char[] cbuf, int off, int len) {}
+
+        @Override
+        public void flush() {}
+
+        @Override
+        public void close() {}
+    }
+
+    static final class NullChannel implements WritableByteChannel {
+        private boolean open = true;
+
+        @Override
+        public int write(ByteBuffer src) {
+            int n = src.remaining();
+            src.position(src.limit());
+            return n;
+        }
+
+        @Override
+        public boolean isOpen() {
+            return open;
+        }
+
+        @Override
+        public void close() {
+            open = false;
+        }
+    }
+}
@@ -0,0 +1,43 @@
+package io.famiemu.cpu;
+
+import io.famiemu.bench.Programs;
+import io.famiemu.memory.MemoryBus;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link Processor#readTargetAddress(AddressingMode, int, int, int)} for each mode.
+ * Lives in the cpu package because the method is package-private.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AddressingModeBenchmark {
+
+    @Param({"Accumulator", "Implied", "Immediate",
+            "ZeroPage", "ZeroPageX", "ZeroPageY",
+            "Absolute", "AbsoluteX", "AbsoluteY",
+            "Indirect", "IndirectX", "IndirectY",
+            "Relative"})
+    public AddressingMode mode;
+
+    private Processor cpu;
+    private int x = 3, y = 5;
+
+    @Setup
+    public void setup() {
+        MemoryBus bus = Programs.bus(Programs.COPY_LOOP);
+        cpu = new Processor(bus, bus);
+        cpu.reset();
+    }
+
+    @Benchmark
+    public int readTargetAddress() {
+        // operand bytes at $8003 are $00 $02
+        return cpu.readTargetAddress(mode, 0x8003, x, y);
+    }
+}
@@ -0,0 +1,296 @@
+package io.famiemu;
+
+import io.famiemu.apu.AudioProcessor;
+import io.famiemu.cpu.BlockCache;
+import io.famiemu.cpu.Processor;
+import io.famiemu.input.Controller;
+import io.famiemu.mapper.Mapper;
+import io.famiemu.mapper.Nrom;
+import io.famiemu.memory.IoDispatcher;
+import io.famiemu.memory.IoHandler;
+import io.famiemu.memory.MemoryBus;
+import io.famiemu.ppu.PictureProcessor;
+import io.famiemu.ppu.TileCache;
+import io.famiemu.rom.RomImage;
+
+import java.nio.ByteBuffer;
+
+/**
+ * One headless console: memory, CPU, PPU, APU and the master clock, without any UI.
+ * <p></p>
+ * A machine owns all of its mutable state, so separate machines can run on separate threads.
+ * Only the ROM image may be shared, it is mapped read-only,
+ * and the RAM pages of {@link #fork()}ed machines, which are never written.
+ * <p></p>
+ * Save-states are plain binary, written field by field to a {@link ByteBuffer}:
+ *
+ * <pre>
+ * int    {@link #STATE_MAGIC}
+ * int    {@link #STATE_VERSION}
+ *        {@link Processor#saveState}
+ *        {@link Scheduler#saveState}
+ *        {@link PictureProcessor#saveState}
+ *        {@link AudioProcessor#saveState}
+ *        {@link Mapper#saveState}
+ *        {@link MemoryBus#saveState}
+ * </pre>
+ * The file format is big-endian, the default of a new buffer.
+ */
+public class Machine {
+
+    /** "FAMS" */
+    public static final int STATE_MAGIC = 0x46414D53;
+    /** bumped whenever the layout changes, old states are rejected */
+    public static final int STATE_VERSION = 4;
+    public static final int STATE_SIZE = 4 + 4 + Processor.STATE_SIZE + Scheduler.STATE_SIZE
+            + PictureProcessor.STATE_SIZE + AudioProcessor.STATE_SIZE + Mapper.STATE_SIZE + MemoryBus.STATE_SIZE;
+
+    private final MemoryBus bus = new MemoryBus();
+    private final Processor cpu = new Processor(bus, bus);
+    private final Scheduler scheduler = new Scheduler(cpu);
+    private final PictureProcessor ppu = new PictureProcessor(scheduler, cpu);
+    private final AudioProcessor apu = new AudioProcessor(scheduler, bus);
+    private final IoDispatcher io = new IoDispatcher();
+    private final Controller pad1 = new Controller();
+    private final Controller pad2 = new Controller();
+    private final byte[] prgRom;
+    private final TileCache chrRom;
+    private final RomImage.Mirroring mirroring;
+    private final Mapper mapper;
+    private BlockCache blocks;
+    private int jitThreshold;
+
+    /**
+     * NROM cartridge with CHR-RAM and horizontal mirroring.
+     */
+    public Machine(byte[] prgRom) {
+        this(prgRom, (TileCache) null, RomImage.Mirroring.HORIZONTAL, new Nrom());
+    }
+
+    /**
+     * Cartridge with the mapper of the image, banking the PRG array and decoded CHR shared by all machines on the image.
+     *
+     * @throws IllegalArgumentException if the mapper is not supported, see {@link Mapper#create(int)}
+     */
+    public Machine(RomImage rom) {
+        this(rom.getPrgArray(), rom.getChrBanks() > 0 ? rom.getChrTiles() : null, rom.getMirroring(),
+                Mapper.create(rom.getMapper()));
+    }
+
+    /**
+     * @param prgRom 16K or 32K, not copied
+     * @param chrRom 8K, not copied but decoded for this machine, or null for CHR-RAM
+     */
+    public Machine(byte[] prgRom, byte[] chrRom, RomImage.Mirroring mirroring) {
+        this(prgRom, chrRom != null ? TileCache.forRom(chrRom) : null, mirroring, new Nrom());
+    }
+
+    private Machine(byte[] prgRom, TileCache chrRom, RomImage.Mirroring mirroring, Mapper mapper) {
+        this.prgRom = prgRom;
+        this.chrRom = chrRom;
+        this.mirroring = mirroring;
+        this.mapper = mapper;
+        bus.setHandler(0x2000, 0x2000, ppu);
+        mapper.attach(bus, ppu, scheduler, prgRom, chrRom, mirroring);
+
+        io.register(0x4000, 0x14, apu);
+        io.register(0x4015, 1, apu);
+        io.register(0x4014, 1, new IoHandler() {
+            @Override
+            public byte read(int address) {
+                return OPEN_BUS.read(address);
+            }
+
+            @Override
+            public void write(int address, byte value) {
+                ppu.oamDma(bus, value & 0xFF);
+            }
+        });
+
+        io.register(0x4016, 1, new IoHandler() {
+            @Override
+            public byte read(int address) {
+                // upper bits are open bus
+                return (byte) (0x40 | pad1.read());
+            }
+
+            @Override
+            public void write(int address, byte value) {
+                pad1.strobe((value & 1) != 0);
+                pad2.strobe((value & 1) != 0);
+            }
+        });
+        io.register(0x4017, 1, new IoHandler() {
+            @Override
+            public byte read(int address) {
+                return (byte) (0x40 | pad2.read());
+            }
+
+            @Override
+            public void write(int address, byte value) {
+                // APU frame counter
+                apu.write(address, value);
+            }
+        });
+        bus.setHandler(0x4000, MemoryBus.PAGE_SIZE, io);
+    }
+
+    public MemoryBus getBus() {
+        return bus;
+    }
+
+    public Processor getCpu() {
+        return cpu;
+    }
+
+    public Scheduler getScheduler() {
+        return scheduler;
+    }
+
+    public PictureProcessor getPpu() {
+        return ppu;
+    }
+
+    public AudioProcessor getApu() {
+        return apu;
+    }
+
+    public Mapper getMapper() {
+        return mapper;
+    }
+
+    /**
+     * @return registers at $4000-$40FF
+     */
+    public IoDispatcher getIo() {
+        return io;
+    }
+
+    public Controller getController1() {
+        return pad1;
+    }
+
+    public Controller getController2() {
+        return pad2;
+    }
+
+    /**
+     * Run the CPU through a {@link BlockCache} instead of the interpreter loop.
+     *
+     * @param jitThreshold see {@link BlockCache#setJitThreshold(int)}
+     */
+    public void useBlockCache(int jitThreshold) {
+        if (blocks == null) {
+            blocks = new BlockCache(cpu, bus);
+            scheduler.setCore(blocks::run);
+        }
+        blocks.setJitThreshold(jitThreshold);
+        this.jitThreshold = jitThreshold;
+    }
+
+    public void reset() {
+        // power-on banks first, the CPU reads the reset vector through them
+        mapper.reset();
+        scheduler.reset();
+        ppu.reset();
+        apu.reset();
+    }
+
+    public void runFrame() {
+        scheduler.runFrame();
+    }
+
+    /**
+     * @return CPU cycles since the last reset
+     */
+    public long cycles() {
+        return scheduler.now() / Scheduler.CPU_DIVIDER;
+    }
+
+    /**
+     * Write a save-state of {@link #STATE_SIZE} bytes at the buffer position.
+     */
+    public void saveState(ByteBuffer buf) {
+        buf.putInt(STATE_MAGIC);
+        buf.putInt(STATE_VERSION);
+        cpu.saveState(buf);
+        scheduler.saveState(buf);
+        ppu.saveState(buf);
+        apu.saveState(buf);
+        mapper.saveState(buf);
+        bus.saveState(buf);
+    }
+
+    /**
+     * Restore a save-state from the buffer position.
+     *
+     * @throws IllegalArgumentException if it is not a save-state of this version
+     */
+    public void loadState(ByteBuffer buf) {
+        final int magic = buf.getInt();
+        final int version = buf.getInt();
+        if (magic != STATE_MAGIC || version != STATE_VERSION)
+            throw new IllegalArgumentException(String.format("Unsupported save-state magic=%08X version=%d", magic, version));
+
+        cpu.loadState(buf);
+        scheduler.loadState(buf);
+        ppu.loadState(buf);
+        apu.loadState(buf);
+        mapper.loadState(buf);
+        bus.loadState(buf);
+        memoryRestored();
+    }
+
+    /**
+     * Branch off a new machine in the same state, e.g. to try different inputs from here.
+     * <p></p>
+     * RAM is not copied: both machines read the same frozen pages
+     * until each one writes a page, which then copies only that page ({@link MemoryBus#sharePages()}).
+     * The few K of PPU memory are copied.
+     * The child owns all of its other state, so it can run on another thread than this machine.
+     * Forking is not thread-safe itself, fork on the thread that runs this machine.
+     */
+    public Machine fork() {
+        final Machine child = new Machine(prgRom, chrRom, mirroring, Mapper.create(mapper.getNumber()));
+        if (blocks != null)
+            child.useBlockCache(jitThreshold);
+
+        final ByteBuffer state = ByteBuffer.allocate(Processor.STATE_SIZE + Scheduler.STATE_SIZE
+                + PictureProcessor.STATE_SIZE + AudioProcessor.STATE_SIZE + Mapper.STATE_SIZE);
+        cpu.saveState(state);
+        scheduler.saveState(state);
+        ppu.saveState(state);
+        apu.saveState(state);
+        mapper.saveState(state);
+        state.flip();
+        child.cpu.loadState(state);
+        child.scheduler.loadState(state);
+        child.ppu.loadState(state);
+        child.apu.loadState(state);
+        child.mapper.loadState(state);
+        child.ppu.setRenderInterval(ppu.getRenderInterval());
+        child.apu.setSampleRate(apu.getSampleRate());
+        child.apu.setOutputEnabled(apu.isOutputEnabled());
+
+        child.bus.mapSharedPages(bus.sharePages());
+        child.pad1.copyFrom(pad1);
+        child.pad2.copyFrom(pad2);
+        return child;
+    }
+
+    /**
+     * RAM changed behind the write traps, drop the code cached from it.
+     */
+    void memoryRestored() {
+        if (blocks != null)
+            blocks.invalidateAll();
+    }
+
+    /**
+     * @return true if the CPU sits on a JMP to itself, which test ROMs use to stop
+     */
+    public boolean isIdle() {
+        final int pc = cpu.programCounter;
+        return bus.readU8(pc) == 0x4C && bus.readU16(pc + 1) == pc;
+    }
+}
@@ -0,0 +1,145 @@
+package io.famiemu;
+
+import io.famiemu.apu.AudioProcessor;
+import io.famiemu.cpu.Processor;
+import io.famiemu.mapper.Mapper;
+import io.famiemu.memory.MemoryBus;
+import io.famiemu.ppu.PictureProcessor;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Bounded ring of recent {@link Machine} snapshots for rewind, e.g. one per frame.
+ * <p></p>
+ * A snapshot keeps RAM as {@link MemoryBus#RAM_PAGES} page references.
+ * Only the pages written since the previous snapshot are copied,
+ * the others are shared with it, so a quiet frame costs a few hundred bytes instead of 10K.
+ * PPU memory is shared the same way, as one block copied in frames that wrote it.
+ * Pages are never modified once captured.
+ */
+public class RewindBuffer {
+
+    private static final int CPU_STATE_SIZE = Processor.STATE_SIZE + Scheduler.STATE_SIZE + PictureProcessor.REGISTERS_SIZE
+            + AudioProcessor.STATE_SIZE + Mapper.STATE_SIZE;
+
+    private static final class Snapshot {
+        final byte[][] pages;
+        final byte[] ppuMemory;
+        final byte[] state;
+
+        Snapshot(byte[][] pages, byte[] ppuMemory, byte[] state) {
+            this.pages = pages;
+            this.ppuMemory = ppuMemory;
+            this.state = state;
+        }
+    }
+
+    private final Machine machine;
+    private final Snapshot[] ring;
+    /** slot of the next capture */
+    private int head;
+    private int size;
+    /** pages of the newest snapshot, null if none */
+    private byte[][] last;
+    private byte[] lastPpuMemory;
+
+    public RewindBuffer(Machine machine, int capacity) {
+        if (capacity <= 0)
+            throw new IllegalArgumentException("capacity=" + capacity);
+        this.machine = machine;
+        this.ring = new Snapshot[capacity];
+    }
+
+    /**
+     * Snapshot the machine, dropping the oldest snapshot when full.
+     */
+    public void capture() {
+        final MemoryBus bus = machine.getBus();
+        final long dirty = bus.takeDirtyPages();
+
+        final byte[][] pages = last == null ? new byte[MemoryBus.RAM_PAGES][] : last.clone();
+        for (int i = 0; i < MemoryBus.RAM_PAGES; i++) {
+            if (pages[i] == null || ((dirty >>> i) & 1) != 0) {
+                pages[i] = new byte[MemoryBus.PAGE_SIZE];
+                bus.copyRamPage(i, pages[i]);
+            }
+        }
+
+        final PictureProcessor ppu = machine.getPpu();
+        byte[] ppuMemory = lastPpuMemory;
+        if (ppu.takeMemoryWritten() || ppuMemory == null) {
+            ppuMemory = new byte[PictureProcessor.MEMORY_SIZE];
+            ppu.saveMemory(ByteBuffer.wrap(ppuMemory));
+        }
+
+        final ByteBuffer state = ByteBuffer.allocate(CPU_STATE_SIZE);
+        machine.getCpu().saveState(state);
+        machine.getScheduler().saveState(state);
+        ppu.saveRegisters(state);
+        machine.getApu().saveState(state);
+        machine.getMapper().saveState(state);
+
+        ring[head] = new Snapshot(pages, ppuMemory, state.array());
+        head = (head + 1) % ring.length;
+        size = Math.min(size + 1, ring.length);
+        last = pages;
+        lastPpuMemory = ppuMemory;
+    }
+
+    /**
+     * Restore a snapshot and drop the ones newer than it.
+     *
+     * @param back 1 for the newest snapshot, up to {@link #size()}
+     * @return false if there are not that many snapshots
+     */
+    public boolean rewind(int back) {
+        if (back < 1 || back > size)
+            return false;
+
+        head = (head - back + ring.length) % ring.length;
+        final Snapshot snapshot = ring[head];
+        // the restored one stays, as the newest
+        for (int i = 1; i < back; i++) {
+            ring[(head + i) % ring.length] = null;
+        }
+        head = (head + 1) % ring.length;
+        size -= back - 1;
+
+        final MemoryBus bus = machine.getBus();
+        for (int i = 0; i < MemoryBus.RAM_PAGES; i++) {
+            bus.loadRamPage(i, snapshot.pages[i]);
+        }
+        // RAM now equals the snapshot, the next capture diffs against it
+        bus.takeDirtyPages();
+        last = snapshot.pages;
+
+        final ByteBuffer state = ByteBuffer.wrap(snapshot.state);
+        machine.getCpu().loadState(state);
+        machine.getScheduler().loadState(state);
+        final PictureProcessor ppu = machine.getPpu();
+        ppu.loadRegisters(state);
+        machine.getApu().loadState(state);
+        machine.getMapper().loadState(state);
+        ppu.loadMemory(ByteBuffer.wrap(snapshot.ppuMemory));
+        ppu.takeMemoryWritten();
+        lastPpuMemory = snapshot.ppuMemory;
+        machine.memoryRestored();
+        return true;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int capacity() {
+        return ring.length;
+    }
+
+    public void clear() {
+        Arrays.fill(ring, null);
+        head = size = 0;
+        last = null;
+        lastPpuMemory = null;
+    }
+}
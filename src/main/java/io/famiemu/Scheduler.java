@@ -0,0 +1,285 @@
+package io.famiemu;
+
+import io.famiemu.cpu.Processor;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.function.IntUnaryOperator;
+
+/**
+ * Coordinates the chips on one 64-bit master clock (NTSC 21.477272 MHz).
+ * <p></p>
+ * Other chips register timed {@link Event}s (PPU scanline, NMI, APU frame counter, mapper IRQ, ...),
+ * kept in a binary min-heap ordered by due time.
+ * The CPU runs in catch-up batches up to the next due event, then every due event fires.
+ * An event fires between two instructions, at most one instruction late,
+ * and nothing is ticked on the cycles in between.
+ * <p></p>
+ * The IRQ line is level-triggered: while any source holds it ({@link #setIrq}),
+ * the CPU takes an IRQ between batches whenever its IRQ_DISABLE flag allows.
+ */
+public class Scheduler {
+
+    public static final long MASTER_CLOCK_HZ = 21_477_272L;
+    public static final int CPU_DIVIDER = 12;
+    public static final int PPU_DIVIDER = 4;
+
+    public static final int DOTS_PER_SCANLINE = 341;
+    public static final int SCANLINES_PER_FRAME = 262;
+    public static final long MASTER_PER_SCANLINE = DOTS_PER_SCANLINE * PPU_DIVIDER;
+    public static final long MASTER_PER_FRAME = MASTER_PER_SCANLINE * SCANLINES_PER_FRAME;
+    /** first scanline of V-Blank, where the PPU raises NMI */
+    public static final int VBLANK_SCANLINE = 241;
+
+    /** due time of an event that will not fire again */
+    public static final long NEVER = Long.MAX_VALUE;
+
+    // sources of the IRQ line
+    public static final int IRQ_FRAME_COUNTER = 1;
+    public static final int IRQ_DMC = 1 << 1;
+    public static final int IRQ_MAPPER = 1 << 2;
+
+    public interface Event {
+        /**
+         * Called once the CPU has reached the due time.
+         *
+         * @param due the time it was scheduled for, which may be slightly before {@link #now()}
+         * @return next due time, or {@link #NEVER} to remove the event
+         */
+        long fire(long due);
+    }
+
+    private final Processor cpu;
+    private IntUnaryOperator core;
+
+    /** master clock, where the CPU is */
+    private long now;
+    /** cpu.cycle when now was last synced */
+    private int lastCpuCycle;
+    /** cycles the CPU was halted since the last sync */
+    private int stalled;
+    /** IRQ sources holding the line */
+    private int irq;
+
+    // binary min-heap on times
+    private long[] times = new long[8];
+    private Event[] events = new Event[8];
+    private int size;
+
+    public Scheduler(Processor cpu) {
+        this.cpu = cpu;
+        this.core = cpu::run;
+        this.lastCpuCycle = cpu.cycle;
+    }
+
+    /**
+     * Execution core used for the CPU batches, {@link Processor#run(int)} by default.
+     * Takes a cycle budget, returns the cycles used.
+     */
+    public void setCore(IntUnaryOperator core) {
+        this.core = core;
+    }
+
+    public long now() {
+        return now;
+    }
+
+    /**
+     * Reset the CPU and restart the master clock at 0. Scheduled events are kept.
+     */
+    public void reset() {
+        cpu.reset();
+        now = 0;
+        lastCpuCycle = cpu.cycle;
+        stalled = 0;
+    }
+
+    /** bytes written by {@link #saveState(ByteBuffer)} */
+    public static final int STATE_SIZE = 8 + 4;
+
+    /**
+     * Write the master clock. Events are not saved, each chip restores and reschedules its own.
+     */
+    public void saveState(ByteBuffer buf) {
+        buf.putLong(now);
+        buf.putInt(lastCpuCycle);
+    }
+
+    public void loadState(ByteBuffer buf) {
+        now = buf.getLong();
+        lastCpuCycle = buf.getInt();
+    }
+
+    /**
+     * Schedule the event at time, or move it if already scheduled.
+     * {@link #NEVER} removes it.
+     */
+    public void schedule(Event event, long time) {
+        int i = indexOf(event);
+        if (i < 0) {
+            if (time == NEVER)
+                return;
+            if (size == times.length) {
+                times = Arrays.copyOf(times, size * 2);
+                events = Arrays.copyOf(events, size * 2);
+            }
+            i = size++;
+            times[i] = time;
+            events[i] = event;
+            siftUp(i);
+        } else if (time == NEVER) {
+            removeAt(i);
+        } else {
+            long old = times[i];
+            times[i] = time;
+            if (time < old) siftUp(i);
+            else siftDown(i);
+        }
+    }
+
+    /**
+     * Hold or release the IRQ line for one source, e.g. {@link #IRQ_FRAME_COUNTER}.
+     * Not saved with the state, each chip sets its own again when it loads.
+     */
+    public void setIrq(int source, boolean asserted) {
+        if (asserted) irq |= source;
+        else irq &= ~source;
+    }
+
+    /**
+     * @return sources holding the IRQ line
+     */
+    public int getIrq() {
+        return irq;
+    }
+
+    /**
+     * Halt the CPU for a number of cycles, e.g. for the OAM DMA started by a register write.
+     * The clock catches up at the end of the running batch, so events due meanwhile fire late.
+     */
+    public void stall(int cpuCycles) {
+        stalled += cpuCycles;
+    }
+
+    /**
+     * Run action every period master cycles, starting at first.
+     */
+    public Event schedulePeriodic(long first, long period, Runnable action) {
+        Event event = due -> {
+            action.run();
+            return due + period;
+        };
+        schedule(event, first);
+        return event;
+    }
+
+    public void cancel(Event event) {
+        schedule(event, NEVER);
+    }
+
+    /**
+     * @return due time of the earliest event, or {@link #NEVER}
+     */
+    public long nextEventTime() {
+        return size == 0 ? NEVER : times[0];
+    }
+
+    /**
+     * Run the CPU and fire events until the master clock reaches target.
+     */
+    public void runUntil(long target) {
+        while (now < target) {
+            final long due = Math.min(target, nextEventTime());
+            if (now < due) {
+                // round up, the CPU stops on an instruction boundary at or after due
+                core.applyAsInt((int) Math.min(Integer.MAX_VALUE, (due - now + CPU_DIVIDER - 1) / CPU_DIVIDER));
+                sync();
+            }
+            fireDue();
+            if (irq != 0) {
+                cpu.interrupt(Processor.Interruption.IRQ_BRK);
+                sync();
+            }
+        }
+    }
+
+    /**
+     * Run one NTSC frame worth of master cycles.
+     */
+    public void runFrame() {
+        runUntil(now + MASTER_PER_FRAME);
+    }
+
+    /**
+     * Advance the clock by the cycles the CPU used since the last sync,
+     * including interrupts and stalls caused by events.
+     */
+    private void sync() {
+        final int c = cpu.cycle;
+        now += (long) (c - lastCpuCycle + stalled) * CPU_DIVIDER;
+        lastCpuCycle = c;
+        stalled = 0;
+    }
+
+    private void fireDue() {
+        while (size > 0 && times[0] <= now) {
+            final Event event = events[0];
+            final long next = event.fire(times[0]);
+            // the event may have rescheduled itself or others, find it again
+            schedule(event, next);
+            sync();
+        }
+    }
+
+    private int indexOf(Event event) {
+        for (int i = 0; i < size; i++) {
+            if (events[i] == event) return i;
+        }
+        return -1;
+    }
+
+    private void removeAt(int i) {
+        size--;
+        if (i == size) {
+            events[size] = null;
+            return;
+        }
+        times[i] = times[size];
+        events[i] = events[size];
+        events[size] = null;
+        siftDown(i);
+        siftUp(i);
+    }
+
+    private void siftUp(int i) {
+        while (i > 0) {
+            int parent = (i - 1) >>> 1;
+            if (times[parent] <= times[i])
+                break;
+            swap(i, parent);
+            i = parent;
+        }
+    }
+
+    private void siftDown(int i) {
+        while (true) {
+            int left = 2 * i + 1;
+            if (left >= size)
+                break;
+            int child = left + 1 < size && times[left + 1] < times[left] ? left + 1 : left;
+            if (times[i] <= times[child])
+                break;
+            swap(i, child);
+            i = child;
+        }
+    }
+
+    private void swap(int i, int j) {
+        long t = times[i];
+        times[i] = times[j];
+        times[j] = t;
+        Event e = events[i];
+        events[i] = events[j];
+        events[j] = e;
+    }
+}
@@ -0,0 +1,392 @@
+package io.famiemu.apu;
+
+import io.famiemu.AddressReader;
+import io.famiemu.Scheduler;
+import io.famiemu.memory.IoHandler;
+
+import java.nio.ByteBuffer;
+
+/**
+ * The 2A03 audio processing unit: two pulse, triangle, noise and DMC channels at $4000-$4013,
+ * status at $4015 and the frame counter at $4017.
+ * <p></p>
+ * Nothing is ticked per CPU cycle. The APU catches up to the CPU when a register is accessed
+ * and on each frame counter step, a {@link Scheduler.Event}. Catching up jumps from one channel
+ * timer expiry to the next, and each change of the mixed output goes into a {@link BandLimitedBuffer}
+ * at its clock time. At every frame counter step and $4017 write the finished samples are moved to the
+ * {@link #getOutput() output ring}, for an audio thread or a {@link WavSink} to consume.
+ * <p></p>
+ * Register accesses in the middle of a CPU batch are timed at the start of the batch, at most a scanline early.
+ * The frame counter and DMC IRQs hold the {@link Scheduler#setIrq IRQ line} until acknowledged.
+ * With {@link #setOutputEnabled output} off, only what the CPU can observe is emulated:
+ * length counters, IRQs and the DMC sample fetches, which stall the CPU.
+ */
+public class AudioProcessor implements IoHandler {
+
+    public static final int CPU_CLOCK_HZ = (int) (Scheduler.MASTER_CLOCK_HZ / Scheduler.CPU_DIVIDER);
+    public static final int DEFAULT_SAMPLE_RATE = 44100;
+
+    /** samples held by the output ring, about a third of a second */
+    private static final int OUTPUT_CAPACITY = 1 << 14;
+    /** most samples between two flushes, at up to 192 kHz */
+    private static final int BLOCK_SIZE = 1024;
+
+    // frame counter steps, CPU cycles after the $4017 write
+    private static final int[] FOUR_STEP = {7457, 14913, 22371, 29829};
+    private static final int FOUR_STEP_PERIOD = 29830;
+    private static final int[] FIVE_STEP = {7457, 14913, 22371, 29829, 37281};
+    private static final int FIVE_STEP_PERIOD = 37282;
+    /** most CPU cycles between two flushes, from the last step of a period to the first of the next */
+    private static final int MAX_FLUSH_GAP = FOUR_STEP_PERIOD - FOUR_STEP[3] + FOUR_STEP[0];
+
+    // nonlinear mixer, by the sum of the pulse levels and by 3 * triangle + 2 * noise + DMC
+    private static final float[] PULSE_MIX = new float[31];
+    private static final float[] TND_MIX = new float[203];
+
+    static {
+        for (int n = 1; n < PULSE_MIX.length; n++) {
+            PULSE_MIX[n] = 95.52f / (8128f / n + 100);
+        }
+        for (int n = 1; n < TND_MIX.length; n++) {
+            TND_MIX[n] = 163.67f / (24329f / n + 100);
+        }
+    }
+
+    private final Scheduler scheduler;
+    private final PulseChannel pulse1 = new PulseChannel(true);
+    private final PulseChannel pulse2 = new PulseChannel(false);
+    private final TriangleChannel triangle = new TriangleChannel();
+    private final NoiseChannel noise = new NoiseChannel();
+    private final DmcChannel dmc;
+    private final Channel[] channels = {pulse1, pulse2, triangle, noise};
+
+    /** CPU time synthesized up to */
+    private long time;
+    /** CPU time of the last $4017 write, the frame counter counts from there */
+    private long sequencerStart;
+    private int sequencerStep;
+    private boolean fiveStep;
+    private boolean irqInhibit;
+    private boolean frameIrq;
+
+    private boolean outputEnabled = true;
+    private BandLimitedBuffer buffer;
+    private final short[] block = new short[BLOCK_SIZE];
+    private final SampleRingBuffer output = new SampleRingBuffer(OUTPUT_CAPACITY);
+    /** mixed level last added to the buffer */
+    private float amplitude;
+
+    private final Scheduler.Event sequencerEvent = this::sequence;
+    private final Scheduler.Event dmcIrqEvent = this::dmcIrq;
+
+    /**
+     * @param memory CPU memory the DMC reads its samples from
+     */
+    public AudioProcessor(Scheduler scheduler, AddressReader memory) {
+        this.scheduler = scheduler;
+        this.dmc = new DmcChannel(memory, scheduler);
+        this.buffer = new BandLimitedBuffer(CPU_CLOCK_HZ, DEFAULT_SAMPLE_RATE, BLOCK_SIZE);
+        reset();
+    }
+
+    /**
+     * Silence all channels and restart the frame counter at the current time, as on reset.
+     */
+    public void reset() {
+        time = cpuNow();
+        for (Channel channel : channels) {
+            channel.setEnabled(false);
+            channel.nextStep = time + channel.period;
+        }
+        dmc.setEnabled(false);
+        dmc.nextStep = time + dmc.period;
+        irqInhibit = false;
+        frameIrq = false;
+        updateIrq();
+        scheduler.cancel(dmcIrqEvent);
+        restartSequencer(false);
+        buffer.reset(time);
+        amplitude = level();
+    }
+
+    /**
+     * @return samples for the audio consumer, at {@link #getSampleRate()}
+     */
+    public SampleRingBuffer getOutput() {
+        return output;
+    }
+
+    public int getSampleRate() {
+        return buffer.getSampleRate();
+    }
+
+    /**
+     * Resample to another rate, e.g. 48000. Samples not yet in the output ring are dropped.
+     */
+    public void setSampleRate(int sampleRate) {
+        if (sampleRate <= 0 || sampleRate > BLOCK_SIZE * (long) CPU_CLOCK_HZ / MAX_FLUSH_GAP)
+            throw new IllegalArgumentException("sampleRate=" + sampleRate);
+        buffer = new BandLimitedBuffer(CPU_CLOCK_HZ, sampleRate, BLOCK_SIZE);
+        buffer.reset(time);
+    }
+
+    public boolean isOutputEnabled() {
+        return outputEnabled;
+    }
+
+    /**
+     * Produce samples or not. Off, the tone channels are not run at all,
+     * which is what batch runs want; the game cannot tell the difference.
+     */
+    public void setOutputEnabled(boolean enabled) {
+        if (enabled && !outputEnabled) {
+            buffer.reset(time);
+            amplitude = level();
+        }
+        outputEnabled = enabled;
+    }
+
+    @Override
+    public byte read(int address) {
+        if ((address & 0x1F) != 0x15)
+            return OPEN_BUS.read(address);
+
+        catchUp();
+        int value = 0;
+        for (int i = 0; i < channels.length; i++) {
+            if (channels[i].length > 0)
+                value |= 1 << i;
+        }
+        if (dmc.bytesRemaining > 0) value |= 0x10;
+        if (frameIrq) value |= 0x40;
+        if (dmc.irq) value |= 0x80;
+        // reading acknowledges the frame IRQ, not the DMC one
+        frameIrq = false;
+        updateIrq();
+        return (byte) (value | (OPEN_BUS.read(address) & 0x20));
+    }
+
+    @Override
+    public void write(int address, byte value) {
+        catchUp();
+        final int reg = address & 0x1F;
+        final int data = value & 0xFF;
+        if (reg < 0x10) {
+            channels[reg >>> 2].write(reg & 3, data);
+        } else if (reg < 0x14) {
+            dmc.write(reg & 3, data);
+            dmcChanged();
+        } else if (reg == 0x15) {
+            for (int i = 0; i < channels.length; i++) {
+                channels[i].setEnabled((data & (1 << i)) != 0);
+            }
+            dmc.setEnabled((data & 0x10) != 0);
+            dmcChanged();
+        } else if (reg == 0x17) {
+            irqInhibit = (data & 0x40) != 0;
+            if (irqInhibit) {
+                frameIrq = false;
+                updateIrq();
+            }
+            restartSequencer((data & 0x80) != 0);
+        }
+        mix(time);
+    }
+
+    private long cpuNow() {
+        return scheduler.now() / Scheduler.CPU_DIVIDER;
+    }
+
+    private void catchUp() {
+        run(cpuNow());
+    }
+
+    /**
+     * Run the channel timers up to CPU time end, from expiry to expiry.
+     */
+    private void run(long end) {
+        if (end <= time)
+            return;
+
+        final boolean audible = outputEnabled;
+        if (audible) {
+            // silent channels were not run, restart their timers from here
+            for (Channel channel : channels) {
+                if (channel.nextStep < time)
+                    channel.nextStep = time + channel.period;
+            }
+        }
+
+        while (true) {
+            long next = dmc.nextStep;
+            if (audible) {
+                for (Channel channel : channels) {
+                    if (channel.nextStep < next && channel.active())
+                        next = channel.nextStep;
+                }
+            }
+            if (next >= end)
+                break;
+
+            if (dmc.nextStep == next) {
+                dmc.step();
+                dmc.nextStep += dmc.period;
+            }
+            if (audible) {
+                for (Channel channel : channels) {
+                    if (channel.nextStep == next && channel.active()) {
+                        channel.step();
+                        channel.nextStep += channel.period;
+                    }
+                }
+                mix(next);
+            }
+        }
+        time = end;
+        if (dmc.irq)
+            updateIrq();
+    }
+
+    private float level() {
+        return PULSE_MIX[pulse1.output() + pulse2.output()]
+                + TND_MIX[3 * triangle.output() + 2 * noise.output() + dmc.output()];
+    }
+
+    private void mix(long at) {
+        if (!outputEnabled)
+            return;
+        final float level = level();
+        if (level != amplitude) {
+            buffer.addDelta(at, level - amplitude);
+            amplitude = level;
+        }
+    }
+
+    private void restartSequencer(boolean fiveStep) {
+        // the next step moves away, hand over the samples so far so the buffer never holds more than a step gap
+        flush();
+        this.fiveStep = fiveStep;
+        sequencerStart = time;
+        sequencerStep = 0;
+        if (fiveStep) {
+            // the 5-step mode clocks everything right away
+            quarterFrame();
+            halfFrame();
+        }
+        scheduler.schedule(sequencerEvent, (sequencerStart + FOUR_STEP[0]) * Scheduler.CPU_DIVIDER);
+    }
+
+    /**
+     * Frame counter step: clock envelopes, counters and sweeps, raise the frame IRQ,
+     * and hand the samples so far to the output.
+     */
+    private long sequence(long due) {
+        run(due / Scheduler.CPU_DIVIDER);
+        final int step = sequencerStep;
+        if (fiveStep) {
+            if (step != 3) {
+                quarterFrame();
+                if (step == 1 || step == 4)
+                    halfFrame();
+            }
+        } else {
+            quarterFrame();
+            if (step == 1 || step == 3)
+                halfFrame();
+            if (step == 3 && !irqInhibit) {
+                frameIrq = true;
+                updateIrq();
+            }
+        }
+        mix(time);
+        flush();
+
+        final int[] steps = fiveStep ? FIVE_STEP : FOUR_STEP;
+        if (++sequencerStep == steps.length) {
+            sequencerStep = 0;
+            sequencerStart += fiveStep ? FIVE_STEP_PERIOD : FOUR_STEP_PERIOD;
+        }
+        return (sequencerStart + steps[sequencerStep]) * Scheduler.CPU_DIVIDER;
+    }
+
+    private void quarterFrame() {
+        for (Channel channel : channels) {
+            channel.quarterFrame();
+        }
+    }
+
+    private void halfFrame() {
+        for (Channel channel : channels) {
+            channel.halfFrame();
+        }
+    }
+
+    private void flush() {
+        if (!outputEnabled)
+            return;
+        final int n = buffer.read(time, block);
+        if (n > 0)
+            output.write(block, 0, n);
+    }
+
+    private void updateIrq() {
+        scheduler.setIrq(Scheduler.IRQ_FRAME_COUNTER, frameIrq);
+        scheduler.setIrq(Scheduler.IRQ_DMC, dmc.irq);
+    }
+
+    /**
+     * Schedule the end of the DMC sample, so its IRQ is not late by the time to the next register access.
+     */
+    private void dmcChanged() {
+        updateIrq();
+        final long at = dmc.irqTime();
+        scheduler.schedule(dmcIrqEvent, at < 0 ? Scheduler.NEVER : at * Scheduler.CPU_DIVIDER);
+    }
+
+    private long dmcIrq(long due) {
+        run(due / Scheduler.CPU_DIVIDER);
+        updateIrq();
+        final long at = dmc.irqTime();
+        if (dmc.irq || at < 0)
+            return Scheduler.NEVER;
+        return Math.max(at, time + 1) * Scheduler.CPU_DIVIDER;
+    }
+
+    /** bytes written by {@link #saveState(ByteBuffer)} */
+    public static final int STATE_SIZE = 8 + 8 + 1 + 1
+            + 2 * PulseChannel.STATE_SIZE + TriangleChannel.STATE_SIZE + NoiseChannel.STATE_SIZE + DmcChannel.STATE_SIZE;
+
+    /**
+     * Write the frame counter and all channels. Samples not yet in the output ring are not saved.
+     */
+    public void saveState(ByteBuffer buf) {
+        buf.putLong(time);
+        buf.putLong(sequencerStart);
+        buf.put((byte) sequencerStep);
+        buf.put((byte) ((fiveStep ? 1 : 0) | (irqInhibit ? 2 : 0) | (frameIrq ? 4 : 0)));
+        for (Channel channel : channels) {
+            channel.saveState(buf);
+        }
+        dmc.saveState(buf);
+    }
+
+    public void loadState(ByteBuffer buf) {
+        time = buf.getLong();
+        sequencerStart = buf.getLong();
+        sequencerStep = buf.get();
+        final int flags = buf.get();
+        fiveStep = (flags & 1) != 0;
+        irqInhibit = (flags & 2) != 0;
+        frameIrq = (flags & 4) != 0;
+        for (Channel channel : channels) {
+            channel.loadState(buf);
+        }
+        dmc.loadState(buf);
+
+        final int[] steps = fiveStep ? FIVE_STEP : FOUR_STEP;
+        scheduler.schedule(sequencerEvent, (sequencerStart + steps[sequencerStep]) * Scheduler.CPU_DIVIDER);
+        dmcChanged();
+        buffer.reset(time);
+        amplitude = level();
+    }
+}
@@ -0,0 +1,118 @@
+package io.famiemu.apu;
+
+import java.util.Arrays;
+
+/**
+ * Resamples the mixed APU output from the CPU clock down to an audio rate without aliasing.
+ * <p></p>
+ * The output is a step signal that only changes when a channel steps or a register is written.
+ * Each change is added as a delta at its exact clock time, spread over {@link #TAPS} samples
+ * by a windowed-sinc impulse picked for its sub-sample phase,
+ * and {@link #read} sums the deltas back up into band-limited steps.
+ * The cost is per change, not per CPU cycle, and output samples are never computed twice.
+ */
+final class BandLimitedBuffer {
+
+    static final int TAPS = 16;
+    static final int PHASES = 64;
+    /** cut-off as a fraction of the output rate, a bit below Nyquist */
+    private static final double CUTOFF = 0.45;
+    /** one-pole DC blocker, about 20 Hz at 44.1 kHz */
+    private static final float DC_DECAY = 0.003f;
+    private static final float GAIN = 30000f;
+
+    /** KERNEL[phase][tap], each phase sums to 1 */
+    private static final float[][] KERNEL = new float[PHASES][TAPS];
+
+    static {
+        for (int phase = 0; phase < PHASES; phase++) {
+            double sum = 0;
+            final double[] taps = new double[TAPS];
+            for (int k = 0; k < TAPS; k++) {
+                final double d = k - (TAPS / 2 - 1) - (double) phase / PHASES;
+                final double x = 2 * CUTOFF * d;
+                final double sinc = x == 0 ? 1 : Math.sin(Math.PI * x) / (Math.PI * x);
+                final double w = d / (TAPS / 2);
+                // Blackman window over the kernel width
+                final double window = Math.abs(w) >= 1 ? 0 : 0.42 + 0.5 * Math.cos(Math.PI * w) + 0.08 * Math.cos(2 * Math.PI * w);
+                taps[k] = sinc * window;
+                sum += taps[k];
+            }
+            for (int k = 0; k < TAPS; k++) {
+                KERNEL[phase][k] = (float) (taps[k] / sum);
+            }
+        }
+    }
+
+    private final int sampleRate;
+    /** output samples per clock */
+    private final double ratio;
+    private final float[] deltas;
+    /** clock time of deltas[0] */
+    private double start;
+    private float sum;
+    private float dc;
+
+    /**
+     * @param capacity most samples between two reads
+     */
+    BandLimitedBuffer(int clockRate, int sampleRate, int capacity) {
+        this.sampleRate = sampleRate;
+        this.ratio = (double) sampleRate / clockRate;
+        this.deltas = new float[capacity + TAPS + 1];
+    }
+
+    int getSampleRate() {
+        return sampleRate;
+    }
+
+    /**
+     * Restart at clock time, dropping pending deltas.
+     */
+    void reset(long clock) {
+        Arrays.fill(deltas, 0);
+        start = clock;
+    }
+
+    /**
+     * Add a change of the output level at clock time, no earlier than the last {@link #read}.
+     */
+    void addDelta(long clock, float delta) {
+        final double pos = (clock - start) * ratio;
+        final int i = (int) pos;
+        if (i < 0 || i + TAPS > deltas.length)
+            return;
+        final float[] kernel = KERNEL[(int) ((pos - i) * PHASES)];
+        for (int k = 0; k < TAPS; k++) {
+            deltas[i + k] += delta * kernel[k];
+        }
+    }
+
+    /**
+     * Take the samples completed up to clock time.
+     *
+     * @return number of samples written to out
+     */
+    int read(long clock, short[] out) {
+        final int n = Math.min((int) ((clock - start) * ratio), Math.min(out.length, deltas.length - TAPS - 1));
+        if (n <= 0)
+            return 0;
+
+        float level = sum;
+        float offset = dc;
+        for (int i = 0; i < n; i++) {
+            level += deltas[i];
+            offset += (level - offset) * DC_DECAY;
+            final int sample = (int) ((level - offset) * GAIN);
+            out[i] = (short) Math.max(Short.MIN_VALUE, Math.min(Short.MAX_VALUE, sample));
+        }
+        sum = level;
+        dc = offset;
+
+        // the impulses of deltas after clock reach at most TAPS samples further
+        System.arraycopy(deltas, n, deltas, 0, TAPS + 1);
+        Arrays.fill(deltas, TAPS + 1, n + TAPS + 1, 0);
+        start += n / ratio;
+        return n;
+    }
+}
@@ -0,0 +1,84 @@
+package io.famiemu.apu;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Timer and length counter shared by the pulse, triangle and noise channels.
+ * <p></p>
+ * The timer is not counted down cycle by cycle: {@link #nextStep} is the CPU time
+ * of its next expiry, and {@link AudioProcessor} jumps from one expiry to the next.
+ */
+abstract class Channel {
+
+    static final int STATE_SIZE = 1 + 1 + 4 + 8;
+
+    static final int[] LENGTHS = {
+        10, 254, 20, 2, 40, 4, 80, 6, 160, 8, 60, 10, 14, 12, 26, 14,
+        12, 16, 24, 18, 48, 20, 96, 22, 192, 24, 72, 26, 16, 28, 32, 30,
+    };
+
+    boolean enabled;
+    int length;
+    /** length counter halt, also envelope loop or triangle control */
+    boolean halt;
+    /** CPU cycles between two sequencer steps */
+    int period = 2;
+    /** CPU time of the next sequencer step */
+    long nextStep;
+
+    /**
+     * @param reg 0-3, the register offset in the channel
+     */
+    abstract void write(int reg, int value);
+
+    /**
+     * Timer expired, advance the sequencer.
+     */
+    abstract void step();
+
+    /**
+     * @return current output level, 0-15
+     */
+    abstract int output();
+
+    /**
+     * @return false while stepping cannot be heard, so the timer is not run
+     */
+    abstract boolean active();
+
+    /** envelope, linear counter */
+    void quarterFrame() {}
+
+    /** length counter, sweep */
+    void halfFrame() {
+        if (length > 0 && !halt)
+            length--;
+    }
+
+    void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+        if (!enabled)
+            length = 0;
+    }
+
+    void loadLength(int value) {
+        if (enabled)
+            length = LENGTHS[value >>> 3];
+    }
+
+    void saveState(ByteBuffer buf) {
+        buf.put((byte) ((enabled ? 1 : 0) | (halt ? 2 : 0)));
+        buf.put((byte) length);
+        buf.putInt(period);
+        buf.putLong(nextStep);
+    }
+
+    void loadState(ByteBuffer buf) {
+        final int flags = buf.get();
+        enabled = (flags & 1) != 0;
+        halt = (flags & 2) != 0;
+        length = buf.get() & 0xFF;
+        period = buf.getInt();
+        nextStep = buf.getLong();
+    }
+}
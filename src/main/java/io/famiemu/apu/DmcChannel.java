@@ -0,0 +1,174 @@
+package io.famiemu.apu;
+
+import io.famiemu.AddressReader;
+import io.famiemu.Scheduler;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Delta modulation: 1-bit samples read from CPU memory by DMA, $4010-$4013.
+ * <p></p>
+ * Unlike the other channels it runs even with audio output off,
+ * because its sample fetches stall the CPU and its IRQ is visible to the game.
+ */
+final class DmcChannel {
+
+    static final int STATE_SIZE = 1 + 4 + 1 + 2 + 2 + 2 + 2 + 1 + 1 + 1 + 8;
+
+    /** NTSC, in CPU cycles */
+    private static final int[] RATES = {
+        428, 380, 340, 320, 286, 254, 226, 214, 190, 160, 142, 128, 106, 84, 72, 54,
+    };
+
+    /** CPU cycles the CPU is halted per sample byte */
+    static final int FETCH_CYCLES = 4;
+
+    private final AddressReader memory;
+    private final Scheduler scheduler;
+
+    boolean irqEnabled;
+    boolean irq;
+    private boolean loop;
+    int period = RATES[0];
+    private int level;
+    private int sampleAddress = 0xC000;
+    private int sampleLength = 1;
+    private int address;
+    int bytesRemaining;
+    private int buffer;
+    private boolean bufferFull;
+    private int shift;
+    private int bitsRemaining = 8;
+    private boolean silence = true;
+    long nextStep;
+
+    DmcChannel(AddressReader memory, Scheduler scheduler) {
+        this.memory = memory;
+        this.scheduler = scheduler;
+    }
+
+    void write(int reg, int value) {
+        switch (reg) {
+            case 0:
+                irqEnabled = (value & 0x80) != 0;
+                if (!irqEnabled)
+                    irq = false;
+                loop = (value & 0x40) != 0;
+                period = RATES[value & 0x0F];
+                break;
+            case 1:
+                level = value & 0x7F;
+                break;
+            case 2:
+                sampleAddress = 0xC000 | (value << 6);
+                break;
+            default:
+                sampleLength = (value << 4) + 1;
+                break;
+        }
+    }
+
+    void setEnabled(boolean enabled) {
+        irq = false;
+        if (!enabled) {
+            bytesRemaining = 0;
+        } else if (bytesRemaining == 0) {
+            restart();
+            fetch();
+        }
+    }
+
+    private void restart() {
+        address = sampleAddress;
+        bytesRemaining = sampleLength;
+    }
+
+    /**
+     * Output unit: shift one bit into the level, take the next byte after 8.
+     */
+    void step() {
+        if (!silence) {
+            if ((shift & 1) != 0) {
+                if (level <= 125) level += 2;
+            } else {
+                if (level >= 2) level -= 2;
+            }
+            shift >>>= 1;
+        }
+        if (--bitsRemaining == 0) {
+            bitsRemaining = 8;
+            silence = !bufferFull;
+            if (bufferFull) {
+                shift = buffer;
+                bufferFull = false;
+                fetch();
+            }
+        }
+    }
+
+    /**
+     * Memory reader: refill the empty sample buffer, halting the CPU.
+     */
+    private void fetch() {
+        if (bufferFull || bytesRemaining == 0)
+            return;
+        buffer = memory.readU8(address);
+        bufferFull = true;
+        scheduler.stall(FETCH_CYCLES);
+        address = address == 0xFFFF ? 0x8000 : address + 1;
+        if (--bytesRemaining == 0) {
+            if (loop)
+                restart();
+            else if (irqEnabled)
+                irq = true;
+        }
+    }
+
+    /**
+     * @return CPU time the last byte of a sample is fetched, which raises the IRQ,
+     * or -1 if it will not be raised
+     */
+    long irqTime() {
+        if (!irqEnabled || loop || bytesRemaining == 0 || !bufferFull)
+            return -1;
+        // a byte is fetched when the output unit takes the buffer, every 8 steps
+        return nextStep + (long) (bitsRemaining - 1) * period + (long) (bytesRemaining - 1) * 8 * period;
+    }
+
+    int output() {
+        return level;
+    }
+
+    void saveState(ByteBuffer buf) {
+        buf.put((byte) ((irqEnabled ? 1 : 0) | (irq ? 2 : 0) | (loop ? 4 : 0) | (bufferFull ? 8 : 0) | (silence ? 16 : 0)));
+        buf.putInt(period);
+        buf.put((byte) level);
+        buf.putShort((short) sampleAddress);
+        buf.putShort((short) sampleLength);
+        buf.putShort((short) address);
+        buf.putShort((short) bytesRemaining);
+        buf.put((byte) buffer);
+        buf.put((byte) shift);
+        buf.put((byte) bitsRemaining);
+        buf.putLong(nextStep);
+    }
+
+    void loadState(ByteBuffer buf) {
+        final int flags = buf.get();
+        irqEnabled = (flags & 1) != 0;
+        irq = (flags & 2) != 0;
+        loop = (flags & 4) != 0;
+        bufferFull = (flags & 8) != 0;
+        silence = (flags & 16) != 0;
+        period = buf.getInt();
+        level = buf.get() & 0x7F;
+        sampleAddress = buf.getShort() & 0xFFFF;
+        sampleLength = buf.getShort() & 0xFFFF;
+        address = buf.getShort() & 0xFFFF;
+        bytesRemaining = buf.getShort() & 0xFFFF;
+        buffer = buf.get() & 0xFF;
+        shift = buf.get() & 0xFF;
+        bitsRemaining = buf.get();
+        nextStep = buf.getLong();
+    }
+}
@@ -0,0 +1,65 @@
+package io.famiemu.apu;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Volume of the pulse and noise channels: constant, or decaying from 15 once per quarter frame.
+ */
+final class Envelope {
+
+    static final int STATE_SIZE = 4;
+
+    boolean start;
+    private boolean loop;
+    private boolean constant;
+    /** constant volume, or the divider period */
+    private int volume;
+    private int divider;
+    private int decay;
+
+    /**
+     * --LC VVVV
+     */
+    void write(int value) {
+        loop = (value & 0x20) != 0;
+        constant = (value & 0x10) != 0;
+        volume = value & 0x0F;
+    }
+
+    void clock() {
+        if (start) {
+            start = false;
+            decay = 15;
+            divider = volume;
+        } else if (divider > 0) {
+            divider--;
+        } else {
+            divider = volume;
+            if (decay > 0)
+                decay--;
+            else if (loop)
+                decay = 15;
+        }
+    }
+
+    int output() {
+        return constant ? volume : decay;
+    }
+
+    void saveState(ByteBuffer buf) {
+        buf.put((byte) ((start ? 1 : 0) | (loop ? 2 : 0) | (constant ? 4 : 0)));
+        buf.put((byte) volume);
+        buf.put((byte) divider);
+        buf.put((byte) decay);
+    }
+
+    void loadState(ByteBuffer buf) {
+        final int flags = buf.get();
+        start = (flags & 1) != 0;
+        loop = (flags & 2) != 0;
+        constant = (flags & 4) != 0;
+        volume = buf.get() & 0x0F;
+        divider = buf.get() & 0x0F;
+        decay = buf.get() & 0x0F;
+    }
+}
@@ -0,0 +1,83 @@
+package io.famiemu.apu;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Pseudo-random bits from a 15-bit LFSR, with envelope, $400C-$400F.
+ */
+final class NoiseChannel extends Channel {
+
+    static final int STATE_SIZE = Channel.STATE_SIZE + Envelope.STATE_SIZE + 3;
+
+    /** NTSC, in CPU cycles */
+    private static final int[] PERIODS = {
+        4, 8, 16, 32, 64, 96, 128, 160, 202, 254, 380, 508, 762, 1016, 2034, 4068,
+    };
+
+    private final Envelope envelope = new Envelope();
+    /** short mode, feedback from bit 6 instead of bit 1 */
+    private boolean shortMode;
+    private int shift = 1;
+
+    NoiseChannel() {
+        period = PERIODS[0];
+    }
+
+    @Override
+    void write(int reg, int value) {
+        switch (reg) {
+            case 0:
+                halt = (value & 0x20) != 0;
+                envelope.write(value);
+                break;
+            case 1:
+                break;
+            case 2:
+                shortMode = (value & 0x80) != 0;
+                period = PERIODS[value & 0x0F];
+                break;
+            default:
+                loadLength(value);
+                envelope.start = true;
+                break;
+        }
+    }
+
+    @Override
+    void step() {
+        final int feedback = (shift ^ (shift >>> (shortMode ? 6 : 1))) & 1;
+        shift = (shift >>> 1) | (feedback << 14);
+    }
+
+    @Override
+    int output() {
+        return length == 0 || (shift & 1) != 0 ? 0 : envelope.output();
+    }
+
+    @Override
+    boolean active() {
+        // where the sequence stands is not audible while silent
+        return length > 0;
+    }
+
+    @Override
+    void quarterFrame() {
+        envelope.clock();
+    }
+
+    @Override
+    void saveState(ByteBuffer buf) {
+        super.saveState(buf);
+        envelope.saveState(buf);
+        buf.put((byte) (shortMode ? 1 : 0));
+        buf.putShort((short) shift);
+    }
+
+    @Override
+    void loadState(ByteBuffer buf) {
+        super.loadState(buf);
+        envelope.loadState(buf);
+        shortMode = buf.get() != 0;
+        shift = buf.getShort() & 0x7FFF;
+    }
+}
@@ -0,0 +1,138 @@
+package io.famiemu.apu;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Square wave with 4 duty cycles, envelope and sweep, $4000-$4003 and $4004-$4007.
+ */
+final class PulseChannel extends Channel {
+
+    static final int STATE_SIZE = Channel.STATE_SIZE + Envelope.STATE_SIZE + 8;
+
+    /** waveforms, first step in bit 7 */
+    private static final int[] DUTY = {0b01000000, 0b01100000, 0b01111000, 0b10011111};
+
+    private final Envelope envelope = new Envelope();
+    /** pulse 1 negates the sweep in ones' complement */
+    private final int negateBias;
+
+    private int duty;
+    private int phase;
+    private int timer;
+    private boolean sweepEnabled;
+    private boolean sweepNegate;
+    private boolean sweepReload;
+    private int sweepPeriod;
+    private int sweepShift;
+    private int sweepDivider;
+
+    PulseChannel(boolean first) {
+        this.negateBias = first ? 1 : 0;
+    }
+
+    @Override
+    void write(int reg, int value) {
+        switch (reg) {
+            case 0:
+                duty = value >>> 6;
+                halt = (value & 0x20) != 0;
+                envelope.write(value);
+                break;
+            case 1:
+                sweepEnabled = (value & 0x80) != 0;
+                sweepPeriod = (value >>> 4) & 7;
+                sweepNegate = (value & 0x08) != 0;
+                sweepShift = value & 7;
+                sweepReload = true;
+                break;
+            case 2:
+                setTimer((timer & 0x700) | value);
+                break;
+            default:
+                setTimer((timer & 0xFF) | ((value & 7) << 8));
+                loadLength(value);
+                phase = 0;
+                envelope.start = true;
+                break;
+        }
+    }
+
+    private void setTimer(int timer) {
+        this.timer = timer;
+        period = (timer + 1) * 2;
+    }
+
+    private int sweepTarget() {
+        final int change = timer >>> sweepShift;
+        return sweepNegate ? timer - change - negateBias : timer + change;
+    }
+
+    private boolean muted() {
+        return timer < 8 || sweepTarget() > 0x7FF;
+    }
+
+    @Override
+    void step() {
+        phase = (phase + 1) & 7;
+    }
+
+    @Override
+    int output() {
+        if (length == 0 || muted())
+            return 0;
+        return ((DUTY[duty] >>> (7 - phase)) & 1) * envelope.output();
+    }
+
+    @Override
+    boolean active() {
+        // the phase is reset by every $4003 write, so it need not advance while silent
+        return length > 0 && !muted();
+    }
+
+    @Override
+    void quarterFrame() {
+        envelope.clock();
+    }
+
+    @Override
+    void halfFrame() {
+        super.halfFrame();
+        if (sweepDivider == 0 && sweepEnabled && sweepShift > 0 && !muted())
+            setTimer(sweepTarget());
+        if (sweepDivider == 0 || sweepReload) {
+            sweepDivider = sweepPeriod;
+            sweepReload = false;
+        } else {
+            sweepDivider--;
+        }
+    }
+
+    @Override
+    void saveState(ByteBuffer buf) {
+        super.saveState(buf);
+        envelope.saveState(buf);
+        buf.put((byte) duty);
+        buf.put((byte) phase);
+        buf.putShort((short) timer);
+        buf.put((byte) ((sweepEnabled ? 1 : 0) | (sweepNegate ? 2 : 0) | (sweepReload ? 4 : 0)));
+        buf.put((byte) sweepPeriod);
+        buf.put((byte) sweepShift);
+        buf.put((byte) sweepDivider);
+    }
+
+    @Override
+    void loadState(ByteBuffer buf) {
+        super.loadState(buf);
+        envelope.loadState(buf);
+        duty = buf.get() & 3;
+        phase = buf.get() & 7;
+        timer = buf.getShort() & 0x7FF;
+        final int flags = buf.get();
+        sweepEnabled = (flags & 1) != 0;
+        sweepNegate = (flags & 2) != 0;
+        sweepReload = (flags & 4) != 0;
+        sweepPeriod = buf.get() & 7;
+        sweepShift = buf.get() & 7;
+        sweepDivider = buf.get() & 7;
+    }
+}
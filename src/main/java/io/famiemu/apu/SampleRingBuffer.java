@@ -0,0 +1,82 @@
+package io.famiemu.apu;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Lock-free ring of 16-bit mono samples from one producer thread (the emulator)
+ * to one consumer thread (audio output, {@link WavSink}).
+ * <p></p>
+ * Each side only advances its own position, and publishes it with {@link AtomicLong#lazySet}
+ * after copying, so neither side ever blocks or allocates.
+ * When the consumer falls behind the producer drops the new samples, and counts them.
+ */
+public final class SampleRingBuffer {
+
+    private final short[] samples;
+    private final int mask;
+    /** total samples written, owned by the producer */
+    private final AtomicLong written = new AtomicLong();
+    /** total samples read, owned by the consumer */
+    private final AtomicLong read = new AtomicLong();
+    private long dropped;
+
+    /**
+     * @param capacity rounded up to a power of two
+     */
+    public SampleRingBuffer(int capacity) {
+        final int size = Integer.highestOneBit(Math.max(2, capacity - 1)) << 1;
+        this.samples = new short[size];
+        this.mask = size - 1;
+    }
+
+    public int capacity() {
+        return samples.length;
+    }
+
+    /**
+     * @return samples ready to read
+     */
+    public int available() {
+        return (int) (written.get() - read.get());
+    }
+
+    /**
+     * Producer: append as many samples as fit.
+     *
+     * @return number of samples written, the rest is dropped
+     */
+    public int write(short[] src, int off, int len) {
+        final long w = written.get();
+        final int n = Math.min(len, samples.length - (int) (w - read.get()));
+        final int i = (int) w & mask;
+        final int first = Math.min(n, samples.length - i);
+        System.arraycopy(src, off, samples, i, first);
+        System.arraycopy(src, off + first, samples, 0, n - first);
+        written.lazySet(w + n);
+        dropped += len - n;
+        return n;
+    }
+
+    /**
+     * Consumer: take up to len samples.
+     *
+     * @return number of samples read, 0 if none are ready
+     */
+    public int read(short[] dst, int off, int len) {
+        final long r = read.get();
+        final int n = Math.min(len, (int) (written.get() - r));
+        final int i = (int) r & mask;
+        final int first = Math.min(n, samples.length - i);
+        System.arraycopy(samples, i, dst, off, first);
+        System.arraycopy(samples, 0, dst, off + first, n - first);
+        read.lazySet(r + n);
+        return n;
+    }
+
+    /**
+     * @return samples the producer could not write, read it on the producer thread
+     */
+    public long getDropped() {
+        return dropped;
+    }
+}
@@ -0,0 +1,89 @@
+package io.famiemu.apu;
+
+import java.nio.ByteBuffer;
+
+/**
+ * 32-step triangle gated by the linear counter, $4008-$400B. No volume control.
+ */
+final class TriangleChannel extends Channel {
+
+    static final int STATE_SIZE = Channel.STATE_SIZE + 6;
+
+    private int linearReload;
+    private int linear;
+    private boolean linearReloadFlag;
+    private int timer;
+    private int phase;
+
+    @Override
+    void write(int reg, int value) {
+        switch (reg) {
+            case 0:
+                halt = (value & 0x80) != 0;
+                linearReload = value & 0x7F;
+                break;
+            case 1:
+                break;
+            case 2:
+                setTimer((timer & 0x700) | value);
+                break;
+            default:
+                setTimer((timer & 0xFF) | ((value & 7) << 8));
+                loadLength(value);
+                linearReloadFlag = true;
+                break;
+        }
+    }
+
+    private void setTimer(int timer) {
+        this.timer = timer;
+        period = timer + 1;
+    }
+
+    @Override
+    void step() {
+        phase = (phase + 1) & 31;
+    }
+
+    @Override
+    int output() {
+        return phase < 16 ? 15 - phase : phase - 16;
+    }
+
+    @Override
+    boolean active() {
+        // stopped, it holds its level; ultrasonic periods are stopped too instead of aliasing
+        return length > 0 && linear > 0 && timer >= 2;
+    }
+
+    @Override
+    void quarterFrame() {
+        if (linearReloadFlag)
+            linear = linearReload;
+        else if (linear > 0)
+            linear--;
+        // the control flag doubles as length counter halt
+        if (!halt)
+            linearReloadFlag = false;
+    }
+
+    @Override
+    void saveState(ByteBuffer buf) {
+        super.saveState(buf);
+        buf.put((byte) linearReload);
+        buf.put((byte) linear);
+        buf.put((byte) (linearReloadFlag ? 1 : 0));
+        buf.putShort((short) timer);
+        buf.put((byte) phase);
+    }
+
+    @Override
+    void loadState(ByteBuffer buf) {
+        super.loadState(buf);
+        linearReload = buf.get() & 0x7F;
+        linear = buf.get() & 0x7F;
+        linearReloadFlag = buf.get() != 0;
+        timer = buf.getShort() & 0x7FF;
+        phase = buf.get() & 31;
+    }
+}
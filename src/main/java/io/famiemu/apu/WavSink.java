@@ -0,0 +1,117 @@
+package io.famiemu.apu;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Headless audio output: dumps samples to a 16-bit mono PCM .wav file, e.g. to listen to a test run.
+ *
+ * <pre>
+ * machine.runFrame();
+ * wav.drain(machine.getApu().getOutput());
+ * </pre>
+ * The RIFF sizes are written by {@link #close()}.
+ */
+public class WavSink implements Closeable {
+
+    public static final int HEADER_SIZE = 44;
+
+    private final FileChannel out;
+    private final int sampleRate;
+    private final ByteBuffer buf = ByteBuffer.allocateDirect(1 << 14).order(ByteOrder.LITTLE_ENDIAN);
+    private final short[] chunk = new short[buf.capacity() / 2];
+    private long samples;
+
+    public WavSink(FileChannel out, int sampleRate) throws IOException {
+        this.out = out;
+        this.sampleRate = sampleRate;
+        writeHeader();
+        out.position(HEADER_SIZE);
+    }
+
+    public static WavSink toFile(Path path, int sampleRate) throws IOException {
+        return new WavSink(FileChannel.open(path,
+                StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE), sampleRate);
+    }
+
+    /**
+     * @return samples written so far
+     */
+    public long count() {
+        return samples;
+    }
+
+    public void write(short[] src, int off, int len) throws IOException {
+        while (len > 0) {
+            final int n = Math.min(len, buf.remaining() / 2);
+            for (int i = 0; i < n; i++) {
+                buf.putShort(src[off + i]);
+            }
+            off += n;
+            len -= n;
+            samples += n;
+            if (!buf.hasRemaining())
+                flush();
+        }
+    }
+
+    /**
+     * Consume everything the ring buffer holds.
+     *
+     * @return number of samples written
+     */
+    public int drain(SampleRingBuffer ring) throws IOException {
+        int total = 0;
+        int n;
+        while ((n = ring.read(chunk, 0, chunk.length)) > 0) {
+            write(chunk, 0, n);
+            total += n;
+        }
+        return total;
+    }
+
+    private void flush() throws IOException {
+        buf.flip();
+        while (buf.hasRemaining()) {
+            out.write(buf);
+        }
+        buf.clear();
+    }
+
+    private void writeHeader() throws IOException {
+        final long data = samples * 2;
+        final ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        header.putInt(0x46464952); // "RIFF"
+        header.putInt((int) Math.min(0xFFFFFFFFL, 36 + data));
+        header.putInt(0x45564157); // "WAVE"
+        header.putInt(0x20746D66); // "fmt "
+        header.putInt(16);
+        header.putShort((short) 1); // PCM
+        header.putShort((short) 1); // mono
+        header.putInt(sampleRate);
+        header.putInt(sampleRate * 2);
+        header.putShort((short) 2);
+        header.putShort((short) 16);
+        header.putInt(0x61746164); // "data"
+        header.putInt((int) Math.min(0xFFFFFFFFL, data));
+        header.flip();
+        while (header.hasRemaining()) {
+            out.write(header, HEADER_SIZE - header.remaining());
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            flush();
+            writeHeader();
+        } finally {
+            out.close();
+        }
+    }
+}
@@ -0,0 +1,56 @@
+package io.famiemu.batch;
+
+import io.famiemu.rom.RomImage;
+
+/**
+ * One ROM to run headless, with its own cycle budget.
+ */
+public class BatchJob {
+
+    private final String name;
+    private final byte[] prgRom;
+    /** null for a bare PRG-ROM */
+    private final RomImage rom;
+    private final long cycleBudget;
+
+    /**
+     * NROM without CHR.
+     *
+     * @param prgRom not copied, the same image can be shared by many jobs
+     */
+    public BatchJob(String name, byte[] prgRom, long cycleBudget) {
+        this.name = name;
+        this.prgRom = prgRom;
+        this.rom = null;
+        this.cycleBudget = cycleBudget;
+    }
+
+    /**
+     * Whole cartridge with its mapper, the image can be shared by many jobs.
+     */
+    public BatchJob(String name, RomImage rom, long cycleBudget) {
+        this.name = name;
+        this.prgRom = rom.getPrgArray();
+        this.rom = rom;
+        this.cycleBudget = cycleBudget;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public byte[] getPrgRom() {
+        return prgRom;
+    }
+
+    /**
+     * @return the image, null if the job was made from a bare PRG-ROM
+     */
+    public RomImage getRom() {
+        return rom;
+    }
+
+    public long getCycleBudget() {
+        return cycleBudget;
+    }
+}
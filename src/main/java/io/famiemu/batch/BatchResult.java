@@ -0,0 +1,65 @@
+package io.famiemu.batch;
+
+/**
+ * Outcome of one {@link BatchJob}.
+ */
+public class BatchResult {
+
+    public enum HaltReason {
+        /** the cycle budget ran out */
+        BUDGET,
+        /** stopped on a JMP to itself */
+        IDLE,
+        /** the CPU threw, see {@link #getError()} */
+        ERROR,
+    }
+
+    private final String name;
+    private final HaltReason haltReason;
+    private final long cycles;
+    private final long ramHash;
+    private final String error;
+
+    public BatchResult(String name, HaltReason haltReason, long cycles, long ramHash, String error) {
+        this.name = name;
+        this.haltReason = haltReason;
+        this.cycles = cycles;
+        this.ramHash = ramHash;
+        this.error = error;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public HaltReason getHaltReason() {
+        return haltReason;
+    }
+
+    /**
+     * @return CPU cycles run
+     */
+    public long getCycles() {
+        return cycles;
+    }
+
+    /**
+     * @return CRC-32 of the 2K RAM when the job stopped
+     */
+    public long getRamHash() {
+        return ramHash;
+    }
+
+    /**
+     * @return error message, null unless {@link HaltReason#ERROR}
+     */
+    public String getError() {
+        return error;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s %s cycles=%d ram=%08X%s",
+                name, haltReason, cycles, ramHash, error == null ? "" : " " + error);
+    }
+}
@@ -0,0 +1,135 @@
+package io.famiemu.batch;
+
+import io.famiemu.Machine;
+import io.famiemu.batch.BatchResult.HaltReason;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+
+/**
+ * Runs many {@link BatchJob}s headless on a fork-join pool, one {@link Machine} per job.
+ * <p></p>
+ * Machines share nothing mutable, only the read-only ROM images,
+ * so throughput scales with the number of cores.
+ * Nothing is printed, results are returned in job order.
+ * Nothing is drawn or heard either: results only depend on RAM, so the PPU runs with a render interval of 0
+ * and the APU without output.
+ */
+public class BatchRunner implements AutoCloseable {
+
+    private final ForkJoinPool pool;
+    private int jitThreshold;
+
+    /**
+     * Use all available processors.
+     */
+    public BatchRunner() {
+        this(Runtime.getRuntime().availableProcessors());
+    }
+
+    public BatchRunner(int parallelism) {
+        this.pool = new ForkJoinPool(parallelism);
+    }
+
+    /**
+     * Run the machines through a {@link io.famiemu.cpu.BlockCache} with the given JIT threshold,
+     * 0 (default) keeps the interpreter loop.
+     */
+    public void setJitThreshold(int jitThreshold) {
+        this.jitThreshold = jitThreshold;
+    }
+
+    public List<BatchResult> runAll(List<BatchJob> jobs) {
+        List<Callable<BatchResult>> tasks = new ArrayList<>(jobs.size());
+        for (BatchJob job : jobs) {
+            tasks.add(() -> run(job));
+        }
+        return invokeAll(tasks);
+    }
+
+    /**
+     * Fork one child of parent per input sequence and run the children concurrently.
+     * Children share the parent's RAM pages copy-on-write, the parent is left as it was.
+     *
+     * @param inputs per child, the {@link io.famiemu.input.Controller} 1 buttons of each frame,
+     *               the last entry is held once the sequence runs out
+     * @param cycleBudget per child, counted from the fork
+     * @return results named "fork N", in input order
+     */
+    public List<BatchResult> explore(Machine parent, List<int[]> inputs, long cycleBudget) {
+        List<Callable<BatchResult>> tasks = new ArrayList<>(inputs.size());
+        for (int i = 0; i < inputs.size(); i++) {
+            // fork here, the parent must not be touched by the pool threads
+            final Machine child = parent.fork();
+            child.getPpu().setRenderInterval(0);
+            child.getApu().setOutputEnabled(false);
+            final String name = "fork " + i;
+            final int[] input = inputs.get(i);
+            tasks.add(() -> run(name, child, cycleBudget, input));
+        }
+        return invokeAll(tasks);
+    }
+
+    private List<BatchResult> invokeAll(List<Callable<BatchResult>> tasks) {
+        List<BatchResult> results = new ArrayList<>(tasks.size());
+        for (Future<BatchResult> future : pool.invokeAll(tasks)) {
+            try {
+                results.add(future.get());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException(e);
+            } catch (ExecutionException e) {
+                throw new IllegalStateException(e.getCause());
+            }
+        }
+        return results;
+    }
+
+    /**
+     * Run one job on the calling thread.
+     * The budget is checked at frame boundaries, so it may be exceeded by less than a frame.
+     */
+    public BatchResult run(BatchJob job) {
+        final Machine machine = job.getRom() != null ? new Machine(job.getRom()) : new Machine(job.getPrgRom());
+        if (jitThreshold > 0)
+            machine.useBlockCache(jitThreshold);
+        machine.getPpu().setRenderInterval(0);
+        machine.getApu().setOutputEnabled(false);
+        machine.reset();
+        return run(job.getName(), machine, job.getCycleBudget(), null);
+    }
+
+    private static BatchResult run(String name, Machine machine, long cycleBudget, int[] input) {
+        final long start = machine.cycles();
+        HaltReason reason = HaltReason.BUDGET;
+        String error = null;
+        try {
+            for (int frame = 0; machine.cycles() - start < cycleBudget; frame++) {
+                if (input != null && input.length > 0)
+                    machine.getController1().setButtons(input[Math.min(frame, input.length - 1)]);
+                machine.runFrame();
+                if (machine.isIdle()) {
+                    reason = HaltReason.IDLE;
+                    break;
+                }
+            }
+        } catch (RuntimeException e) {
+            reason = HaltReason.ERROR;
+            error = e.getMessage();
+        }
+
+        CRC32 crc = new CRC32();
+        crc.update(machine.getBus().getRam());
+        return new BatchResult(name, reason, machine.cycles() - start, crc.getValue(), error);
+    }
+
+    @Override
+    public void close() {
+        pool.shutdown();
+    }
+}
@@ -99,9 +99,15 @@ public enum AddressingMode {
     ;
 
     private final Operand[] operands;
+    private final int opBytes;
 
     AddressingMode(Operand... operands) {
         this.operands = operands;
+
+        int n = 0;
+        for (Operand operand : operands)
+            n += operand.size();
+        this.opBytes = n;
     }
 
     public Operand[] Operands() {
@@ -113,10 +119,7 @@ public enum AddressingMode {
     }
 
     public int OpBytes() {
-        int n = 0;
-        for (Operand operand : operands)
-            n += operand.size();
-        return n;
+        return opBytes;
     }
 
 
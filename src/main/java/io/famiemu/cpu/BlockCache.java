@@ -0,0 +1,315 @@
+package io.famiemu.cpu;
+
+import io.famiemu.memory.MemoryBus;
+import io.famiemu.trace.TraceSink;
+
+import java.util.Arrays;
+
+/**
+ * Execution engine replaying basic blocks.
+ * <p></p>
+ * Starting at a PC, instructions are decoded up to and including the next branch, jump, return or BRK,
+ * into a {@link Block} of pre-resolved {@link OpHandler}s and operands.
+ * Replaying a block does not go through {@link OP#lookup(int)} or the addressing mode switch.
+ * <p></p>
+ * Blocks are keyed by PC and by the bank mapped at that PC (array + offset of the page in the {@link MemoryBus}),
+ * so a mapper switching banks simply makes other blocks match.
+ * When an instruction of the block itself switches banks ({@link MemoryBus#getMapGeneration()}),
+ * the rest of the block is skipped and execution continues from the new mapping.
+ * Blocks decoded from RAM trap writes to their pages and are dropped when their code is written,
+ * also in the middle of the block itself.
+ * <p></p>
+ * With {@link #setJitThreshold(int)}, a block entered that many times is compiled to a JVM class
+ * by {@link BlockCompiler}. Blocks from RAM are never compiled, they may be rewritten.
+ * A compiled block only runs when no trace sink is installed and the remaining budget covers its worst case,
+ * otherwise the block is replayed, so both paths stop at exactly the same instruction.
+ * <p></p>
+ * Works on the {@link Processor} fields, like {@link DispatchTable}.
+ */
+public class BlockCache implements MemoryBus.WriteListener {
+
+    /** longest block, so a long straight run of code still returns to the budget check */
+    public static final int MAX_BLOCK_LENGTH = 64;
+
+    /** most cycles an instruction can add on top of {@link OP#Cycles()} */
+    static final int MAX_EXTRA_CYCLES = 2;
+
+    static final class Block {
+        final int start;
+        final int firstPage, lastPage;
+
+        // bank identity of first and last page
+        final byte[] firstData, lastData;
+        final int firstBase, lastBase;
+
+        /** code comes from RAM, check write generations */
+        final boolean inRam;
+        final int firstGen, lastGen;
+
+        final int[] codes;
+        final OpHandler[] handlers;
+        final int[] operands;
+        /** PC after each instruction */
+        final int[] nextPc;
+        final int[] cycles;
+
+        /** upper bound of cycles for the whole block, with every branch taken */
+        final int maxCycles;
+
+        /** other banks at the same PC */
+        Block next;
+
+        int entries;
+        CompiledBlock compiled;
+
+        Block(int start, int lastPage, MemoryBus bus, boolean inRam, int[] writeGen,
+              int[] codes, OpHandler[] handlers, int[] operands, int[] nextPc, int[] cycles) {
+            this.start = start;
+            this.firstPage = start >>> 8;
+            this.lastPage = lastPage;
+            this.firstData = bus.getReadArray(firstPage);
+            this.firstBase = bus.getReadBase(firstPage);
+            this.lastData = bus.getReadArray(lastPage);
+            this.lastBase = bus.getReadBase(lastPage);
+            this.inRam = inRam;
+            this.firstGen = writeGen[firstPage];
+            this.lastGen = writeGen[lastPage];
+            this.codes = codes;
+            this.handlers = handlers;
+            this.operands = operands;
+            this.nextPc = nextPc;
+            this.cycles = cycles;
+
+            int max = 0;
+            for (int c : cycles) max += c + MAX_EXTRA_CYCLES;
+            this.maxCycles = max;
+        }
+
+        boolean matches(MemoryBus bus) {
+            return bus.getReadArray(firstPage) == firstData && bus.getReadBase(firstPage) == firstBase
+                    && bus.getReadArray(lastPage) == lastData && bus.getReadBase(lastPage) == lastBase;
+        }
+
+        boolean fresh(int[] writeGen) {
+            return writeGen[firstPage] == firstGen && writeGen[lastPage] == lastGen;
+        }
+    }
+
+    private final Processor cpu;
+    private final MemoryBus bus;
+    private final DispatchTable table = DispatchTable.get();
+
+    private final Block[] blocks = new Block[0x10000];
+    /** bumped on every write to a trapped page */
+    private final int[] writeGen = new int[MemoryBus.PAGES];
+
+    private long built;
+
+    private BlockCompiler compiler;
+    private int jitThreshold;
+    private long compiledCount;
+
+    // scratch space while building a block
+    private final int[] tmpCodes = new int[MAX_BLOCK_LENGTH];
+    private final OpHandler[] tmpHandlers = new OpHandler[MAX_BLOCK_LENGTH];
+    private final int[] tmpOperands = new int[MAX_BLOCK_LENGTH];
+    private final int[] tmpNextPc = new int[MAX_BLOCK_LENGTH];
+    private final int[] tmpCycles = new int[MAX_BLOCK_LENGTH];
+
+    public BlockCache(Processor cpu, MemoryBus bus) {
+        this.cpu = cpu;
+        this.bus = bus;
+        bus.addWriteListener(this);
+    }
+
+    /**
+     * Same contract as {@link Processor#run(int)}.
+     *
+     * @return cycles actually used
+     */
+    public int run(int cycleBudget) {
+        final Processor cpu = this.cpu;
+        final MemoryBus bus = this.bus;
+        final int[] writeGen = this.writeGen;
+        final TraceSink sink = cpu.getTraceSink();
+        final int start = cpu.cycle;
+        int used = 0;
+
+        while (used < cycleBudget) {
+            final Block block = lookup(cpu.programCounter);
+            if (block == null) {
+                // not cacheable (I/O page), or unknown code
+                cpu.cycle = start + used;
+                used += table.run(cpu, 1);
+                continue;
+            }
+
+            final CompiledBlock compiled = block.compiled;
+            if (compiled != null && sink == null && cycleBudget - used >= block.maxCycles) {
+                used += compiled.execute(cpu, bus);
+                continue;
+            }
+            if (compiler != null && compiled == null && !block.inRam && ++block.entries == jitThreshold) {
+                block.compiled = compiler.compile(block);
+                compiledCount++;
+            }
+
+            final OpHandler[] handlers = block.handlers;
+            final int[] operands = block.operands;
+            final int[] nextPc = block.nextPc;
+            final int[] cycles = block.cycles;
+            final int mapGen = bus.getMapGeneration();
+            for (int i = 0; i < handlers.length && used < cycleBudget; i++) {
+                if (sink != null) {
+                    cpu.cycle = start + used;
+                    sink.trace(cpu);
+                }
+                cpu.programCounter = nextPc[i];
+                used += cycles[i] + handlers[i].execute(cpu, operands[i]);
+
+                // the block may have just rewritten itself, or switched the bank under it
+                if ((block.inRam && !block.fresh(writeGen)) || bus.getMapGeneration() != mapGen)
+                    break;
+            }
+        }
+
+        cpu.cycle = start + used;
+        return used;
+    }
+
+    private Block lookup(int pc) {
+        Block prev = null;
+        for (Block b = blocks[pc]; b != null; prev = b, b = b.next) {
+            if (!b.matches(bus))
+                continue;
+            if (b.inRam && !b.fresh(writeGen)) {
+                // stale, unlink and rebuild
+                if (prev == null) blocks[pc] = b.next;
+                else prev.next = b.next;
+                break;
+            }
+            return b;
+        }
+
+        Block b = build(pc);
+        if (b != null) {
+            b.next = blocks[pc];
+            blocks[pc] = b;
+        }
+        return b;
+    }
+
+    private Block build(final int start) {
+        if (!bus.isReadMapped(start >>> 8))
+            return null;
+
+        int pc = start;
+        int lastPage = start >>> 8;
+        int n = 0;
+        while (n < MAX_BLOCK_LENGTH) {
+            final long decoded = OpCode.decode(bus, pc);
+            if (decoded == OpCode.INVALID)
+                break;
+
+            final int code = OpCode.code(decoded);
+            final int length = OpCode.length(decoded);
+            final int end = (pc + length - 1) & 0xFFFF;
+            // only one page boundary per block, so two bank checks cover it
+            if ((end >>> 8) != lastPage) {
+                if (lastPage != (start >>> 8) || !bus.isReadMapped(end >>> 8))
+                    break;
+                lastPage = end >>> 8;
+            }
+
+            final OP op = OP.lookup(code);
+            tmpCodes[n] = code;
+            tmpHandlers[n] = table.handler(code);
+            tmpOperands[n] = OpCode.arg(decoded);
+            tmpNextPc[n] = (pc + length) & 0xFFFF;
+            tmpCycles[n] = op.Cycles();
+            n++;
+            pc = (pc + length) & 0xFFFF;
+
+            if (endsBlock(op.Inst()))
+                break;
+        }
+        if (n == 0)
+            return null;
+
+        final boolean inRam = bus.isWriteMapped(start >>> 8) || bus.isWriteMapped(lastPage);
+        if (inRam) {
+            bus.trapWrites(start >>> 8);
+            bus.trapWrites(lastPage);
+        }
+
+        built++;
+        return new Block(start, lastPage, bus, inRam, writeGen,
+                Arrays.copyOf(tmpCodes, n), Arrays.copyOf(tmpHandlers, n), Arrays.copyOf(tmpOperands, n),
+                Arrays.copyOf(tmpNextPc, n), Arrays.copyOf(tmpCycles, n));
+    }
+
+    static boolean endsBlock(Instruction inst) {
+        switch (inst) {
+            case BCC:
+            case BCS:
+            case BEQ:
+            case BMI:
+            case BNE:
+            case BPL:
+            case BVC:
+            case BVS:
+            case BRK:
+            case JMP:
+            case JSR:
+            case RTI:
+            case RTS:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    @Override
+    public void written(int address, byte value) {
+        if (address < 0x2000) {
+            // 2K RAM is mirrored 4 times
+            int page = (address & (MemoryBus.RAM_SIZE - 1)) >>> 8;
+            for (int mirror = 0; mirror < 0x20; mirror += MemoryBus.RAM_SIZE >>> 8) {
+                writeGen[page | mirror]++;
+            }
+        } else {
+            writeGen[address >>> 8]++;
+        }
+    }
+
+    /**
+     * Compile blocks entered threshold times. 0 turns compilation off, which is the default.
+     */
+    public void setJitThreshold(int threshold) {
+        if (threshold < 0)
+            throw new IllegalArgumentException("threshold=" + threshold);
+        this.jitThreshold = threshold;
+        this.compiler = threshold == 0 ? null : new BlockCompiler();
+    }
+
+    /**
+     * @return number of blocks compiled so far
+     */
+    public long getCompiledCount() {
+        return compiledCount;
+    }
+
+    /**
+     * Drop all blocks.
+     */
+    public void invalidateAll() {
+        Arrays.fill(blocks, null);
+    }
+
+    /**
+     * @return number of blocks decoded so far
+     */
+    public long getBuiltCount() {
+        return built;
+    }
+}
@@ -0,0 +1,271 @@
+package io.famiemu.cpu;
+
+import io.famiemu.memory.MemoryBus;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.Label;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Type;
+
+import java.lang.reflect.Method;
+
+import static org.objectweb.asm.Opcodes.*;
+
+/**
+ * Turns a hot {@link BlockCache} block into a JVM class, so HotSpot sees one straight method
+ * with constant operands and static calls it can inline, instead of a chain of {@link OpHandler}s.
+ * <p></p>
+ * For each instruction the generated code sets PC, computes the effective address
+ * (folded to a constant where the mode allows) and calls the matching {@link Operations} method:
+ * <pre>
+ * cpu.programCounter = 0x8005;
+ * used += 4 + Operations.lda(cpu, (0x0200 + cpu.xIndex) &amp; 0xFFFF);
+ * </pre>
+ * After a store or read-modify-write that may hit a mapper register, the block returns
+ * if the {@link MemoryBus#getMapGeneration() mapping} changed, so it never runs on past a bank switch.
+ * Classes are defined by a private class loader per compiler,
+ * so they can be unloaded with the {@link BlockCache} that owns them.
+ */
+final class BlockCompiler {
+
+    private static final String PROCESSOR = Type.getInternalName(Processor.class);
+    private static final String OPERATIONS = Type.getInternalName(Operations.class);
+    private static final String COMPILED = Type.getInternalName(CompiledBlock.class);
+    private static final String BUS = Type.getInternalName(MemoryBus.class);
+    private static final String OPERATION_DESC = "(L" + PROCESSOR + ";I)I";
+
+    private static final int CPU = 1;
+    private static final int MEMORY = 2;
+    private static final int USED = 3;
+    /** address with the page crossed bit, see {@link Operations#indexed(int, int)} */
+    private static final int TARGET = 4;
+    /** mapping generation of the bus at entry */
+    private static final int MAP_GEN = 5;
+
+    /** {@link Operations} method per instruction */
+    private static final String[] operationNames = new String[Instruction.values().length];
+
+    static {
+        for (Instruction inst : Instruction.values()) {
+            String name = inst.name().toLowerCase();
+            if (!hasOperation(name))
+                throw new IllegalStateException("No operation for " + inst);
+            operationNames[inst.ordinal()] = name;
+        }
+    }
+
+    private static boolean hasOperation(String name) {
+        for (Method m : Operations.class.getMethods()) {
+            if (m.getName().equals(name)) return true;
+        }
+        return false;
+    }
+
+    private static final class Loader extends ClassLoader {
+        Loader() {
+            super(BlockCompiler.class.getClassLoader());
+        }
+
+        Class<?> define(String name, byte[] bytes) {
+            return defineClass(name, bytes, 0, bytes.length);
+        }
+    }
+
+    private final Loader loader = new Loader();
+    private int count;
+
+    CompiledBlock compile(BlockCache.Block block) {
+        final String name = String.format("io/famiemu/cpu/jit/Block_%04X_%d", block.start, count++);
+
+        // frames for the early returns
+        ClassWriter cw = new ClassWriter(ClassWriter.COMPUTE_FRAMES);
+        cw.visit(V1_8, ACC_PUBLIC | ACC_FINAL | ACC_SUPER, name, null, "java/lang/Object", new String[]{COMPILED});
+
+        MethodVisitor init = cw.visitMethod(ACC_PUBLIC, "<init>", "()V", null, null);
+        init.visitCode();
+        init.visitVarInsn(ALOAD, 0);
+        init.visitMethodInsn(INVOKESPECIAL, "java/lang/Object", "<init>", "()V", false);
+        init.visitInsn(RETURN);
+        init.visitMaxs(0, 0);
+        init.visitEnd();
+
+        MethodVisitor mv = cw.visitMethod(ACC_PUBLIC, "execute", "(L" + PROCESSOR + ";L" + BUS + ";)I", null, null);
+        mv.visitCode();
+        mv.visitInsn(ICONST_0);
+        mv.visitVarInsn(ISTORE, USED);
+        mv.visitVarInsn(ALOAD, MEMORY);
+        mv.visitMethodInsn(INVOKEVIRTUAL, BUS, "getMapGeneration", "()I", false);
+        mv.visitVarInsn(ISTORE, MAP_GEN);
+
+        for (int i = 0; i < block.codes.length; i++) {
+            final OP op = OP.lookup(block.codes[i]);
+            final int nextPc = block.nextPc[i];
+
+            // cpu.programCounter = nextPc
+            mv.visitVarInsn(ALOAD, CPU);
+            mv.visitLdcInsn(nextPc);
+            mv.visitFieldInsn(PUTFIELD, PROCESSOR, "programCounter", "I");
+
+            // used += cycles + Operations.xxx(cpu, address)
+            mv.visitVarInsn(ILOAD, USED);
+            mv.visitLdcInsn(block.cycles[i]);
+            mv.visitInsn(IADD);
+            final boolean indexed = isIndexed(op.Mode());
+            if (indexed) {
+                address(mv, op.Mode(), block.operands[i], nextPc);
+                mv.visitVarInsn(ISTORE, TARGET);
+                mv.visitVarInsn(ALOAD, CPU);
+                mv.visitVarInsn(ILOAD, TARGET);
+                mv.visitLdcInsn(0xFFFF);
+                mv.visitInsn(IAND);
+            } else {
+                mv.visitVarInsn(ALOAD, CPU);
+                address(mv, op.Mode(), block.operands[i], nextPc);
+            }
+            mv.visitMethodInsn(INVOKESTATIC, OPERATIONS, operationNames[op.Inst().ordinal()], OPERATION_DESC, false);
+            mv.visitInsn(IADD);
+            if (indexed && op.PageCrossCycles() != 0) {
+                // + (target >>> 16) & penalty
+                mv.visitVarInsn(ILOAD, TARGET);
+                mv.visitLdcInsn(16);
+                mv.visitInsn(IUSHR);
+                mv.visitLdcInsn(op.PageCrossCycles());
+                mv.visitInsn(IAND);
+                mv.visitInsn(IADD);
+            }
+            mv.visitVarInsn(ISTORE, USED);
+
+            if (i < block.codes.length - 1 && mayRemap(op, block.operands[i])) {
+                // if (bus.getMapGeneration() != gen) return used
+                final Label same = new Label();
+                mv.visitVarInsn(ALOAD, MEMORY);
+                mv.visitMethodInsn(INVOKEVIRTUAL, BUS, "getMapGeneration", "()I", false);
+                mv.visitVarInsn(ILOAD, MAP_GEN);
+                mv.visitJumpInsn(IF_ICMPEQ, same);
+                mv.visitVarInsn(ILOAD, USED);
+                mv.visitInsn(IRETURN);
+                mv.visitLabel(same);
+            }
+        }
+
+        mv.visitVarInsn(ILOAD, USED);
+        mv.visitInsn(IRETURN);
+        mv.visitMaxs(0, 0);
+        mv.visitEnd();
+        cw.visitEnd();
+
+        try {
+            Class<?> cls = loader.define(name.replace('/', '.'), cw.toByteArray());
+            return (CompiledBlock) cls.getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("Failed to compile block at " + block.start, e);
+        }
+    }
+
+    /**
+     * Push the effective address, same as {@link DispatchTable#bind}.
+     * For {@link #isIndexed} modes it carries the page crossed bit.
+     */
+    private static void address(MethodVisitor mv, AddressingMode mode, int operand, int nextPc) {
+        switch (mode) {
+            case Accumulator:
+            case Implied:
+                mv.visitInsn(ICONST_M1);
+                break;
+            case Immediate:
+                mv.visitLdcInsn((nextPc - 1) & 0xFFFF);
+                break;
+            case ZeroPage:
+            case Absolute:
+                mv.visitLdcInsn(operand);
+                break;
+            case ZeroPageX:
+                indexed(mv, operand, "xIndex", 0xFF);
+                break;
+            case ZeroPageY:
+                indexed(mv, operand, "yIndex", 0xFF);
+                break;
+            case AbsoluteX:
+                absoluteIndexed(mv, operand, "xIndex");
+                break;
+            case AbsoluteY:
+                absoluteIndexed(mv, operand, "yIndex");
+                break;
+            case Indirect:
+                pointer(mv, "indirect", operand);
+                break;
+            case IndirectX:
+                pointer(mv, "indirectX", operand);
+                break;
+            case IndirectY:
+                pointer(mv, "indirectY", operand);
+                break;
+            case Relative:
+                // branch target is known at compile time
+                mv.visitLdcInsn((nextPc + (byte) operand) & 0xFFFF);
+                break;
+            default:
+                throw new IllegalStateException("Unexpected value: " + mode);
+        }
+    }
+
+    private static void indexed(MethodVisitor mv, int operand, String index, int mask) {
+        mv.visitLdcInsn(operand);
+        mv.visitVarInsn(ALOAD, CPU);
+        mv.visitFieldInsn(GETFIELD, PROCESSOR, index, "I");
+        mv.visitInsn(IADD);
+        mv.visitLdcInsn(mask);
+        mv.visitInsn(IAND);
+    }
+
+    /**
+     * Stores and read-modify-writes that may reach a mapper register.
+     * RAM at $0000-$1FFF is never remapped, so zero page and absolute addresses below $2000 are safe.
+     */
+    private static boolean mayRemap(OP op, int operand) {
+        switch (op.Inst()) {
+            case STA:
+            case STX:
+            case STY:
+            case ASL:
+            case LSR:
+            case ROL:
+            case ROR:
+            case INC:
+            case DEC:
+                break;
+            default:
+                return false;
+        }
+        switch (op.Mode()) {
+            case Accumulator:
+            case ZeroPage:
+            case ZeroPageX:
+            case ZeroPageY:
+                return false;
+            case Absolute:
+                return operand >= 0x2000;
+            default:
+                return true;
+        }
+    }
+
+    /**
+     * Modes whose address carries the page crossed bit.
+     */
+    private static boolean isIndexed(AddressingMode mode) {
+        return mode == AddressingMode.AbsoluteX || mode == AddressingMode.AbsoluteY || mode == AddressingMode.IndirectY;
+    }
+
+    private static void absoluteIndexed(MethodVisitor mv, int operand, String index) {
+        mv.visitLdcInsn(operand);
+        mv.visitVarInsn(ALOAD, CPU);
+        mv.visitFieldInsn(GETFIELD, PROCESSOR, index, "I");
+        mv.visitMethodInsn(INVOKESTATIC, OPERATIONS, "indexed", "(II)I", false);
+    }
+
+    private static void pointer(MethodVisitor mv, String resolver, int operand) {
+        mv.visitVarInsn(ALOAD, CPU);
+        mv.visitLdcInsn(operand);
+        mv.visitMethodInsn(INVOKESTATIC, OPERATIONS, resolver, OPERATION_DESC, false);
+    }
+}
@@ -0,0 +1,17 @@
+package io.famiemu.cpu;
+
+import io.famiemu.memory.MemoryBus;
+
+/**
+ * A {@link BlockCache} block turned into JVM bytecode by {@link BlockCompiler}.
+ */
+public interface CompiledBlock {
+
+    /**
+     * Execute the block on the processor fields.
+     * Stops early after an instruction that changed the mapping of bus, e.g. a write to a mapper register.
+     *
+     * @return cycles used
+     */
+    int execute(Processor cpu, MemoryBus bus);
+}
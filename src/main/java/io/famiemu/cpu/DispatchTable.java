@@ -0,0 +1,202 @@
+package io.famiemu.cpu;
+
+import io.famiemu.trace.TraceSink;
+
+/**
+ * Alternative dispatch core.
+ * <p></p>
+ * Each of the 256 opcodes maps straight to an {@link OpHandler} with its addressing mode bound,
+ * built once from the {@link OP} registrations.
+ * Executing an instruction is one table load and one call,
+ * instead of {@link OP#lookup(int)} + a switch on {@link AddressingMode} + a switch on {@link Instruction}.
+ * <p></p>
+ * Works on the {@link Processor} fields, so it can be mixed with {@link Processor#singleStep()}.
+ */
+public final class DispatchTable {
+
+    /**
+     * Instruction semantics, see {@link Operations}.
+     */
+    @FunctionalInterface
+    interface Operation {
+        int execute(Processor cpu, int address);
+    }
+
+    private static final DispatchTable INSTANCE = new DispatchTable();
+
+    private final OpHandler[] handlers = new OpHandler[256];
+    private final int[] lengths = new int[256];
+    private final int[] cycles = new int[256];
+
+    private DispatchTable() {
+        for (int code = 0; code < 256; code++) {
+            OP op = OP.lookup(code);
+            if (op == null)
+                continue;
+
+            handlers[code] = bind(op.Mode(), operation(op.Inst()), op.PageCrossCycles());
+            lengths[code] = op.Bytes();
+            cycles[code] = op.Cycles();
+        }
+    }
+
+    public static DispatchTable get() {
+        return INSTANCE;
+    }
+
+    /**
+     * @return handler for code, null if the code is not registered
+     */
+    public OpHandler handler(int code) {
+        return handlers[code];
+    }
+
+    /**
+     * Same contract as {@link Processor#run(int)}.
+     *
+     * @return cycles actually used
+     */
+    public int run(Processor cpu, int cycleBudget) {
+        final TraceSink sink = cpu.getTraceSink();
+        final int start = cpu.cycle;
+        int used = 0;
+
+        while (used < cycleBudget) {
+            if (sink != null) {
+                cpu.cycle = start + used;
+                sink.trace(cpu);
+            }
+
+            final int pc = cpu.programCounter;
+            final int code = cpu.read8(pc);
+            final OpHandler handler = handlers[code];
+            if (handler == null) {
+                cpu.cycle = start + used;
+                throw new IllegalStateException("Unsupported code=" + code + " at PC=" + pc);
+            }
+
+            final int length = lengths[code];
+            final int operand;
+            if (length == 1) operand = 0;
+            else if (length == 2) operand = cpu.read8((pc + 1) & 0xFFFF);
+            else operand = cpu.read16((pc + 1) & 0xFFFF);
+
+            cpu.programCounter = (pc + length) & 0xFFFF;
+            used += cycles[code] + handler.execute(cpu, operand);
+        }
+
+        cpu.cycle = start + used;
+        return used;
+    }
+
+    /**
+     * Bind the addressing mode statically, so only the instruction is called through an interface.
+     *
+     * @param penalty {@link OP#PageCrossCycles()}
+     */
+    static OpHandler bind(AddressingMode mode, Operation op, int penalty) {
+        switch (mode) {
+            case Accumulator:
+            case Implied:
+                // no operand
+                return (cpu, operand) -> op.execute(cpu, -1);
+            case Immediate:
+                // constant is the byte just before the next PC
+                return (cpu, operand) -> op.execute(cpu, (cpu.programCounter - 1) & 0xFFFF);
+            case ZeroPage:
+            case Absolute:
+                return op::execute;
+            case ZeroPageX:
+                return (cpu, operand) -> op.execute(cpu, (operand + cpu.xIndex) & 0xFF);
+            case ZeroPageY:
+                return (cpu, operand) -> op.execute(cpu, (operand + cpu.yIndex) & 0xFF);
+            case AbsoluteX:
+                return (cpu, operand) -> {
+                    int target = Operations.indexed(operand, cpu.xIndex);
+                    return op.execute(cpu, target & 0xFFFF) + ((target >>> 16) & penalty);
+                };
+            case AbsoluteY:
+                return (cpu, operand) -> {
+                    int target = Operations.indexed(operand, cpu.yIndex);
+                    return op.execute(cpu, target & 0xFFFF) + ((target >>> 16) & penalty);
+                };
+            case Indirect:
+                return (cpu, operand) -> op.execute(cpu, Operations.indirect(cpu, operand));
+            case IndirectX:
+                return (cpu, operand) -> op.execute(cpu, Operations.indirectX(cpu, operand));
+            case IndirectY:
+                return (cpu, operand) -> {
+                    int target = Operations.indirectY(cpu, operand);
+                    return op.execute(cpu, target & 0xFFFF) + ((target >>> 16) & penalty);
+                };
+            case Relative:
+                // relative to the next instruction
+                return (cpu, operand) -> op.execute(cpu, (cpu.programCounter + (byte) operand) & 0xFFFF);
+            default:
+                throw new IllegalStateException("Unexpected value: " + mode);
+        }
+    }
+
+    static Operation operation(Instruction inst) {
+        switch (inst) {
+            case ADC: return Operations::adc;
+            case AND: return Operations::and;
+            case ASL: return Operations::asl;
+            case BCC: return Operations::bcc;
+            case BCS: return Operations::bcs;
+            case BEQ: return Operations::beq;
+            case BIT: return Operations::bit;
+            case BMI: return Operations::bmi;
+            case BNE: return Operations::bne;
+            case BPL: return Operations::bpl;
+            case BRK: return Operations::brk;
+            case BVC: return Operations::bvc;
+            case BVS: return Operations::bvs;
+            case CLC: return Operations::clc;
+            case CLD: return Operations::cld;
+            case CLI: return Operations::cli;
+            case CLV: return Operations::clv;
+            case CMP: return Operations::cmp;
+            case CPX: return Operations::cpx;
+            case CPY: return Operations::cpy;
+            case DEC: return Operations::dec;
+            case DEX: return Operations::dex;
+            case DEY: return Operations::dey;
+            case EOR: return Operations::eor;
+            case INC: return Operations::inc;
+            case INX: return Operations::inx;
+            case INY: return Operations::iny;
+            case JMP: return Operations::jmp;
+            case JSR: return Operations::jsr;
+            case LDA: return Operations::lda;
+            case LDX: return Operations::ldx;
+            case LDY: return Operations::ldy;
+            case LSR: return Operations::lsr;
+            case NOP: return Operations::nop;
+            case ORA: return Operations::ora;
+            case PHA: return Operations::pha;
+            case PHP: return Operations::php;
+            case PLA: return Operations::pla;
+            case PLP: return Operations::plp;
+            case ROL: return Operations::rol;
+            case ROR: return Operations::ror;
+            case RTI: return Operations::rti;
+            case RTS: return Operations::rts;
+            case SBC: return Operations::sbc;
+            case SEC: return Operations::sec;
+            case SED: return Operations::sed;
+            case SEI: return Operations::sei;
+            case STA: return Operations::sta;
+            case STX: return Operations::stx;
+            case STY: return Operations::sty;
+            case TAX: return Operations::tax;
+            case TAY: return Operations::tay;
+            case TSX: return Operations::tsx;
+            case TXA: return Operations::txa;
+            case TXS: return Operations::txs;
+            case TYA: return Operations::tya;
+            default:
+                throw new IllegalStateException("Unexpected value: " + inst);
+        }
+    }
+}
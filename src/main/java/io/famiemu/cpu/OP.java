@@ -15,12 +15,16 @@ public class OP {
     private final Instruction inst;
     private final AddressingMode mode;
     private final int cycles;
+    private final int pageCrossCycles;
+    private final int bytes;
 
-    private OP(int key, Instruction inst, AddressingMode mode, int cycles) {
+    private OP(int key, Instruction inst, AddressingMode mode, int cycles, int pageCrossCycles) {
         this.key = key;
         this.inst = inst;
         this.mode = mode;
         this.cycles = cycles;
+        this.pageCrossCycles = pageCrossCycles;
+        this.bytes = mode.OpBytes() + 1;
     }
 
     public int Key() {
@@ -39,20 +43,35 @@ public class OP {
         return cycles;
     }
 
+    /**
+     * @return 1 if the instruction takes an extra cycle when the indexed address crosses a page, 0 otherwise.
+     * Branches are not included, they pay for a crossing only when taken.
+     */
+    public int PageCrossCycles() {
+        return pageCrossCycles;
+    }
+
     /**
      * @return Instruction (1 Byte) + Operands
      */
     public int Bytes() {
-        return mode.OpBytes() + 1;
+        return bytes;
     }
 
     private static final OP[] table = new OP[256];
 
+    /** +1 cycle if page crossed */
+    private static final boolean PAGE_CROSS = true;
+
     private static void addOp(int key, Instruction inst, AddressingMode mode, int cycles) {
+        addOp(key, inst, mode, cycles, false);
+    }
+
+    private static void addOp(int key, Instruction inst, AddressingMode mode, int cycles, boolean pageCross) {
         if (table[key] != null)
             throw new RuntimeException("Already registered key=" + key);
 
-        table[key] = new OP(key, inst, mode, cycles);
+        table[key] = new OP(key, inst, mode, cycles, pageCross ? 1 : 0);
 
         // also register allowed mode to instruction
         inst.Modes().add(mode);
@@ -72,12 +91,12 @@ public class OP {
         addOp(0x0E, ASL, Absolute, 6);
 
         addOp(0x10, BPL, Relative, 2);
-        addOp(0x11, ORA, IndirectY, 5);
+        addOp(0x11, ORA, IndirectY, 5, PAGE_CROSS);
         addOp(0x15, ORA, ZeroPageX, 4);
         addOp(0x16, ASL, ZeroPageX, 6);
         addOp(0x18, CLC, Implied, 2);
-        addOp(0x19, ORA, AbsoluteY, 4);
-        addOp(0x1D, ORA, AbsoluteX, 4);
+        addOp(0x19, ORA, AbsoluteY, 4, PAGE_CROSS);
+        addOp(0x1D, ORA, AbsoluteX, 4, PAGE_CROSS);
         addOp(0x1E, ASL, AbsoluteX, 7);
 
         addOp(0x20, JSR, Absolute, 6);
@@ -94,12 +113,12 @@ public class OP {
 
 
         addOp(0x30, BMI, Relative, 2);
-        addOp(0x31, AND, IndirectY, 5);
+        addOp(0x31, AND, IndirectY, 5, PAGE_CROSS);
         addOp(0x35, AND, ZeroPageX, 4);
         addOp(0x36, ROL, ZeroPageX, 6);
         addOp(0x38, SEC, Implied, 2);
-        addOp(0x39, AND, AbsoluteY, 4);
-        addOp(0x3D, AND, AbsoluteX, 4);
+        addOp(0x39, AND, AbsoluteY, 4, PAGE_CROSS);
+        addOp(0x3D, AND, AbsoluteX, 4, PAGE_CROSS);
         addOp(0x3E, ROL, AbsoluteX, 7);
 
         addOp(0x40, RTI, Implied, 6);
@@ -115,12 +134,12 @@ public class OP {
 
 
         addOp(0x50, BVC, Relative, 2);
-        addOp(0x51, EOR, IndirectY, 5);
+        addOp(0x51, EOR, IndirectY, 5, PAGE_CROSS);
         addOp(0x55, EOR, ZeroPageX, 4);
         addOp(0x56, LSR, ZeroPageX, 6);
         addOp(0x58, CLI, Implied, 2);
-        addOp(0x59, EOR, AbsoluteY, 4);
-        addOp(0x5D, EOR, AbsoluteX, 4);
+        addOp(0x59, EOR, AbsoluteY, 4, PAGE_CROSS);
+        addOp(0x5D, EOR, AbsoluteX, 4, PAGE_CROSS);
         addOp(0x5E, LSR, AbsoluteX, 7);
 
         addOp(0x60, RTS, Implied, 6);
@@ -137,12 +156,12 @@ public class OP {
 
 
         addOp(0x70, BVS, Relative, 2);
-        addOp(0x71, ADC, IndirectY, 5);
+        addOp(0x71, ADC, IndirectY, 5, PAGE_CROSS);
         addOp(0x75, ADC, ZeroPageX, 4);
         addOp(0x76, ROR, ZeroPageX, 6);
         addOp(0x78, SEI, Implied, 2);
-        addOp(0x79, ADC, AbsoluteY, 4);
-        addOp(0x7D, ADC, AbsoluteX, 4);
+        addOp(0x79, ADC, AbsoluteY, 4, PAGE_CROSS);
+        addOp(0x7D, ADC, AbsoluteX, 4, PAGE_CROSS);
         addOp(0x7E, ROR, AbsoluteX, 7);
 
 
@@ -181,16 +200,16 @@ public class OP {
 
 
         addOp(0xB0, BCS, Relative, 2);
-        addOp(0xB1, LDA, IndirectY, 5);
+        addOp(0xB1, LDA, IndirectY, 5, PAGE_CROSS);
         addOp(0xB4, LDY, ZeroPageX, 4);
         addOp(0xB5, LDA, ZeroPageX, 4);
         addOp(0xB6, LDX, ZeroPageY, 4);
         addOp(0xB8, CLV, Implied, 2);
-        addOp(0xB9, LDA, AbsoluteY, 4);
+        addOp(0xB9, LDA, AbsoluteY, 4, PAGE_CROSS);
         addOp(0xBA, TSX, Implied, 2);
-        addOp(0xBC, LDY, AbsoluteX, 4);
-        addOp(0xBD, LDA, AbsoluteX, 4);
-        addOp(0xBE, LDX, AbsoluteY, 4);
+        addOp(0xBC, LDY, AbsoluteX, 4, PAGE_CROSS);
+        addOp(0xBD, LDA, AbsoluteX, 4, PAGE_CROSS);
+        addOp(0xBE, LDX, AbsoluteY, 4, PAGE_CROSS);
 
         addOp(0xC0, CPY, Immediate, 2);
         addOp(0xC1, CMP, IndirectX, 6);
@@ -205,12 +224,12 @@ public class OP {
         addOp(0xCE, DEC, Absolute, 6);
 
         addOp(0xD0, BNE, Relative, 2);
-        addOp(0xD1, CMP, IndirectY, 5);
+        addOp(0xD1, CMP, IndirectY, 5, PAGE_CROSS);
         addOp(0xD5, CMP, ZeroPageX, 4);
         addOp(0xD6, DEC, ZeroPageX, 6);
         addOp(0xD8, CLD, Implied, 2);
-        addOp(0xD9, CMP, AbsoluteY, 4);
-        addOp(0xDD, CMP, AbsoluteX, 4);
+        addOp(0xD9, CMP, AbsoluteY, 4, PAGE_CROSS);
+        addOp(0xDD, CMP, AbsoluteX, 4, PAGE_CROSS);
         addOp(0xDE, DEC, AbsoluteX, 7);
 
 
@@ -227,12 +246,12 @@ public class OP {
         addOp(0xEE, INC, Absolute, 6);
 
         addOp(0xF0, BEQ, Relative, 2);
-        addOp(0xF1, SBC, IndirectY, 5);
+        addOp(0xF1, SBC, IndirectY, 5, PAGE_CROSS);
         addOp(0xF5, SBC, ZeroPageX, 4);
         addOp(0xF6, INC, ZeroPageX, 6);
         addOp(0xF8, SED, Implied, 2);
-        addOp(0xF9, SBC, AbsoluteY, 4);
-        addOp(0xFD, SBC, AbsoluteX, 4);
+        addOp(0xF9, SBC, AbsoluteY, 4, PAGE_CROSS);
+        addOp(0xFD, SBC, AbsoluteX, 4, PAGE_CROSS);
         addOp(0xFE, INC, AbsoluteX, 7);
 
         // non-official
@@ -2,12 +2,16 @@ package io.famiemu.cpu;
 
 import io.famiemu.AddressReader;
 
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 public class OpCode {
 
     private static final Logger logger = Logger.getLogger("OPCODE");
 
+    /** returned by {@link #decode(AddressReader, int)} for an unknown code */
+    public static final long INVALID = -1L;
+
     public OP op;
     public int arg;
 
@@ -17,16 +21,26 @@ public class OpCode {
 
 
     public static OpCode parse(AddressReader reader, int address) {
+        return parse(reader, address, new OpCode());
+    }
+
+    /**
+     * Decode into a reusable holder.
+     *
+     * @return res, or null if the code is unknown
+     */
+    public static OpCode parse(AddressReader reader, int address, OpCode res) {
 
         int code = reader.readU8(address);
         OP op = OP.lookup(code);
         if (op == null) {
-            logger.warning("Unknown code=" + code + " at address=" + address);
+            if (logger.isLoggable(Level.WARNING))
+                logger.warning("Unknown code=" + code + " at address=" + address);
             return null;
         }
 
-        OpCode res = new OpCode();
         res.op = op;
+        res.arg = 0;
         // move to next address
         address++;
 
@@ -70,4 +84,39 @@ public class OpCode {
         return res;
     }
 
+    /**
+     * Decode without allocating or logging.
+     *
+     * @return code | raw operand bytes << 8 | length << 24, or {@link #INVALID}.
+     * Never 0 for a valid code, since the length is at least 1.
+     */
+    public static long decode(AddressReader reader, int address) {
+        final int code = reader.readU8(address);
+        final OP op = OP.lookup(code);
+        if (op == null)
+            return INVALID;
+
+        final int length = op.Bytes();
+        int arg = 0;
+        if (length == 2) arg = reader.readU8((address + 1) & 0xFFFF);
+        else if (length == 3) arg = reader.readU16((address + 1) & 0xFFFF);
+
+        return code | ((long) arg << 8) | ((long) length << 24);
+    }
+
+    public static int code(long decoded) {
+        return (int) decoded & 0xFF;
+    }
+
+    /**
+     * @return raw operand bytes lo | hi << 8, a {@link AddressingMode#Relative} offset is not sign extended
+     */
+    public static int arg(long decoded) {
+        return (int) (decoded >>> 8) & 0xFFFF;
+    }
+
+    public static int length(long decoded) {
+        return (int) (decoded >>> 24) & 0xFF;
+    }
+
 }
@@ -0,0 +1,17 @@
+package io.famiemu.cpu;
+
+/**
+ * Executes one opcode, with its addressing mode already bound.
+ * See {@link DispatchTable}.
+ */
+@FunctionalInterface
+public interface OpHandler {
+
+    /**
+     * Called with PC already moved past the instruction.
+     *
+     * @param operand raw operand bytes following the opcode, lo | hi << 8
+     * @return extra cycles on top of {@link OP#Cycles()}, e.g. for a taken branch
+     */
+    int execute(Processor cpu, int operand);
+}
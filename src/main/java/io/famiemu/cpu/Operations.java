@@ -0,0 +1,412 @@
+package io.famiemu.cpu;
+
+import io.famiemu.cpu.Processor.StatusFlag;
+
+/**
+ * Instruction semantics on the {@link Processor} fields, one static method per {@link Instruction}.
+ * <p></p>
+ * Each method gets the effective address from the addressing mode (-1 for implied/accumulator)
+ * and returns the extra cycles used.
+ * ADC and SBC are binary only, the 2A03 has no decimal mode even with D set.
+ * Must behave exactly like the switch in {@link Processor}.
+ * <p></p>
+ * Public only because classes generated by {@link BlockCompiler} live in their own class loader.
+ */
+public final class Operations {
+
+    private Operations() {}
+
+    /**
+     * JMP ($xxxx)
+     * 6502 CPU bug: JMP ($xxFF) takes the high byte from the beginning of the same page.
+     */
+    public static int indirect(Processor cpu, int pointer) {
+        return cpu.read8(pointer) | (cpu.read8((pointer & 0xFF00) | ((pointer + 1) & 0xFF)) << 8);
+    }
+
+    /**
+     * ($xx,X), address wraps in zero page
+     */
+    public static int indirectX(Processor cpu, int pointer) {
+        int tmp = pointer + cpu.xIndex;
+        return cpu.read8(tmp & 0xFF) | (cpu.read8((tmp + 1) & 0xFF) << 8);
+    }
+
+    /**
+     * ($xx),Y, pointer wraps in zero page
+     *
+     * @return address, bit 16 set if the page was crossed
+     */
+    public static int indirectY(Processor cpu, int pointer) {
+        int base = cpu.read8(pointer) | (cpu.read8((pointer + 1) & 0xFF) << 8);
+        return indexed(base, cpu.yIndex);
+    }
+
+    /**
+     * $xxxx,X and $xxxx,Y
+     *
+     * @return address, bit 16 set if the page was crossed
+     */
+    public static int indexed(int base, int index) {
+        int address = (base + index) & 0xFFFF;
+        return address | ((base ^ address) & 0x100) << 8;
+    }
+
+    private static int branch(Processor cpu, boolean cond, int address) {
+        if (cond) {
+            // +1 more to another page than the next instruction
+            int crossed = ((cpu.programCounter ^ address) >>> 8) & 1;
+            cpu.programCounter = address;
+            return 1 + crossed; // branch succeeds
+        }
+        return 0;
+    }
+
+    /**
+     * A + value + C, shared by ADC and SBC
+     */
+    private static void add(Processor cpu, int value) {
+        int a = cpu.accumulator;
+        int sum = a + value + ((cpu.carry >>> 8) & 1);
+        // overflow if both inputs have the same sign and the result another
+        cpu.overflow = ~(a ^ value) & (a ^ sum);
+        cpu.carry = sum;
+        cpu.accumulator = sum & 0xFF;
+        cpu.updateZeroNegativeFlag(cpu.accumulator);
+    }
+
+    private static void compare(Processor cpu, int register, int address) {
+        int value = cpu.read8(address);
+        // bit 8 is set unless it borrows
+        cpu.carry = register - value + 0x100;
+        cpu.updateZeroNegativeFlag(register - value);
+    }
+
+    public static int adc(Processor cpu, int address) {
+        add(cpu, cpu.read8(address));
+        return 0;
+    }
+
+    public static int and(Processor cpu, int address) {
+        cpu.accumulator &= cpu.read8(address);
+        cpu.updateZeroNegativeFlag(cpu.accumulator);
+        return 0;
+    }
+
+    public static int asl(Processor cpu, int address) {
+        int value = address < 0 ? cpu.accumulator : cpu.read8(address);
+        // bit 7 goes to carry
+        cpu.carry = value << 1;
+        value = (value << 1) & 0xFF;
+        if (address < 0) cpu.accumulator = value;
+        else cpu.write8(address, value);
+        cpu.updateZeroNegativeFlag(value);
+        return 0;
+    }
+
+    public static int bcc(Processor cpu, int address) {
+        return branch(cpu, (cpu.carry & 0x100) == 0, address);
+    }
+
+    public static int bcs(Processor cpu, int address) {
+        return branch(cpu, (cpu.carry & 0x100) != 0, address);
+    }
+
+    public static int beq(Processor cpu, int address) {
+        return branch(cpu, Processor.isZero(cpu.zn), address);
+    }
+
+    public static int bit(Processor cpu, int address) {
+        int value = cpu.read8(address);
+        // memory value copied to N & V flags
+        cpu.zn = Processor.zn(value & cpu.accumulator, value);
+        cpu.overflow = value << 1;
+        return 0;
+    }
+
+    public static int bmi(Processor cpu, int address) {
+        return branch(cpu, Processor.isNegative(cpu.zn), address);
+    }
+
+    public static int bne(Processor cpu, int address) {
+        return branch(cpu, !Processor.isZero(cpu.zn), address);
+    }
+
+    public static int bpl(Processor cpu, int address) {
+        return branch(cpu, !Processor.isNegative(cpu.zn), address);
+    }
+
+    public static int brk(Processor cpu, int address) {
+        // the byte after BRK is skipped, return to PC + 2
+        cpu.push16((cpu.programCounter + 1) & 0xFFFF);
+        // B set: caused by BRK
+        cpu.push8(cpu.getStatus() | (1 << StatusFlag.BREAK_COMMAND) | (1 << StatusFlag.BREAK_CMD2));
+        cpu.setFlag(StatusFlag.IRQ_DISABLE);
+        cpu.programCounter = cpu.read16(Processor.INT_IRQBRK_VEC);
+        return 0;
+    }
+
+    public static int bvc(Processor cpu, int address) {
+        return branch(cpu, (cpu.overflow & 0x80) == 0, address);
+    }
+
+    public static int bvs(Processor cpu, int address) {
+        return branch(cpu, (cpu.overflow & 0x80) != 0, address);
+    }
+
+    public static int clc(Processor cpu, int address) {
+        cpu.carry = 0;
+        return 0;
+    }
+
+    public static int cld(Processor cpu, int address) {
+        cpu.clearFlag(StatusFlag.DECIMAL_MODE);
+        return 0;
+    }
+
+    public static int cli(Processor cpu, int address) {
+        cpu.clearFlag(StatusFlag.IRQ_DISABLE);
+        return 0;
+    }
+
+    public static int clv(Processor cpu, int address) {
+        cpu.overflow = 0;
+        return 0;
+    }
+
+    public static int cmp(Processor cpu, int address) {
+        compare(cpu, cpu.accumulator, address);
+        return 0;
+    }
+
+    public static int cpx(Processor cpu, int address) {
+        compare(cpu, cpu.xIndex, address);
+        return 0;
+    }
+
+    public static int cpy(Processor cpu, int address) {
+        compare(cpu, cpu.yIndex, address);
+        return 0;
+    }
+
+    public static int dec(Processor cpu, int address) {
+        int value = (cpu.read8(address) - 1) & 0xFF;
+        cpu.write8(address, value);
+        cpu.updateZeroNegativeFlag(value);
+        return 0;
+    }
+
+    public static int dex(Processor cpu, int address) {
+        cpu.xIndex = (cpu.xIndex - 1) & 0xFF;
+        cpu.updateZeroNegativeFlag(cpu.xIndex);
+        return 0;
+    }
+
+    public static int dey(Processor cpu, int address) {
+        cpu.yIndex = (cpu.yIndex - 1) & 0xFF;
+        cpu.updateZeroNegativeFlag(cpu.yIndex);
+        return 0;
+    }
+
+    public static int eor(Processor cpu, int address) {
+        cpu.accumulator ^= cpu.read8(address);
+        cpu.updateZeroNegativeFlag(cpu.accumulator);
+        return 0;
+    }
+
+    public static int inc(Processor cpu, int address) {
+        int value = (cpu.read8(address) + 1) & 0xFF;
+        cpu.write8(address, value);
+        cpu.updateZeroNegativeFlag(value);
+        return 0;
+    }
+
+    public static int inx(Processor cpu, int address) {
+        cpu.xIndex = (cpu.xIndex + 1) & 0xFF;
+        cpu.updateZeroNegativeFlag(cpu.xIndex);
+        return 0;
+    }
+
+    public static int iny(Processor cpu, int address) {
+        cpu.yIndex = (cpu.yIndex + 1) & 0xFF;
+        cpu.updateZeroNegativeFlag(cpu.yIndex);
+        return 0;
+    }
+
+    public static int jmp(Processor cpu, int address) {
+        cpu.programCounter = address;
+        return 0;
+    }
+
+    public static int jsr(Processor cpu, int address) {
+        // push return point
+        cpu.push16((cpu.programCounter - 1) & 0xFFFF);
+        cpu.programCounter = address;
+        return 0;
+    }
+
+    public static int lda(Processor cpu, int address) {
+        cpu.accumulator = cpu.read8(address);
+        cpu.updateZeroNegativeFlag(cpu.accumulator);
+        return 0;
+    }
+
+    public static int ldx(Processor cpu, int address) {
+        cpu.xIndex = cpu.read8(address);
+        cpu.updateZeroNegativeFlag(cpu.xIndex);
+        return 0;
+    }
+
+    public static int ldy(Processor cpu, int address) {
+        cpu.yIndex = cpu.read8(address);
+        cpu.updateZeroNegativeFlag(cpu.yIndex);
+        return 0;
+    }
+
+    public static int lsr(Processor cpu, int address) {
+        int value = address < 0 ? cpu.accumulator : cpu.read8(address);
+        cpu.carry = value << 8;
+        // shift right
+        value = value >>> 1;
+        if (address < 0) cpu.accumulator = value;
+        else cpu.write8(address, value);
+        cpu.updateZeroNegativeFlag(value);
+        return 0;
+    }
+
+    public static int nop(Processor cpu, int address) {
+        return 0;
+    }
+
+    public static int ora(Processor cpu, int address) {
+        cpu.accumulator |= cpu.read8(address);
+        cpu.updateZeroNegativeFlag(cpu.accumulator);
+        return 0;
+    }
+
+    public static int pha(Processor cpu, int address) {
+        cpu.push8(cpu.accumulator);
+        return 0;
+    }
+
+    public static int php(Processor cpu, int address) {
+        // special: always set B<4>=1 and B2<5>=1
+        cpu.push8(cpu.getStatus() | (1 << StatusFlag.BREAK_COMMAND) | (1 << StatusFlag.BREAK_CMD2));
+        return 0;
+    }
+
+    public static int pla(Processor cpu, int address) {
+        cpu.accumulator = cpu.pop8();
+        cpu.updateZeroNegativeFlag(cpu.accumulator);
+        return 0;
+    }
+
+    public static int plp(Processor cpu, int address) {
+        cpu.setStatus((cpu.pop8() & ~(1 << StatusFlag.BREAK_COMMAND)) | (1 << StatusFlag.BREAK_CMD2));
+        return 0;
+    }
+
+    public static int rol(Processor cpu, int address) {
+        int value = address < 0 ? cpu.accumulator : cpu.read8(address);
+        int result = ((value << 1) | ((cpu.carry >>> 8) & 1)) & 0xFF;
+        cpu.carry = value << 1;
+        if (address < 0) cpu.accumulator = result;
+        else cpu.write8(address, result);
+        cpu.updateZeroNegativeFlag(result);
+        return 0;
+    }
+
+    public static int ror(Processor cpu, int address) {
+        int value = address < 0 ? cpu.accumulator : cpu.read8(address);
+        int result = (value >>> 1) | ((cpu.carry >>> 1) & 0x80);
+        cpu.carry = value << 8;
+        if (address < 0) cpu.accumulator = result;
+        else cpu.write8(address, result);
+        cpu.updateZeroNegativeFlag(result);
+        return 0;
+    }
+
+    public static int rti(Processor cpu, int address) {
+        // status like PLP, then PC like RTS but without +1
+        cpu.setStatus((cpu.pop8() & ~(1 << StatusFlag.BREAK_COMMAND)) | (1 << StatusFlag.BREAK_CMD2));
+        cpu.programCounter = cpu.pop16();
+        return 0;
+    }
+
+    public static int rts(Processor cpu, int address) {
+        cpu.programCounter = (cpu.pop16() + 1) & 0xFFFF; // have to increase PC
+        return 0;
+    }
+
+    public static int sbc(Processor cpu, int address) {
+        // A - M - !C is A + ~M + C
+        add(cpu, cpu.read8(address) ^ 0xFF);
+        return 0;
+    }
+
+    public static int sec(Processor cpu, int address) {
+        cpu.carry = 0x100;
+        return 0;
+    }
+
+    public static int sed(Processor cpu, int address) {
+        cpu.setFlag(StatusFlag.DECIMAL_MODE);
+        return 0;
+    }
+
+    public static int sei(Processor cpu, int address) {
+        cpu.setFlag(StatusFlag.IRQ_DISABLE);
+        return 0;
+    }
+
+    public static int sta(Processor cpu, int address) {
+        cpu.write8(address, cpu.accumulator);
+        return 0;
+    }
+
+    public static int stx(Processor cpu, int address) {
+        cpu.write8(address, cpu.xIndex);
+        return 0;
+    }
+
+    public static int sty(Processor cpu, int address) {
+        cpu.write8(address, cpu.yIndex);
+        return 0;
+    }
+
+    public static int tax(Processor cpu, int address) {
+        cpu.xIndex = cpu.accumulator;
+        cpu.updateZeroNegativeFlag(cpu.xIndex);
+        return 0;
+    }
+
+    public static int tay(Processor cpu, int address) {
+        cpu.yIndex = cpu.accumulator;
+        cpu.updateZeroNegativeFlag(cpu.yIndex);
+        return 0;
+    }
+
+    public static int tsx(Processor cpu, int address) {
+        cpu.xIndex = cpu.stackPointer;
+        cpu.updateZeroNegativeFlag(cpu.xIndex);
+        return 0;
+    }
+
+    public static int txa(Processor cpu, int address) {
+        cpu.accumulator = cpu.xIndex;
+        cpu.updateZeroNegativeFlag(cpu.accumulator);
+        return 0;
+    }
+
+    public static int txs(Processor cpu, int address) {
+        cpu.stackPointer = cpu.xIndex;
+        // no need to update flag
+        return 0;
+    }
+
+    public static int tya(Processor cpu, int address) {
+        cpu.accumulator = cpu.yIndex;
+        cpu.updateZeroNegativeFlag(cpu.accumulator);
+        return 0;
+    }
+}
@@ -1,9 +1,13 @@
 package io.famiemu.cpu;
 
-import io.famiemu.Disassembly;
+import io.famiemu.AddressReader;
+import io.famiemu.AddressWriter;
 import io.famiemu.Emulator;
+import io.famiemu.trace.TraceFormat;
+import io.famiemu.trace.TraceSink;
 
-import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.util.function.IntPredicate;
 
 public class Processor {
 
@@ -38,6 +42,11 @@ public class Processor {
 
     public static final int STACK_BASE = 0x100;
 
+    public static final int INTERRUPT_CYCLES = 7;
+
+    /** NTSC: 341 * 262 / 3 CPU cycles per frame */
+    public static final int CYCLES_PER_FRAME = 29781;
+
     /**
      * <h1>Processor Status Flags</h1>
      *
@@ -97,6 +106,15 @@ public class Processor {
 //        public static final int N = NEGATIVE;
     }
 
+    private static final int FLAG_C = 1 << StatusFlag.CARRY;
+    private static final int FLAG_Z = 1 << StatusFlag.ZERO;
+    private static final int FLAG_I = 1 << StatusFlag.IRQ_DISABLE;
+    private static final int FLAG_D = 1 << StatusFlag.DECIMAL_MODE;
+    private static final int FLAG_B = 1 << StatusFlag.BREAK_COMMAND;
+    private static final int FLAG_B2 = 1 << StatusFlag.BREAK_CMD2;
+    private static final int FLAG_V = 1 << StatusFlag.OVERFLOW;
+    private static final int FLAG_N = 1 << StatusFlag.NEGATIVE;
+
     /** 16-bit program counter */
     public int programCounter;
 
@@ -112,39 +130,65 @@ public class Processor {
     /** 8-bit index register Y */
     public int yIndex;
 
-    /** 8-bit processor status */
+    /**
+     * 8-bit processor status.
+     * CARRY, ZERO, OVERFLOW and NEGATIVE are not kept up to date here, they are evaluated lazily
+     * from {@link #carry}, {@link #zn} and {@link #overflow}. Use {@link #getStatus()}.
+     */
     private int status;
 
+    /**
+     * Last result for ZERO and NEGATIVE.
+     * Z is set if (zn &amp; 0xFF) == 0, N is set if (zn &amp; 0x180) != 0.
+     * An 8-bit result is stored as is. Bit 8 is only used when both Z and N are set, e.g. after PLP.
+     */
+    int zn;
+
+    /** CARRY is bit 8, e.g. the 9-bit result of an addition */
+    int carry;
+
+    /** OVERFLOW is bit 7 */
+    int overflow;
+
     public int cycle;
 
-    private Emulator emu;
-    private Disassembly dis;
+    /** cycles the last {@link #runFrame()} ran past its budget */
+    private int frameOvershoot;
+
+    private AddressReader reader;
+    private AddressWriter writer;
 
-    private final PrintStream out = System.out;
-    private final StringBuilder sb = new StringBuilder();
+    /** null when tracing is off, so the step loop only pays a null check */
+    private TraceSink trace;
 
     public Processor() {}
 
     public Processor(Emulator emu) {
-        this.emu = emu;
-        this.dis = new Disassembly(emu);
+        setEmulator(emu);
+    }
+
+    /**
+     * Headless processor working directly on a memory map, without the full {@link Emulator}.
+     */
+    public Processor(AddressReader reader, AddressWriter writer) {
+        this.reader = reader;
+        this.writer = writer;
     }
 
     public void clearStatus() {
-        status = 0;
+        setStatus(0);
     }
 
     public void setFlag(int flag) {
-        status |= (1 << flag);
+        setStatus(getStatus() | (1 << flag));
     }
 
     public void clearFlag(int flag) {
-//        processorStatus ^= (processorStatus & (1 << flag));
-        status &= ~(1 << flag);
+        setStatus(getStatus() & ~(1 << flag));
     }
 
     public int getFlag(int flag) {
-        return (status >>> flag) & 1;
+        return (getStatus() >>> flag) & 1;
     }
 
     public boolean testFlag(int flag) {
@@ -152,7 +196,7 @@ public class Processor {
     }
 
     public void flipFlag(int flag) {
-        status ^= (1 << flag);
+        setStatus(getStatus() ^ (1 << flag));
     }
 
     public void updateFlag(int flag, int value) {
@@ -174,39 +218,42 @@ public class Processor {
     }
 
     /**
-     * Set CARRY if bit 0 of value is set.
+     * Set ZERO and NEGATIVE from the low 8 bits of value.
      */
-    private void updateCarryFlag(int value) {
-        updateFlag(StatusFlag.CARRY, (value & 1) != 0);
+    void updateZeroNegativeFlag(int value) {
+        zn = value & 0xFF;
     }
 
     /**
-     * Set ZERO if value == 0.
+     * Lazy ZERO/NEGATIVE source for independent flags, e.g. BIT.
+     *
+     * @param zero Z is set if the low 8 bits are 0
+     * @param negative N is bit 7
      */
-    private void updateZeroFlag(int value) {
-        updateFlag(StatusFlag.ZERO, value == 0);
+    static int zn(int zero, int negative) {
+        // (zero & 0xFF) + 0xFF carries into bit 8 unless zero is 0
+        return (((zero & 0xFF) + 0xFF) >>> 8) | ((negative & 0x80) << 1);
     }
 
-    /**
-     * Set OVERFLOW if bit 6 of value is set.
-     */
-    private void updateOverflowFlag(int value) {
-        updateFlag(StatusFlag.OVERFLOW, (value & 0x40) != 0);
+    static boolean isZero(int zn) {
+        return (zn & 0xFF) == 0;
     }
 
-    /**
-     * Set NEGATIVE if bit 7 of value is set.
-     */
-    private void updateNegativeFlag(int value) {
-        updateFlag(StatusFlag.NEGATIVE, (value & 0x80) != 0);
+    static boolean isNegative(int zn) {
+        return (zn & 0x180) != 0;
     }
 
-    private void updateZeroNegativeFlag(int value) {
-        updateZeroFlag(value);
-        updateNegativeFlag(value);
+    /**
+     * Evaluate the lazy flags into a status byte.
+     */
+    static int status(int p, int zn, int carry, int overflow) {
+        return (p & ~(FLAG_C | FLAG_Z | FLAG_V | FLAG_N))
+                | ((carry >>> 8) & FLAG_C)
+                | (isZero(zn) ? FLAG_Z : 0)
+                | (isNegative(zn) ? FLAG_N : 0)
+                | ((overflow & 0x80) >>> 1);
     }
 
-
     public String getStatusString() {
         StringBuilder s = new StringBuilder();
         for (int i=7; i>=0; i--) {
@@ -215,12 +262,40 @@ public class Processor {
         return s.toString();
     }
 
+    public int getStatus() {
+        return status(status, zn, carry, overflow);
+    }
+
+    public void setStatus(int status) {
+        this.status = status & 0xFF;
+        this.carry = (status & FLAG_C) << 8;
+        this.zn = zn(~status & FLAG_Z, status);
+        this.overflow = (status & FLAG_V) << 1;
+    }
+
     public void setEmulator(Emulator emu) {
-        this.emu = emu;
+        this.reader = emu;
+        this.writer = emu;
+    }
+
+    public AddressReader getReader() {
+        return reader;
+    }
+
+    public TraceSink getTraceSink() {
+        return trace;
+    }
+
+    /**
+     * Install a trace sink called before every instruction.
+     * Pass null or {@link TraceSink#NONE} to run without tracing.
+     */
+    public void setTraceSink(TraceSink sink) {
+        this.trace = sink == TraceSink.NONE ? null : sink;
     }
 
     public void reset() {
-        programCounter = emu.readU16(Interruption.RESET.vector());
+        programCounter = reader.readU16(Interruption.RESET.vector());
         accumulator = 0;
         xIndex = yIndex = 0;
         stackPointer = 0xFD; // 0xFF-2
@@ -232,271 +307,512 @@ public class Processor {
         setFlag(StatusFlag.IRQ_DISABLE);
 
         cycle = 0;
+        frameOvershoot = 0;
     }
 
-    public void singleStep() {
-        assert emu != null;
-
-        sb.setLength(0);
-        dis.disassembly(sb, programCounter);
-        while (sb.length() < 40) sb.append(' ');
-        dump(sb);
-        System.out.println(sb.toString());
-
-        // get current OP code
-        final int code = emu.readU8(programCounter++);
-        final OP op = OP.lookup(code);
-        if (op == null) {
-            sb.append(" Unsupported code=").append(code).append(" ");
-            throw new IllegalStateException(sb.toString());
-        }
+    /** bytes written by {@link #saveState(ByteBuffer)} */
+    public static final int STATE_SIZE = 2 + 1 + 1 + 1 + 1 + 1 + 4 + 4;
 
-        // load operand
-        final AddressingMode mode = op.Mode();
-        final int address = readTargetAddress(mode);
+    /**
+     * Write PC, SP, A, X, Y, status and cycle counters.
+     */
+    public void saveState(ByteBuffer buf) {
+        buf.putShort((short) programCounter);
+        buf.put((byte) stackPointer);
+        buf.put((byte) accumulator);
+        buf.put((byte) xIndex);
+        buf.put((byte) yIndex);
+        buf.put((byte) getStatus());
+        buf.putInt(cycle);
+        buf.putInt(frameOvershoot);
+    }
 
-        //
-        final Instruction inst = op.Inst();
-        switch (inst) {
-            case ADC: // TODO
+    public void loadState(ByteBuffer buf) {
+        programCounter = buf.getShort() & 0xFFFF;
+        stackPointer = buf.get() & 0xFF;
+        accumulator = buf.get() & 0xFF;
+        xIndex = buf.get() & 0xFF;
+        yIndex = buf.get() & 0xFF;
+        setStatus(buf.get() & 0xFF);
+        cycle = buf.getInt();
+        frameOvershoot = buf.getInt();
+    }
+
+    /**
+     * Service an interrupt between instructions:
+     * push PC and status, disable IRQ and jump through the vector.
+     * IRQ is ignored while IRQ_DISABLE is set. RESET does a {@link #reset()}.
+     *
+     * @return cycles used
+     */
+    public int interrupt(Interruption interruption) {
+        switch (interruption) {
+            case RESET:
+                reset();
+                return 0;
+            case IRQ_BRK:
+                if ((status & FLAG_I) != 0)
+                    return 0;
                 break;
-            case AND:
-                accumulator &= emu.readU8(address);
-                updateZeroFlag(accumulator);
-                updateNegativeFlag(accumulator);
+            default:
                 break;
-            case ASL: // TODO
+        }
+
+        push16(programCounter);
+        // B clear: caused by an external interrupt
+        push8((getStatus() & ~FLAG_B) | FLAG_B2);
+        status |= FLAG_I;
+        programCounter = read16(interruption.vector());
+
+        cycle += INTERRUPT_CYCLES;
+        return INTERRUPT_CYCLES;
+    }
+
+    /**
+     * Execute a single instruction.
+     */
+    public void singleStep() {
+        execute(Integer.MAX_VALUE, 1, null);
+    }
+
+    /**
+     * Execute instructions until at least cycleBudget cycles are consumed.
+     * The last instruction may overshoot the budget.
+     *
+     * @return cycles actually used
+     */
+    public int run(int cycleBudget) {
+        return execute(cycleBudget, Integer.MAX_VALUE, null);
+    }
+
+    /**
+     * Like {@link #run(int)}, but also stops before executing the instruction at a PC accepted by stop.
+     *
+     * @return cycles actually used
+     */
+    public int runUntil(IntPredicate stop, int cycleBudget) {
+        return execute(cycleBudget, Integer.MAX_VALUE, stop);
+    }
+
+    /**
+     * Run one NTSC frame worth of cycles.
+     * The overshoot of the last instruction is taken from the next frame, so frames don't drift.
+     *
+     * @return cycles actually used
+     */
+    public int runFrame() {
+        final int budget = CYCLES_PER_FRAME - frameOvershoot;
+        final int used = run(budget);
+        frameOvershoot = used - budget;
+        return used;
+    }
+
+    /**
+     * The interpreter loop.
+     * Registers are kept in locals for the whole batch, and only written back to fields
+     * when a trace sink needs them, on error, and at the end.
+     */
+    private int execute(final int cycleBudget, int instructions, final IntPredicate stop) {
+        assert reader != null;
+
+        final AddressReader mem = this.reader;
+        final AddressWriter out = this.writer;
+        final TraceSink sink = this.trace;
+
+        int pc = programCounter;
+        int a = accumulator;
+        int x = xIndex;
+        int y = yIndex;
+        int sp = stackPointer;
+        int p = status;
+        int zn = this.zn;
+        int c = this.carry;
+        int v = this.overflow;
+
+        final int start = cycle;
+        int used = 0;
+
+        while (used < cycleBudget && instructions-- > 0) {
+            if (stop != null && stop.test(pc))
                 break;
-            case BCC:
-                if (!testFlag(StatusFlag.CARRY)) {
-                    programCounter = address;
-                    cycle += 1; // branch succeeds
+
+            if (sink != null) {
+                store(pc, a, x, y, sp, p, zn, c, v, start + used);
+                sink.trace(this);
+            }
+
+            // get current OP code
+            final int code = mem.readU8(pc);
+            final OP op = OP.lookup(code);
+            if (op == null) {
+                store(pc, a, x, y, sp, p, zn, c, v, start + used);
+                throw new IllegalStateException("Unsupported code=" + code + " at PC=" + pc);
+            }
+
+            // load operand
+            final AddressingMode mode = op.Mode();
+            final int target = readTargetAddress(mode, pc + 1, x, y);
+            final int address = target & 0xFFFF;
+            // 1 if an indexed address or a branch crosses a page
+            final int crossed = target >>> 16;
+            pc = (pc + op.Bytes()) & 0xFFFF;
+
+            //
+            final Instruction inst = op.Inst();
+            switch (inst) {
+                case ADC: { // Add with Carry
+                    // binary only, the 2A03 has no decimal mode even with D set
+                    int value = mem.readU8(address);
+                    int sum = a + value + ((c >>> 8) & 1);
+                    // overflow if both inputs have the same sign and the result another
+                    v = ~(a ^ value) & (a ^ sum);
+                    c = sum;
+                    a = sum & 0xFF;
+                    zn = a;
+                    break;
                 }
-                break;
-            case BCS:
-                if (testFlag(StatusFlag.CARRY)) {
-                    programCounter = address;
-                    cycle += 1; // branch succeeds
+                case AND:
+                    a &= mem.readU8(address);
+                    zn = a;
+                    break;
+                case ASL: { // Arithmetic Shift Left
+                    final boolean inA = mode == AddressingMode.Accumulator;
+                    int value = inA ? a : mem.readU8(address);
+                    // bit 7 goes to carry
+                    c = value << 1;
+                    value = (value << 1) & 0xFF;
+                    if (inA) a = value;
+                    else out.writeByte(address, (byte) value);
+                    zn = value;
+                    break;
                 }
-                break;
-            case BEQ:
-                if (testFlag(StatusFlag.ZERO)) {
-                    programCounter = address;
-                    cycle += 1;
+                case BCC:
+                    if ((c & 0x100) == 0) {
+                        pc = address;
+                        used += 1 + crossed; // branch succeeds, +1 more to another page
+                    }
+                    break;
+                case BCS:
+                    if ((c & 0x100) != 0) {
+                        pc = address;
+                        used += 1 + crossed; // branch succeeds, +1 more to another page
+                    }
+                    break;
+                case BEQ:
+                    if (isZero(zn)) {
+                        pc = address;
+                        used += 1 + crossed; // branch succeeds, +1 more to another page
+                    }
+                    break;
+                case BIT: { // Bit Test
+                    int value = mem.readU8(address);
+                    // memory value copied to N & V flags
+                    zn = zn(value & a, value);
+                    v = value << 1;
+                    break;
                 }
-                break;
-            case BIT: { // Bit Test
-                int value = emu.readU8(address);
-                // memory value copied to N & V flags
-                updateNegativeFlag(value);
-                updateOverflowFlag(value);
-                //
-                updateZeroFlag(value & accumulator);
-                break;
-            }
-            case BMI: // Branch if Minus
-                if (testFlag(StatusFlag.NEGATIVE)) {
-                    programCounter = address;
-                    cycle += 1; // branch succeeds
+                case BMI: // Branch if Minus
+                    if (isNegative(zn)) {
+                        pc = address;
+                        used += 1 + crossed; // branch succeeds, +1 more to another page
+                    }
+                    break;
+                case BNE:
+                    if (!isZero(zn)) {
+                        pc = address;
+                        used += 1 + crossed; // branch succeeds, +1 more to another page
+                    }
+                    break;
+                case BPL: // Branch if Positive
+                    if (!isNegative(zn)) {
+                        pc = address;
+                        used += 1 + crossed; // branch succeeds, +1 more to another page
+                    }
+                    break;
+                case BRK: { // Force Interrupt
+                    // the byte after BRK is skipped, return to PC + 2
+                    int pcRet = (pc + 1) & 0xFFFF;
+                    out.writeByte(STACK_BASE | sp, (byte) (pcRet >>> 8));
+                    sp = (sp - 1) & 0xFF;
+                    out.writeByte(STACK_BASE | sp, (byte) pcRet);
+                    sp = (sp - 1) & 0xFF;
+                    // B set: caused by BRK
+                    out.writeByte(STACK_BASE | sp, (byte) (status(p, zn, c, v) | FLAG_B | FLAG_B2));
+                    sp = (sp - 1) & 0xFF;
+                    p |= FLAG_I;
+                    pc = mem.readU16(INT_IRQBRK_VEC);
+                    break;
                 }
-                break;
-            case BNE:
-                if (!testFlag(StatusFlag.ZERO)) {
-                    programCounter = address;
-                    cycle += 1; // branch succeeds
+                case BVC: // Branch if Overflow Clear
+                    if ((v & 0x80) == 0) {
+                        pc = address;
+                        used += 1 + crossed; // branch succeeds, +1 more to another page
+                    }
+                    break;
+                case BVS: // Branch if Overflow Set
+                    if ((v & 0x80) != 0) {
+                        pc = address;
+                        used += 1 + crossed; // branch succeeds, +1 more to another page
+                    }
+                    break;
+                case CLC:
+                    c = 0;
+                    break;
+                case CLD:
+                    p &= ~FLAG_D;
+                    break;
+                case CLI:
+                    p &= ~FLAG_I;
+                    break;
+                case CLV:
+                    v = 0;
+                    break;
+                case CMP: {
+                    int value = mem.readU8(address);
+                    // bit 8 is set unless it borrows
+                    c = a - value + 0x100;
+                    zn = (a - value) & 0xFF;
+                    break;
                 }
-                break;
-            case BPL: // Branch if Positive
-                if (!testFlag(StatusFlag.NEGATIVE)) {
-                    programCounter = address;
-                    cycle += 1; // branch succeeds
+                case CPX: {
+                    int value = mem.readU8(address);
+                    c = x - value + 0x100;
+                    zn = (x - value) & 0xFF;
+                    break;
                 }
-                break;
-            case BRK:
-                // TODO
-                break;
-            case BVC: // Branch if Overflow Clear
-                if (!testFlag(StatusFlag.OVERFLOW)) {
-                    programCounter = address;
-                    cycle += 1; // branch succeeds
+                case CPY: {
+                    int value = mem.readU8(address);
+                    c = y - value + 0x100;
+                    zn = (y - value) & 0xFF;
+                    break;
                 }
-                break;
-            case BVS: // Branch if Overflow Set
-                if (testFlag(StatusFlag.OVERFLOW)) {
-                    programCounter = address;
-                    cycle += 1; // branch succeeds
+                case DEC: {
+                    int value = (mem.readU8(address) - 1) & 0xFF;
+                    out.writeByte(address, (byte) value);
+                    zn = value;
+                    break;
                 }
-                break;
-            case CLC:
-                clearFlag(StatusFlag.CARRY);
-                break;
-            case CLD:
-                clearFlag(StatusFlag.DECIMAL_MODE);
-                break;
-            case CLI:
-                clearFlag(StatusFlag.IRQ_DISABLE);
-                break;
-            case CLV:
-                clearFlag(StatusFlag.OVERFLOW);
-                break;
-            case CMP: {
-                int value = emu.readU8(address);
-                int diff = accumulator - value;
-                updateFlag(StatusFlag.CARRY, diff >= 0);
-                updateZeroNegativeFlag(diff);
-                break;
-            }
-            case CPX:
-                break;
-            case CPY:
-                break;
-            case DEC:
-                break;
-            case DEX:
-                xIndex--;
-                updateZeroNegativeFlag(xIndex);
-                break;
-            case DEY:
-                yIndex--;
-                updateZeroNegativeFlag(yIndex);
-                break;
-            case EOR:
-                break;
-            case INC:
-                break;
-            case INX:
-                xIndex++;
-                updateZeroNegativeFlag(xIndex);
-                break;
-            case INY:
-                yIndex++;
-                updateZeroNegativeFlag(yIndex);
-                break;
-            case JMP:
-                programCounter = address;
-                break;
-            case JSR:
-                execJSR(address);
-                break;
-            case LDA:
-                accumulator = emu.readU8(address);
-                updateZeroNegativeFlag(accumulator);
-                break;
-            case LDX:
-                xIndex = emu.readU8(address);
-                updateZeroNegativeFlag(xIndex);
-                break;
-            case LDY:
-                yIndex = emu.readU8(address);
-                updateZeroNegativeFlag(yIndex);
-                break;
-            case LSR: { // Logical Shift Right
-                int value = address < 0 ? accumulator : emu.readU8(address);
-                updateCarryFlag(value);
-                // shift right
-                value = value >>> 1;
-                if (address < 0) accumulator = value;
-                else emu.writeByte(address, (byte) value);
-                updateZeroNegativeFlag(value);
-                break;
+                case DEX:
+                    x = (x - 1) & 0xFF;
+                    zn = x;
+                    break;
+                case DEY:
+                    y = (y - 1) & 0xFF;
+                    zn = y;
+                    break;
+                case EOR:
+                    a ^= mem.readU8(address);
+                    zn = a;
+                    break;
+                case INC: {
+                    int value = (mem.readU8(address) + 1) & 0xFF;
+                    out.writeByte(address, (byte) value);
+                    zn = value;
+                    break;
+                }
+                case INX:
+                    x = (x + 1) & 0xFF;
+                    zn = x;
+                    break;
+                case INY:
+                    y = (y + 1) & 0xFF;
+                    zn = y;
+                    break;
+                case JMP:
+                    pc = address;
+                    break;
+                case JSR: {
+                    // push return point
+                    int pcRet = (pc - 1) & 0xFFFF;
+                    out.writeByte(STACK_BASE | sp, (byte) (pcRet >>> 8));
+                    sp = (sp - 1) & 0xFF;
+                    out.writeByte(STACK_BASE | sp, (byte) pcRet);
+                    sp = (sp - 1) & 0xFF;
+                    pc = address;
+                    break;
+                }
+                case LDA:
+                    a = mem.readU8(address);
+                    zn = a;
+                    break;
+                case LDX:
+                    x = mem.readU8(address);
+                    zn = x;
+                    break;
+                case LDY:
+                    y = mem.readU8(address);
+                    zn = y;
+                    break;
+                case LSR: { // Logical Shift Right
+                    final boolean inA = mode == AddressingMode.Accumulator;
+                    int value = inA ? a : mem.readU8(address);
+                    c = value << 8;
+                    // shift right
+                    value = value >>> 1;
+                    if (inA) a = value;
+                    else out.writeByte(address, (byte) value);
+                    zn = value;
+                    break;
+                }
+                case NOP:
+                    // nothing
+                    break;
+                case ORA:
+                    a |= mem.readU8(address);
+                    zn = a;
+                    break;
+                case PHA: // Push Accumulator
+                    out.writeByte(STACK_BASE | sp, (byte) a);
+                    sp = (sp - 1) & 0xFF;
+                    break;
+                case PHP: // Push Processor Status
+                    // special: always set B<4>=1 and B2<5>=1
+                    out.writeByte(STACK_BASE | sp, (byte) (status(p, zn, c, v) | FLAG_B | FLAG_B2));
+                    sp = (sp - 1) & 0xFF;
+                    break;
+                case PLA: // Pull Accumulator
+                    sp = (sp + 1) & 0xFF;
+                    a = mem.readU8(STACK_BASE | sp);
+                    zn = a;
+                    break;
+                case PLP: // Pull Processor Status
+                    sp = (sp + 1) & 0xFF;
+                    p = (mem.readU8(STACK_BASE | sp) & ~FLAG_B) | FLAG_B2;
+                    c = (p & FLAG_C) << 8;
+                    zn = zn(~p & FLAG_Z, p);
+                    v = (p & FLAG_V) << 1;
+                    break;
+                case ROL: { // Rotate Left
+                    final boolean inA = mode == AddressingMode.Accumulator;
+                    int value = inA ? a : mem.readU8(address);
+                    int result = ((value << 1) | ((c >>> 8) & 1)) & 0xFF;
+                    c = value << 1;
+                    if (inA) a = result;
+                    else out.writeByte(address, (byte) result);
+                    zn = result;
+                    break;
+                }
+                case ROR: { // Rotate Right
+                    final boolean inA = mode == AddressingMode.Accumulator;
+                    int value = inA ? a : mem.readU8(address);
+                    int result = (value >>> 1) | ((c >>> 1) & 0x80);
+                    c = value << 8;
+                    if (inA) a = result;
+                    else out.writeByte(address, (byte) result);
+                    zn = result;
+                    break;
+                }
+                case RTI: { // Return from Interrupt
+                    // status like PLP, then PC like RTS but without +1
+                    sp = (sp + 1) & 0xFF;
+                    p = (mem.readU8(STACK_BASE | sp) & ~FLAG_B) | FLAG_B2;
+                    c = (p & FLAG_C) << 8;
+                    zn = zn(~p & FLAG_Z, p);
+                    v = (p & FLAG_V) << 1;
+                    sp = (sp + 1) & 0xFF;
+                    int lo = mem.readU8(STACK_BASE | sp);
+                    sp = (sp + 1) & 0xFF;
+                    int hi = mem.readU8(STACK_BASE | sp);
+                    pc = lo | (hi << 8);
+                    break;
+                }
+                case RTS: { // Return from Subroutine
+                    sp = (sp + 1) & 0xFF;
+                    int lo = mem.readU8(STACK_BASE | sp);
+                    sp = (sp + 1) & 0xFF;
+                    int hi = mem.readU8(STACK_BASE | sp);
+                    pc = ((lo | (hi << 8)) + 1) & 0xFFFF; // have to increase PC
+                    break;
+                }
+                case SBC: { // Subtract with Carry
+                    // A - M - !C is A + ~M + C, binary only like ADC
+                    int value = mem.readU8(address) ^ 0xFF;
+                    int sum = a + value + ((c >>> 8) & 1);
+                    v = ~(a ^ value) & (a ^ sum);
+                    c = sum;
+                    a = sum & 0xFF;
+                    zn = a;
+                    break;
+                }
+                case SEC:
+                    c = 0x100;
+                    break;
+                case SED:
+                    p |= FLAG_D;
+                    break;
+                case SEI:
+                    p |= FLAG_I;
+                    break;
+                case STA:
+                    out.writeByte(address, (byte) a);
+                    break;
+                case STX:
+                    out.writeByte(address, (byte) x);
+                    break;
+                case STY:
+                    out.writeByte(address, (byte) y);
+                    break;
+                case TAX: // A -> X
+                    x = a;
+                    zn = x;
+                    break;
+                case TAY: // A -> Y
+                    y = a;
+                    zn = y;
+                    break;
+                case TSX: // SP -> X
+                    x = sp;
+                    zn = x;
+                    break;
+                case TXA: // X -> A
+                    a = x;
+                    zn = a;
+                    break;
+                case TXS: // X -> SP
+                    sp = x;
+                    // no need to update flag
+                    break;
+                case TYA: // Y -> A
+                    a = y;
+                    zn = a;
+                    break;
+                default:
+                    throw new IllegalStateException("Unexpected value: " + inst);
             }
-            case NOP:
-                // nothing
-                break;
-            case ORA:
-                // TODO
-                break;
-            case PHA: // Push Accumulator
-                push8(accumulator);
-                break;
-            case PHP: // Push Processor Status
-                // special: always set B<4>=1 and B2<5>=1
-                push8(status | (1 << StatusFlag.BREAK_COMMAND) | (1 << StatusFlag.BREAK_CMD2));
-                break;
-            case PLA: // Pull Accumulator
-                accumulator = pop8();
-                updateZeroNegativeFlag(accumulator);
-                break;
-            case PLP: // Pull Processor Status
-                status = pop8();
-                clearFlag(StatusFlag.BREAK_COMMAND);
-                setFlag(StatusFlag.BREAK_CMD2);
-                break;
-            case ROL:
-                break;
-            case ROR:
-                break;
-            case RTI:
-                break;
-            case RTS: // Return from Subroutine
-                programCounter = pop16();
-                programCounter++; // have to increase PC
-                break;
-            case SBC:
-                break;
-            case SEC:
-                setFlag(StatusFlag.CARRY);
-                break;
-            case SED:
-                setFlag(StatusFlag.DECIMAL_MODE);
-                break;
-            case SEI:
-                setFlag(StatusFlag.IRQ_DISABLE);
-                break;
-            case STA:
-                emu.writeByte(address, (byte) accumulator);
-                break;
-            case STX:
-                emu.writeByte(address, (byte) xIndex);
-                break;
-            case STY:
-                emu.writeByte(address, (byte) yIndex);
-                break;
-            case TAX: // A -> X
-                xIndex = accumulator;
-                updateZeroNegativeFlag(xIndex);
-                break;
-            case TAY: // A -> Y
-                yIndex = accumulator;
-                updateZeroNegativeFlag(yIndex);
-                break;
-            case TSX: // SP -> X
-                xIndex = stackPointer;
-                updateZeroNegativeFlag(xIndex);
-                break;
-            case TXA: // X -> A
-                accumulator = xIndex;
-                updateZeroNegativeFlag(accumulator);
-                break;
-            case TXS: // X -> SP
-                stackPointer = xIndex;
-                // no need to update flag
-                break;
-            case TYA: // Y -> A
-                accumulator = yIndex;
-                updateZeroNegativeFlag(accumulator);
-                break;
-            default:
-                throw new IllegalStateException("Unexpected value: " + inst);
-        }
-
-
-        // TODO cycle must consider page change
-        cycle += op.Cycles();
 
+            used += op.Cycles() + (crossed & op.PageCrossCycles());
+        }
 
+        store(pc, a, x, y, sp, p, zn, c, v, start + used);
+        return used;
     }
 
-    private void execJSR(int target) {
-        // push return point
-        int pcRet = programCounter - 1;
-        push16(pcRet);
-
-        programCounter = target;
+    private void store(int pc, int a, int x, int y, int sp, int p, int zn, int c, int v, int cycle) {
+        this.programCounter = pc;
+        this.accumulator = a;
+        this.xIndex = x;
+        this.yIndex = y;
+        this.stackPointer = sp;
+        this.status = p;
+        this.zn = zn;
+        this.carry = c;
+        this.overflow = v;
+        this.cycle = cycle;
     }
 
-    private int readTargetAddress(AddressingMode mode) {
-        int address = -1;
+    /**
+     * Effective address of the operand, 0 if the mode has no memory operand.
+     * <p></p>
+     * Bit 16 is set if the address crossed a page:
+     * for indexed modes when the index carries into the high byte,
+     * for {@link AddressingMode#Relative} when the target is in another page than the next instruction.
+     * It is computed without branching, the caller masks it with {@link OP#PageCrossCycles()}.
+     *
+     * @param pc address of the first operand byte
+     */
+    int readTargetAddress(AddressingMode mode, int pc, int x, int y) {
+        final AddressReader mem = this.reader;
+        int address = 0;
         switch (mode) {
             case Accumulator:
                 // no operand
@@ -506,41 +822,41 @@ public class Processor {
                 break;
             case Immediate:
                 // constant at current PC will be the immediate value
-                address = programCounter++;
+                address = pc;
                 break;
             case ZeroPage:
                 // 8-bit address
-                address = emu.readU8(programCounter++);
+                address = mem.readU8(pc);
                 break;
             case ZeroPageX:
-                address = emu.readU8(programCounter++);
-                address += xIndex;
+                address = mem.readU8(pc);
+                address += x;
                 address &= 0xFF;
                 break;
             case ZeroPageY:
-                address = emu.readU8(programCounter++);
-                address += yIndex;
+                address = mem.readU8(pc);
+                address += y;
                 address &= 0xFF;
                 break;
             case Absolute:
                 // 16-bit address
-                address = emu.readU16(programCounter);
-                programCounter += 2;
+                address = mem.readU16(pc);
                 break;
-            case AbsoluteX:
-                address = emu.readU16(programCounter);
-                programCounter += 2;
-                address += xIndex;
+            case AbsoluteX: {
+                int base = mem.readU16(pc);
+                address = (base + x) & 0xFFFF;
+                address |= ((base ^ address) & 0x100) << 8;
                 break;
-            case AbsoluteY:
-                address = emu.readU16(programCounter);
-                programCounter += 2;
-                address += yIndex;
+            }
+            case AbsoluteY: {
+                int base = mem.readU16(pc);
+                address = (base + y) & 0xFFFF;
+                address |= ((base ^ address) & 0x100) << 8;
                 break;
+            }
             case Indirect: {
                 // first read the 16-bit indirect address at PC
-                int tmp = emu.readU16(programCounter);
-                programCounter += 2;
+                int tmp = mem.readU16(pc);
                 // 6502 CPU bug: JMP ($xxFF)
                 // if indirect address begins at the last byte of page
                 // the high byte is taken from beginning of this page, not next page
@@ -548,29 +864,36 @@ public class Processor {
                 // should read $10FF and $1100
                 // actually read $10FF and $1000
                 int page = tmp & 0xFF00;
-                int lo = emu.readU8(tmp);
-                int hi = emu.readU8(page | ((tmp + 1) & 0x00FF));
+                int lo = mem.readU8(tmp);
+                int hi = mem.readU8(page | ((tmp + 1) & 0x00FF));
                 address = lo | (hi << 8);
                 break;
             }
             case IndirectX: {
-                int tmp = emu.readU8(programCounter++);
-                tmp += xIndex;
+                int tmp = mem.readU8(pc);
+                tmp += x;
                 // note address wraps in zero page
-                int lo = emu.readU8(tmp & 0xFF);
-                int hi = emu.readU8((tmp + 1) & 0xFF);
+                int lo = mem.readU8(tmp & 0xFF);
+                int hi = mem.readU8((tmp + 1) & 0xFF);
                 address = lo | (hi << 8);
                 break;
             }
             case IndirectY: {
-                int tmp = emu.readU8(programCounter++);
-                address = emu.readU16(tmp);
-                address += yIndex;
+                int tmp = mem.readU8(pc);
+                // pointer also wraps in zero page
+                int lo = mem.readU8(tmp);
+                int hi = mem.readU8((tmp + 1) & 0xFF);
+                int base = lo | (hi << 8);
+                address = (base + y) & 0xFFFF;
+                address |= ((base ^ address) & 0x100) << 8;
                 break;
             }
             case Relative: {
-                int offset = emu.readByte(programCounter++);
-                address = programCounter + offset;
+                int offset = mem.readByte(pc);
+                // relative to the next instruction
+                int next = pc + 1;
+                address = (next + offset) & 0xFFFF;
+                address |= ((next ^ address) & 0x100) << 8;
                 break;
             }
             default:
@@ -580,33 +903,42 @@ public class Processor {
         return address;
     }
 
-    private void push8(int b) {
-        emu.setMainRam(STACK_BASE + stackPointer, (byte)b);
-        stackPointer--;
+    int read8(int address) {
+        return reader.readU8(address);
+    }
+
+    int read16(int address) {
+        return reader.readU16(address);
+    }
+
+    void write8(int address, int value) {
+        writer.writeByte(address, (byte) value);
+    }
+
+    void push8(int b) {
+        writer.writeByte(STACK_BASE | stackPointer, (byte) b);
+        stackPointer = (stackPointer - 1) & 0xFF;
     }
 
-    private int pop8() {
-        byte b = emu.getMainRam(STACK_BASE + stackPointer + 1);
-        stackPointer++;
-        return Byte.toUnsignedInt(b);
+    int pop8() {
+        stackPointer = (stackPointer + 1) & 0xFF;
+        return reader.readU8(STACK_BASE | stackPointer);
     }
 
-    private void push16(int s) {
+    void push16(int s) {
         // hi byte
         push8(s >>> 8);
         // lo byte
         push8(s & 0xFF);
     }
 
-    private int pop16() {
+    int pop16() {
         int lo = pop8();
         int hi = pop8();
         return lo | (hi << 8);
     }
 
     public StringBuilder dump(StringBuilder sb) {
-        sb.append(String.format("A:%02X X:%02X Y:%02X P:%02X SP:%02X CYC:%d",
-                accumulator, xIndex, yIndex, status, stackPointer, cycle));
-        return sb;
+        return TraceFormat.formatRegisters(sb, accumulator, xIndex, yIndex, getStatus(), stackPointer, cycle);
     }
 }
@@ -0,0 +1,58 @@
+package io.famiemu.diff;
+
+/**
+ * First difference found between a reference and a candidate run.
+ */
+public class Divergence {
+
+    private final long position;
+    private final String field;
+    private final String expected;
+    private final String actual;
+    private final String context;
+
+    /**
+     * @param position record index of a trace, or CPU cycle of a lock-step run
+     * @param context  what the reference did just before, may be empty
+     */
+    public Divergence(long position, String field, String expected, String actual, String context) {
+        this.position = position;
+        this.field = field;
+        this.expected = expected;
+        this.actual = actual;
+        this.context = context;
+    }
+
+    public long getPosition() {
+        return position;
+    }
+
+    /**
+     * @return what differs, e.g. "PC", "P", "cycle" or "write"
+     */
+    public String getField() {
+        return field;
+    }
+
+    public String getExpected() {
+        return expected;
+    }
+
+    public String getActual() {
+        return actual;
+    }
+
+    public String getContext() {
+        return context;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        sb.append("diverged at ").append(position).append(": ").append(field)
+                .append(" expected ").append(expected).append(" actual ").append(actual);
+        if (!context.isEmpty())
+            sb.append('\n').append(context);
+        return sb.toString();
+    }
+}
@@ -0,0 +1,169 @@
+package io.famiemu.diff;
+
+import io.famiemu.Machine;
+import io.famiemu.Scheduler;
+import io.famiemu.cpu.Processor;
+import io.famiemu.memory.IoHandler;
+import io.famiemu.memory.MemoryBus;
+import io.famiemu.trace.RingBufferTraceSink;
+
+import java.util.Arrays;
+
+/**
+ * Runs a reference and a candidate {@link Machine} side by side on the same ROM
+ * and stops at the first slice where they differ.
+ * <p></p>
+ * The reference executes with {@link Processor#singleStep()}, the candidate with whatever core it was set up with
+ * ({@link io.famiemu.cpu.BlockCache}, JIT, ...). After every slice of CPU cycles the registers, flags, cycle counter
+ * and the memory writes made during the slice, in order, must be the same.
+ * A slice of 1 cycle compares after every instruction, but the block cores only run whole blocks
+ * when the slice leaves room for them, so use a slice of a few hundred cycles to cover those.
+ * <p></p>
+ * Writes are seen by trapping every array mapped page and wrapping the handler of every other page of both buses.
+ */
+public class LockStepDiff {
+
+    private static final int HISTORY = 16;
+
+    private final Machine reference;
+    private final Machine candidate;
+    private final WriteLog referenceWrites;
+    private final WriteLog candidateWrites;
+    private final RingBufferTraceSink history = new RingBufferTraceSink(HISTORY);
+
+    /**
+     * Both machines should be freshly built on the same ROM, they are reset here.
+     */
+    public LockStepDiff(Machine reference, Machine candidate) {
+        this.reference = reference;
+        this.candidate = candidate;
+
+        final Processor cpu = reference.getCpu();
+        reference.getScheduler().setCore(budget -> {
+            final int start = cpu.cycle;
+            while (cpu.cycle - start < budget) {
+                cpu.singleStep();
+            }
+            return cpu.cycle - start;
+        });
+        // only on the reference, a trace sink turns off the compiled blocks
+        cpu.setTraceSink(history);
+
+        referenceWrites = new WriteLog(reference.getBus());
+        candidateWrites = new WriteLog(candidate.getBus());
+
+        reference.reset();
+        candidate.reset();
+    }
+
+    /**
+     * @param cycles CPU cycles to run
+     * @param slice  CPU cycles between comparisons
+     * @return the first difference, null if none
+     */
+    public Divergence run(long cycles, int slice) {
+        final Scheduler refClock = reference.getScheduler();
+        final Scheduler candClock = candidate.getScheduler();
+        final long end = refClock.now() + cycles * Scheduler.CPU_DIVIDER;
+
+        while (refClock.now() < end) {
+            final long target = Math.min(end, refClock.now() + (long) slice * Scheduler.CPU_DIVIDER);
+            referenceWrites.clear();
+            candidateWrites.clear();
+            refClock.runUntil(target);
+            candClock.runUntil(target);
+
+            final Divergence d = compare();
+            if (d != null)
+                return d;
+        }
+        return null;
+    }
+
+    private Divergence compare() {
+        final Processor e = reference.getCpu();
+        final Processor a = candidate.getCpu();
+        Divergence d;
+        if ((d = compare("PC", e.programCounter, a.programCounter)) != null) return d;
+        if ((d = compare("A", e.accumulator, a.accumulator)) != null) return d;
+        if ((d = compare("X", e.xIndex, a.xIndex)) != null) return d;
+        if ((d = compare("Y", e.yIndex, a.yIndex)) != null) return d;
+        if ((d = compare("P", e.getStatus(), a.getStatus())) != null) return d;
+        if ((d = compare("SP", e.stackPointer, a.stackPointer)) != null) return d;
+        if (e.cycle != a.cycle)
+            return divergence("cycle", Integer.toString(e.cycle), Integer.toString(a.cycle));
+
+        final int n = Math.min(referenceWrites.size, candidateWrites.size);
+        for (int i = 0; i < n; i++) {
+            if (referenceWrites.log[i] != candidateWrites.log[i])
+                return divergence("write #" + i, WriteLog.format(referenceWrites.log[i]), WriteLog.format(candidateWrites.log[i]));
+        }
+        if (referenceWrites.size != candidateWrites.size)
+            return divergence("writes", referenceWrites.size + " writes", candidateWrites.size + " writes");
+        return null;
+    }
+
+    private Divergence compare(String field, int expected, int actual) {
+        if (expected == actual)
+            return null;
+        return divergence(field, "$" + Integer.toHexString(expected).toUpperCase(), "$" + Integer.toHexString(actual).toUpperCase());
+    }
+
+    private Divergence divergence(String field, String expected, String actual) {
+        final StringBuilder sb = new StringBuilder("reference, last instructions:\n");
+        history.dump(sb);
+        sb.setLength(sb.length() - 1);
+        return new Divergence(reference.getCpu().cycle, field, expected, actual, sb.toString());
+    }
+
+    /**
+     * Memory writes of one bus in order, as address | value &lt;&lt; 16.
+     */
+    private static final class WriteLog implements MemoryBus.WriteListener {
+        int[] log = new int[256];
+        int size;
+
+        WriteLog(MemoryBus bus) {
+            bus.addWriteListener(this);
+            for (int page = 0; page < MemoryBus.PAGES; page++) {
+                if (bus.isWriteMapped(page)) {
+                    bus.trapWrites(page);
+                } else {
+                    // writes to ROM go to the handler too, keep the reads mapped
+                    final byte[] data = bus.getReadArray(page);
+                    final int base = bus.getReadBase(page);
+                    final IoHandler handler = bus.getHandler(page);
+                    bus.setHandler(page << 8, MemoryBus.PAGE_SIZE, new IoHandler() {
+                        @Override
+                        public byte read(int address) {
+                            return handler.read(address);
+                        }
+
+                        @Override
+                        public void write(int address, byte value) {
+                            written(address, value);
+                            handler.write(address, value);
+                        }
+                    });
+                    if (data != null)
+                        bus.mapRead(page, data, base);
+                }
+            }
+        }
+
+        @Override
+        public void written(int address, byte value) {
+            if (size == log.length)
+                log = Arrays.copyOf(log, size * 2);
+            log[size++] = (address & 0xFFFF) | (value & 0xFF) << 16;
+        }
+
+        void clear() {
+            size = 0;
+        }
+
+        static String format(int entry) {
+            return String.format("$%02X to $%04X", entry >>> 16, entry & 0xFFFF);
+        }
+    }
+}
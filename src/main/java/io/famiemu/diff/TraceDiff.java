@@ -0,0 +1,85 @@
+package io.famiemu.diff;
+
+import io.famiemu.trace.BinaryTraceReader;
+
+import java.io.IOException;
+import java.nio.file.Paths;
+
+/**
+ * Compares two {@link io.famiemu.trace.BinaryTraceSink} recordings record by record,
+ * e.g. of the reference core and an optimized one running the same ROM.
+ * Both are streamed, so traces of any size are compared in constant memory.
+ *
+ * <pre>TraceDiff expected.bin actual.bin</pre>
+ * Exits with 1 and prints the divergence if they differ.
+ */
+public class TraceDiff {
+
+    private static final String[] FIELDS = {"PC", "opcode", "A", "X", "Y", "P", "SP", "cycle"};
+
+    /**
+     * @return the first differing record, null if both traces are the same
+     */
+    public static Divergence compare(BinaryTraceReader expected, BinaryTraceReader actual) throws IOException {
+        final StringBuilder sb = new StringBuilder(80);
+        while (true) {
+            final boolean e = expected.next();
+            final boolean a = actual.next();
+            if (!e || !a) {
+                if (e == a)
+                    return null;
+                return new Divergence(e ? expected.index() : actual.index(), "length",
+                        e ? "more records" : "end", a ? "more records" : "end", "");
+            }
+
+            for (int f = 0; f < FIELDS.length; f++) {
+                final int x = field(expected, f);
+                final int y = field(actual, f);
+                if (x != y) {
+                    sb.setLength(0);
+                    expected.formatLine(sb.append("expected ")).append('\n');
+                    actual.formatLine(sb.append("actual   "));
+                    return new Divergence(expected.index(), FIELDS[f], format(f, x), format(f, y), sb.toString());
+                }
+            }
+        }
+    }
+
+    private static int field(BinaryTraceReader r, int f) {
+        switch (f) {
+            case 0: return r.pc();
+            case 1: return r.opcode();
+            case 2: return r.a();
+            case 3: return r.x();
+            case 4: return r.y();
+            case 5: return r.p();
+            case 6: return r.sp();
+            case 7: return r.cycle();
+            default:
+                throw new IllegalStateException("Unexpected value: " + f);
+        }
+    }
+
+    private static String format(int f, int value) {
+        if (FIELDS[f].equals("cycle"))
+            return Integer.toString(value);
+        return "$" + Integer.toHexString(value).toUpperCase();
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length != 2) {
+            System.err.println("usage: TraceDiff expected.bin actual.bin");
+            System.exit(2);
+        }
+
+        try (BinaryTraceReader expected = BinaryTraceReader.open(Paths.get(args[0]));
+             BinaryTraceReader actual = BinaryTraceReader.open(Paths.get(args[1]))) {
+            Divergence d = compare(expected, actual);
+            if (d != null) {
+                System.out.println(d);
+                System.exit(1);
+            }
+            System.out.println("same, " + (expected.index() + 1) + " records");
+        }
+    }
+}
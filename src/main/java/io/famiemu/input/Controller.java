@@ -0,0 +1,58 @@
+package io.famiemu.input;
+
+/**
+ * Standard joypad: an 8-bit shift register read one button per read of $4016/$4017.
+ * <p></p>
+ * While the strobe (bit 0 of a $4016 write) is high the buttons are reloaded continuously,
+ * and reads keep returning A. After the 8 buttons, reads return 1.
+ */
+public class Controller {
+
+    public static final int A = 1;
+    public static final int B = 1 << 1;
+    public static final int SELECT = 1 << 2;
+    public static final int START = 1 << 3;
+    public static final int UP = 1 << 4;
+    public static final int DOWN = 1 << 5;
+    public static final int LEFT = 1 << 6;
+    public static final int RIGHT = 1 << 7;
+
+    /** buttons held, A in bit 0 */
+    private int buttons;
+    private boolean strobe;
+    private int shift;
+
+    public int getButtons() {
+        return buttons;
+    }
+
+    public void setButtons(int buttons) {
+        this.buttons = buttons & 0xFF;
+        if (strobe)
+            shift = this.buttons;
+    }
+
+    public void strobe(boolean high) {
+        strobe = high;
+        if (high)
+            shift = buttons;
+    }
+
+    /**
+     * @return next button in bit 0
+     */
+    public int read() {
+        if (strobe)
+            return buttons & 1;
+        final int bit = shift & 1;
+        // ones shift in after the last button
+        shift = (shift >>> 1) | 0x80;
+        return bit;
+    }
+
+    public void copyFrom(Controller other) {
+        buttons = other.buttons;
+        strobe = other.strobe;
+        shift = other.shift;
+    }
+}
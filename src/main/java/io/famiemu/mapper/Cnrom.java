@@ -0,0 +1,49 @@
+package io.famiemu.mapper;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Mapper 3: 8K CHR bank selected by any write to $8000-$FFFF, PRG like NROM.
+ * Bus conflicts are not emulated.
+ */
+public class Cnrom extends Mapper {
+
+    public static final int NUMBER = 3;
+
+    private static final int BANK_SIZE = 0x2000;
+
+    private int bank;
+
+    @Override
+    public int getNumber() {
+        return NUMBER;
+    }
+
+    @Override
+    public void reset() {
+        bank = 0;
+        remap();
+    }
+
+    @Override
+    protected void remap() {
+        bus.mapPrgRom(prg);
+        mapChr(0, BANK_SIZE, bank);
+    }
+
+    @Override
+    public void write(int address, byte value) {
+        bank = value & 0xFF;
+        mapChr(0, BANK_SIZE, bank);
+    }
+
+    @Override
+    protected void saveRegisters(ByteBuffer buf) {
+        buf.put((byte) bank);
+    }
+
+    @Override
+    protected void loadRegisters(ByteBuffer buf) {
+        bank = buf.get() & 0xFF;
+    }
+}
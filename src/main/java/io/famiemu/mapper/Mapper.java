@@ -0,0 +1,171 @@
+package io.famiemu.mapper;
+
+import io.famiemu.Scheduler;
+import io.famiemu.memory.IoHandler;
+import io.famiemu.memory.MemoryBus;
+import io.famiemu.ppu.PictureProcessor;
+import io.famiemu.ppu.TileCache;
+import io.famiemu.rom.RomImage;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Cartridge board: bank registers written at $8000-$FFFF.
+ * <p></p>
+ * A bank switch only points entries of the page tables at another part of the shared ROM,
+ * {@link MemoryBus#map} for PRG and {@link PictureProcessor#mapChr} for CHR, so it costs the same
+ * whatever the bank size and nothing is ever copied. Reads of PRG never reach the mapper,
+ * writes to the read-only PRG pages do.
+ * <p></p>
+ * Subclasses keep their registers, {@link #remap()} maps the banks they select.
+ *
+ * <pre>
+ * 0  NROM
+ * 1  MMC1 (SxROM)
+ * 2  UxROM
+ * 3  CNROM
+ * 4  MMC3 (TxROM)
+ * </pre>
+ */
+public abstract class Mapper implements IoHandler {
+
+    public static final int PRG_START = 0x8000;
+    public static final int PRG_SIZE = 0x8000;
+
+    protected MemoryBus bus;
+    protected PictureProcessor ppu;
+    protected Scheduler scheduler;
+    /** PRG-ROM, shared, never written */
+    protected byte[] prg;
+    /** CHR-ROM, null with CHR-RAM */
+    protected TileCache chr;
+    /** mirroring soldered on the board */
+    protected RomImage.Mirroring mirroring;
+
+    /**
+     * @param number iNES mapper number, see {@link RomImage#getMapper()}
+     * @throws IllegalArgumentException if the mapper is not supported
+     */
+    public static Mapper create(int number) {
+        switch (number) {
+            case Nrom.NUMBER: return new Nrom();
+            case Mmc1.NUMBER: return new Mmc1();
+            case Uxrom.NUMBER: return new Uxrom();
+            case Cnrom.NUMBER: return new Cnrom();
+            case Mmc3.NUMBER: return new Mmc3();
+            default: throw new IllegalArgumentException("Unsupported mapper " + number);
+        }
+    }
+
+    /**
+     * @return iNES mapper number
+     */
+    public abstract int getNumber();
+
+    /**
+     * Take over $8000-$FFFF of the bus and the pattern tables and nametables of the PPU,
+     * then {@link #reset()}.
+     *
+     * @param chr CHR-ROM, or null to leave the CHR-RAM of the PPU mapped
+     */
+    public void attach(MemoryBus bus, PictureProcessor ppu, Scheduler scheduler,
+                       byte[] prg, TileCache chr, RomImage.Mirroring mirroring) {
+        this.bus = bus;
+        this.ppu = ppu;
+        this.scheduler = scheduler;
+        this.prg = prg;
+        this.chr = chr;
+        this.mirroring = mirroring;
+        bus.setHandler(PRG_START, PRG_SIZE, this);
+        if (chr != null)
+            ppu.mapChrRom(chr);
+        ppu.setMirroring(mirroring);
+        reset();
+    }
+
+    /**
+     * Power-on registers and banks.
+     */
+    public abstract void reset();
+
+    /**
+     * Map the banks selected by the registers.
+     */
+    protected abstract void remap();
+
+    @Override
+    public byte read(int address) {
+        return OPEN_BUS.read(address);
+    }
+
+    /**
+     * Map PRG bank of size bytes at address, wrapping bank numbers past the end of the ROM.
+     * A ROM smaller than the bank, e.g. 16K in a 32K mode, is mirrored across it.
+     */
+    protected void mapPrg(int address, int size, int bank) {
+        if (size > prg.length) {
+            for (int n = 0; n < size; n += prg.length) {
+                bus.map(address + n, prg.length, prg, 0, false);
+            }
+            return;
+        }
+        final int banks = prg.length / size;
+        bus.map(address, size, prg, Math.floorMod(bank, banks) * size, false);
+    }
+
+    /**
+     * @return number of PRG banks of size bytes
+     */
+    protected int prgBanks(int size) {
+        return prg.length / size;
+    }
+
+    /**
+     * Map CHR bank of size bytes at PPU address, nothing with CHR-RAM.
+     */
+    protected void mapChr(int address, int size, int bank) {
+        if (chr == null)
+            return;
+        final int banks = chr.getChr().length / size;
+        ppu.mapChr(address, size, chr, Math.floorMod(bank, banks) * size);
+    }
+
+    /**
+     * Nametables all on the first (0) or second (1) page of VRAM.
+     */
+    protected void setSingleScreen(int page) {
+        ppu.setNametables(page, page, page, page);
+    }
+
+    /** bytes written by {@link #saveState(ByteBuffer)}, whatever the mapper */
+    public static final int STATE_SIZE = 32;
+
+    /**
+     * Write the registers, padded to {@link #STATE_SIZE}.
+     */
+    public final void saveState(ByteBuffer buf) {
+        final int end = buf.position() + STATE_SIZE;
+        saveRegisters(buf);
+        while (buf.position() < end) {
+            buf.put((byte) 0);
+        }
+    }
+
+    /**
+     * Restore the registers and map their banks.
+     * Reschedules events relative to the scheduler and the PPU, so load after both.
+     */
+    public final void loadState(ByteBuffer buf) {
+        final int end = buf.position() + STATE_SIZE;
+        loadRegisters(buf);
+        buf.position(end);
+        remap();
+    }
+
+    /**
+     * At most {@link #STATE_SIZE} bytes.
+     */
+    protected abstract void saveRegisters(ByteBuffer buf);
+
+    protected abstract void loadRegisters(ByteBuffer buf);
+}
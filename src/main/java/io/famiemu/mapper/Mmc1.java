@@ -0,0 +1,123 @@
+package io.famiemu.mapper;
+
+import io.famiemu.rom.RomImage;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Mapper 1: registers loaded one bit per write through a 5-bit shift register.
+ * <p></p>
+ * A write with bit 7 set clears the shift register and selects the 16K mode with the last bank fixed at $C000.
+ * On the fifth write, bits 13-14 of its address pick the register.
+ * Writes on consecutive cycles are not ignored, and the PRG-RAM enable and 512K boards are not emulated.
+ *
+ * <pre>
+ * $8000  control: CPPMM, CHR mode (0: 8K, 1: 2 x 4K), PRG mode, mirroring
+ * $A000  CHR bank at $0000
+ * $C000  CHR bank at $1000
+ * $E000  PRG bank
+ * </pre>
+ * PRG modes: 0-1 32K at $8000, 2 first bank at $8000 and switch $C000, 3 switch $8000 and last bank at $C000.
+ */
+public class Mmc1 extends Mapper {
+
+    public static final int NUMBER = 1;
+
+    private static final int PRG_BANK = 0x4000;
+    private static final int CHR_BANK = 0x1000;
+
+    private int shift;
+    private int shiftCount;
+    private int control;
+    private int chr0;
+    private int chr1;
+    private int prgBank;
+
+    @Override
+    public int getNumber() {
+        return NUMBER;
+    }
+
+    @Override
+    public void reset() {
+        shift = shiftCount = 0;
+        control = 0x0C;
+        chr0 = chr1 = prgBank = 0;
+        remap();
+    }
+
+    @Override
+    public void write(int address, byte value) {
+        if ((value & 0x80) != 0) {
+            shift = shiftCount = 0;
+            control |= 0x0C;
+            remap();
+            return;
+        }
+
+        shift |= (value & 1) << shiftCount;
+        if (++shiftCount < 5)
+            return;
+
+        switch ((address >>> 13) & 3) {
+            case 0: control = shift; break;
+            case 1: chr0 = shift; break;
+            case 2: chr1 = shift; break;
+            default: prgBank = shift & 0x0F; break;
+        }
+        shift = shiftCount = 0;
+        remap();
+    }
+
+    @Override
+    protected void remap() {
+        switch (control & 3) {
+            case 0: setSingleScreen(0); break;
+            case 1: setSingleScreen(1); break;
+            case 2: ppu.setMirroring(RomImage.Mirroring.VERTICAL); break;
+            default: ppu.setMirroring(RomImage.Mirroring.HORIZONTAL); break;
+        }
+
+        switch ((control >>> 2) & 3) {
+            case 0:
+            case 1:
+                mapPrg(0x8000, 2 * PRG_BANK, prgBank >>> 1);
+                break;
+            case 2:
+                mapPrg(0x8000, PRG_BANK, 0);
+                mapPrg(0xC000, PRG_BANK, prgBank);
+                break;
+            default:
+                mapPrg(0x8000, PRG_BANK, prgBank);
+                mapPrg(0xC000, PRG_BANK, prgBanks(PRG_BANK) - 1);
+                break;
+        }
+
+        if ((control & 0x10) == 0) {
+            mapChr(0, 2 * CHR_BANK, chr0 >>> 1);
+        } else {
+            mapChr(0, CHR_BANK, chr0);
+            mapChr(0x1000, CHR_BANK, chr1);
+        }
+    }
+
+    @Override
+    protected void saveRegisters(ByteBuffer buf) {
+        buf.put((byte) shift);
+        buf.put((byte) shiftCount);
+        buf.put((byte) control);
+        buf.put((byte) chr0);
+        buf.put((byte) chr1);
+        buf.put((byte) prgBank);
+    }
+
+    @Override
+    protected void loadRegisters(ByteBuffer buf) {
+        shift = buf.get() & 0x1F;
+        shiftCount = buf.get() & 7;
+        control = buf.get() & 0x1F;
+        chr0 = buf.get() & 0x1F;
+        chr1 = buf.get() & 0x1F;
+        prgBank = buf.get() & 0x0F;
+    }
+}
@@ -0,0 +1,231 @@
+package io.famiemu.mapper;
+
+import io.famiemu.Scheduler;
+import io.famiemu.rom.RomImage;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Mapper 4: 8K PRG and 1K/2K CHR banks through 8 bank registers, and a scanline IRQ counter.
+ *
+ * <pre>
+ * $8000  even: bank select CP...RRR, CHR A12 inversion, PRG mode, register; odd: bank data
+ * $A000  even: mirroring; odd: PRG-RAM protect (ignored)
+ * $C000  even: IRQ latch; odd: IRQ reload
+ * $E000  even: IRQ disable and acknowledge; odd: IRQ enable
+ * </pre>
+ * The counter is clocked once per line the PPU {@link io.famiemu.ppu.PictureProcessor#getRenderingLines renders},
+ * which is what the usual board layout with background and sprites on different pattern tables gives.
+ * It is not ticked every line: it catches up on the lines counted by the PPU since the last access,
+ * and one {@link Scheduler.Event} is scheduled at the line where it will reach 0,
+ * assuming rendering stays on. If rendering was turned off meanwhile, the event only reschedules itself.
+ */
+public class Mmc3 extends Mapper {
+
+    public static final int NUMBER = 4;
+
+    private static final int PRG_BANK = 0x2000;
+    private static final int CHR_BANK = 0x0400;
+    /** the counter is clocked at dot 260 of the line */
+    private static final long IRQ_DELAY = 260L * Scheduler.PPU_DIVIDER;
+    /** the first 8K of CHR and of PRG in order */
+    private static final int[] POWER_ON_BANKS = {0, 2, 4, 5, 6, 7, 0, 1};
+
+    private final int[] banks = new int[8];
+    private int bankSelect;
+    private boolean horizontal;
+
+    private int irqLatch;
+    private int counter;
+    private boolean reload;
+    private boolean irqEnabled;
+    private boolean irq;
+    /** {@link io.famiemu.ppu.PictureProcessor#getRenderingLines()} the counter is up to */
+    private long syncedLines;
+
+    private final Scheduler.Event irqEvent = this::irqDue;
+
+    @Override
+    public int getNumber() {
+        return NUMBER;
+    }
+
+    @Override
+    public void reset() {
+        bankSelect = 0;
+        System.arraycopy(POWER_ON_BANKS, 0, banks, 0, banks.length);
+        horizontal = mirroring == RomImage.Mirroring.HORIZONTAL;
+        irqLatch = counter = 0;
+        reload = irqEnabled = irq = false;
+        syncedLines = ppu.getRenderingLines();
+        remap();
+    }
+
+    @Override
+    public void write(int address, byte value) {
+        final int data = value & 0xFF;
+        final boolean odd = (address & 1) != 0;
+        switch ((address >>> 13) & 3) {
+            case 0:
+                if (odd) {
+                    // remap only the slot of the register
+                    final int reg = bankSelect & 7;
+                    banks[reg] = data;
+                    if (reg == 7) mapPrg(0xA000, PRG_BANK, data);
+                    else if (reg == 6) mapPrg((bankSelect & 0x40) != 0 ? 0xC000 : 0x8000, PRG_BANK, data);
+                    else mapChrBank(reg);
+                } else {
+                    final int changed = bankSelect ^ data;
+                    bankSelect = data;
+                    if ((changed & 0x40) != 0) mapPrgBanks();
+                    if ((changed & 0x80) != 0) mapChrBanks();
+                }
+                break;
+            case 1:
+                if (!odd) {
+                    horizontal = (data & 1) != 0;
+                    mapNametables();
+                }
+                break;
+            case 2:
+                sync();
+                if (odd) {
+                    counter = 0;
+                    reload = true;
+                } else {
+                    irqLatch = data;
+                }
+                scheduleIrq();
+                break;
+            default:
+                sync();
+                irqEnabled = odd;
+                if (!odd)
+                    irq = false;
+                updateIrq();
+                scheduleIrq();
+                break;
+        }
+    }
+
+    @Override
+    protected void remap() {
+        mapPrgBanks();
+        mapChrBanks();
+        mapNametables();
+        updateIrq();
+        scheduleIrq();
+    }
+
+    private void mapPrgBanks() {
+        final int secondLast = prgBanks(PRG_BANK) - 2;
+        final boolean swapped = (bankSelect & 0x40) != 0;
+        mapPrg(0x8000, PRG_BANK, swapped ? secondLast : banks[6]);
+        mapPrg(0xA000, PRG_BANK, banks[7]);
+        mapPrg(0xC000, PRG_BANK, swapped ? banks[6] : secondLast);
+        mapPrg(0xE000, PRG_BANK, secondLast + 1);
+    }
+
+    private void mapChrBanks() {
+        for (int reg = 0; reg < 6; reg++) {
+            mapChrBank(reg);
+        }
+    }
+
+    /**
+     * Map the CHR slot of register 0-5, which depends on the inversion bit.
+     */
+    private void mapChrBank(int reg) {
+        // with inversion the 2K banks are at $1000 and the 1K banks at $0000
+        final int invert = (bankSelect & 0x80) != 0 ? 0x1000 : 0;
+        if (reg < 2)
+            mapChr(invert | reg * 2 * CHR_BANK, 2 * CHR_BANK, banks[reg] >>> 1);
+        else
+            mapChr((invert ^ 0x1000) | (reg - 2) * CHR_BANK, CHR_BANK, banks[reg]);
+    }
+
+    private void mapNametables() {
+        if (mirroring != RomImage.Mirroring.FOUR_SCREEN)
+            ppu.setMirroring(horizontal ? RomImage.Mirroring.HORIZONTAL : RomImage.Mirroring.VERTICAL);
+    }
+
+    /**
+     * Clock the counter for the lines rendered since the last sync.
+     */
+    private void sync() {
+        final long lines = ppu.getRenderingLines();
+        long clocks = lines - syncedLines;
+        syncedLines = lines;
+        while (clocks > 0) {
+            if (counter == 0 || reload) {
+                counter = irqLatch;
+                reload = false;
+            } else {
+                counter--;
+            }
+            clocks--;
+            if (counter == 0) {
+                if (irqEnabled)
+                    irq = true;
+                // from here the counter cycles through latch .. 0
+                clocks %= irqLatch + 1;
+            }
+        }
+        updateIrq();
+    }
+
+    private void updateIrq() {
+        scheduler.setIrq(Scheduler.IRQ_MAPPER, irq);
+    }
+
+    /**
+     * Schedule the event at the earliest line the counter can reach 0, or cancel it.
+     */
+    private void scheduleIrq() {
+        scheduler.schedule(irqEvent, nextIrq());
+    }
+
+    private long nextIrq() {
+        if (!irqEnabled || irq)
+            return Scheduler.NEVER;
+        final int clocks = counter == 0 || reload ? irqLatch + 1 : counter;
+        return ppu.renderingLineTime(clocks) + IRQ_DELAY;
+    }
+
+    private long irqDue(long due) {
+        sync();
+        return nextIrq();
+    }
+
+    /**
+     * The counter is saved with the lines it has not caught up on,
+     * syncing here would raise the IRQ earlier than without saving.
+     */
+    @Override
+    protected void saveRegisters(ByteBuffer buf) {
+        buf.putLong(ppu.getRenderingLines() - syncedLines);
+        for (int bank : banks) {
+            buf.put((byte) bank);
+        }
+        buf.put((byte) bankSelect);
+        buf.put((byte) irqLatch);
+        buf.put((byte) counter);
+        buf.put((byte) ((horizontal ? 1 : 0) | (reload ? 2 : 0) | (irqEnabled ? 4 : 0) | (irq ? 8 : 0)));
+    }
+
+    @Override
+    protected void loadRegisters(ByteBuffer buf) {
+        syncedLines = ppu.getRenderingLines() - buf.getLong();
+        for (int i = 0; i < banks.length; i++) {
+            banks[i] = buf.get() & 0xFF;
+        }
+        bankSelect = buf.get() & 0xFF;
+        irqLatch = buf.get() & 0xFF;
+        counter = buf.get() & 0xFF;
+        final int flags = buf.get();
+        horizontal = (flags & 1) != 0;
+        reload = (flags & 2) != 0;
+        irqEnabled = (flags & 4) != 0;
+        irq = (flags & 8) != 0;
+    }
+}
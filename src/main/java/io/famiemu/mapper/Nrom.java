@@ -0,0 +1,37 @@
+package io.famiemu.mapper;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Mapper 0: 16K PRG mirrored or 32K, 8K CHR, no registers.
+ */
+public class Nrom extends Mapper {
+
+    public static final int NUMBER = 0;
+
+    @Override
+    public int getNumber() {
+        return NUMBER;
+    }
+
+    @Override
+    public void reset() {
+        remap();
+    }
+
+    @Override
+    protected void remap() {
+        bus.mapPrgRom(prg);
+    }
+
+    @Override
+    public void write(int address, byte value) {
+        // ROM
+    }
+
+    @Override
+    protected void saveRegisters(ByteBuffer buf) {}
+
+    @Override
+    protected void loadRegisters(ByteBuffer buf) {}
+}
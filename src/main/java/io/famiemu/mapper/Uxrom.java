@@ -0,0 +1,49 @@
+package io.famiemu.mapper;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Mapper 2: 16K PRG bank at $8000 selected by any write to $8000-$FFFF, the last bank fixed at $C000.
+ * CHR is 8K, usually RAM. Bus conflicts are not emulated.
+ */
+public class Uxrom extends Mapper {
+
+    public static final int NUMBER = 2;
+
+    private static final int BANK_SIZE = 0x4000;
+
+    private int bank;
+
+    @Override
+    public int getNumber() {
+        return NUMBER;
+    }
+
+    @Override
+    public void reset() {
+        bank = 0;
+        remap();
+    }
+
+    @Override
+    protected void remap() {
+        mapPrg(0x8000, BANK_SIZE, bank);
+        mapPrg(0xC000, BANK_SIZE, prgBanks(BANK_SIZE) - 1);
+    }
+
+    @Override
+    public void write(int address, byte value) {
+        bank = value & 0xFF;
+        mapPrg(0x8000, BANK_SIZE, bank);
+    }
+
+    @Override
+    protected void saveRegisters(ByteBuffer buf) {
+        buf.put((byte) bank);
+    }
+
+    @Override
+    protected void loadRegisters(ByteBuffer buf) {
+        bank = buf.get() & 0xFF;
+    }
+}
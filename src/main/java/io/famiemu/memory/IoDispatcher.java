@@ -0,0 +1,35 @@
+package io.famiemu.memory;
+
+import java.util.Arrays;
+
+/**
+ * Routes the registers of one I/O page to a handler per address, e.g. APU and controllers at $40xx.
+ * Unregistered addresses are {@link IoHandler#OPEN_BUS}.
+ */
+public class IoDispatcher implements IoHandler {
+
+    private final IoHandler[] registers = new IoHandler[MemoryBus.PAGE_SIZE];
+
+    public IoDispatcher() {
+        Arrays.fill(registers, OPEN_BUS);
+    }
+
+    /**
+     * Route [address, address + size) to handler. Only the low byte of the address is used.
+     */
+    public void register(int address, int size, IoHandler handler) {
+        for (int i = 0; i < size; i++) {
+            registers[(address + i) & 0xFF] = handler;
+        }
+    }
+
+    @Override
+    public byte read(int address) {
+        return registers[address & 0xFF].read(address);
+    }
+
+    @Override
+    public void write(int address, byte value) {
+        registers[address & 0xFF].write(address, value);
+    }
+}
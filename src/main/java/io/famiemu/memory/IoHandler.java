@@ -0,0 +1,33 @@
+package io.famiemu.memory;
+
+/**
+ * Memory mapped registers (PPU, APU, mapper, ...) behind a page of the {@link MemoryBus}.
+ */
+public interface IoHandler {
+
+    /**
+     * Nothing connected. Reads return the high byte of the address, which is what usually
+     * floats on the data bus after the CPU fetched the operand.
+     */
+    IoHandler OPEN_BUS = new IoHandler() {
+        @Override
+        public byte read(int address) {
+            return (byte) (address >>> 8);
+        }
+
+        @Override
+        public void write(int address, byte value) {
+            // ignored
+        }
+    };
+
+    /**
+     * @param address full 16-bit address
+     */
+    byte read(int address);
+
+    /**
+     * @param address full 16-bit address
+     */
+    void write(int address, byte value);
+}
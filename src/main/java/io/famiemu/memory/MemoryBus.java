@@ -0,0 +1,555 @@
+package io.famiemu.memory;
+
+import io.famiemu.AddressReader;
+import io.famiemu.AddressWriter;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * CPU memory map.
+ * <p></p>
+ * RAM and PRG are plain byte arrays.
+ * A 256-entry page table maps each page ($xx00-$xxFF) either to a slice of an array,
+ * or to an {@link IoHandler} when the array entry is null.
+ * Reads and writes have separate tables, so ROM can be read directly while writes go to the mapper.
+ * <p></p>
+ * Writes to an array mapped page can be trapped ({@link #trapWrites(int)}):
+ * they still land in the array, but also notify the {@link WriteListener}s.
+ * Untrapped pages pay nothing for it.
+ * <p></p>
+ * RAM and PRG-RAM are also tracked as {@link #RAM_PAGES} pages of 256 bytes for snapshots:
+ * {@link #takeDirtyPages()} routes the next write of every page through the slow path once,
+ * which marks it dirty and maps it direct again.
+ * <p></p>
+ * RAM pages can be shared copy-on-write between buses ({@link #sharePages()}, {@link #mapSharedPages(byte[][])}):
+ * a shared page is read from an immutable array, and its first write copies it back into this bus.
+ * <p></p>
+ * Every change of what a page reads from bumps {@link #getMapGeneration()}, so code caches can tell
+ * when a bank switch happened in the middle of the code they run.
+ *
+ * <pre>
+ * $0000-$07FF  2K RAM
+ * $0800-$1FFF  mirrors of RAM
+ * $2000-$3FFF  PPU registers, mirrored every 8 bytes
+ * $4000-$401F  APU and I/O registers
+ * $4020-$5FFF  expansion
+ * $6000-$7FFF  8K PRG-RAM
+ * $8000-$FFFF  PRG-ROM
+ * </pre>
+ */
+public class MemoryBus implements AddressReader, AddressWriter {
+
+    /**
+     * Notified after a write to a trapped page.
+     */
+    public interface WriteListener {
+        void written(int address, byte value);
+    }
+
+    public static final int PAGE_SIZE = 0x100;
+    public static final int PAGES = 0x100;
+
+    public static final int RAM_SIZE = 0x800;
+    public static final int PRG_RAM_SIZE = 0x2000;
+
+    public static final int PRG_RAM_START = 0x6000;
+    public static final int PRG_ROM_START = 0x8000;
+
+    /** RAM pages 0-7, then PRG-RAM pages 8-39 */
+    public static final int RAM_PAGES = (RAM_SIZE + PRG_RAM_SIZE) / PAGE_SIZE;
+    private static final long ALL_RAM_PAGES = (1L << RAM_PAGES) - 1;
+
+    private final byte[][] readPages = new byte[PAGES][];
+    private final int[] readBase = new int[PAGES];
+    private final byte[][] writePages = new byte[PAGES][];
+    private final int[] writeBase = new int[PAGES];
+    private final IoHandler[] handlers = new IoHandler[PAGES];
+    /** bumped when the read mapping of a page changes */
+    private int mapGen;
+
+    /** write mapping of trapped pages, null if not trapped */
+    private final byte[][] trappedPages = new byte[PAGES][];
+    private final int[] trappedBase = new int[PAGES];
+    private WriteListener[] listeners = new WriteListener[0];
+
+    /** write mapping of RAM pages not written since {@link #takeDirtyPages()}, null otherwise */
+    private final byte[][] cleanPages = new byte[PAGES][];
+    private final int[] cleanBase = new int[PAGES];
+    /** bit per RAM page written since {@link #takeDirtyPages()}, all until it is first called */
+    private long dirtyPages = ALL_RAM_PAGES;
+
+    /** immutable array a RAM page is read from until its first write, null if it is not shared */
+    private final byte[][] shared = new byte[RAM_PAGES][];
+    /** shared array read by the page, null if not shared */
+    private final byte[][] sharedPages = new byte[PAGES][];
+
+    private final byte[] ram = new byte[RAM_SIZE];
+    private final byte[] prgRam = new byte[PRG_RAM_SIZE];
+
+    public MemoryBus() {
+        setHandler(0x0000, PAGES * PAGE_SIZE, IoHandler.OPEN_BUS);
+
+        // RAM and its mirrors up to $1FFF
+        for (int page = 0x00; page < 0x20; page++) {
+            int base = (page << 8) & (RAM_SIZE - 1);
+            mapRead(page, ram, base);
+            mapWrite(page, ram, base);
+        }
+
+        map(PRG_RAM_START, PRG_RAM_SIZE, prgRam, 0, true);
+    }
+
+    /**
+     * Direct access to RAM, shared pages are copied back first.
+     */
+    public byte[] getRam() {
+        unshareAll();
+        return ram;
+    }
+
+    /**
+     * Direct access to PRG-RAM, shared pages are copied back first.
+     */
+    public byte[] getPrgRam() {
+        unshareAll();
+        return prgRam;
+    }
+
+    /**
+     * Map NROM style PRG-ROM at $8000: 16K is mirrored at $C000, 32K fills the whole range.
+     * The array is not copied, so one ROM image can back many buses.
+     */
+    public void mapPrgRom(byte[] prg) {
+        if (prg.length != 0x4000 && prg.length != 0x8000)
+            throw new IllegalArgumentException("PRG-ROM size=" + prg.length);
+
+        map(PRG_ROM_START, 0x4000, prg, 0, false);
+        map(0xC000, 0x4000, prg, prg.length - 0x4000, false);
+    }
+
+    /**
+     * Route reads and writes in [address, address + size) to handler.
+     * Address and size must be page aligned.
+     */
+    public void setHandler(int address, int size, IoHandler handler) {
+        checkAligned(address, size);
+        for (int page = address >>> 8; page < (address + size) >>> 8; page++) {
+            handlers[page] = handler;
+            if (readPages[page] != null)
+                mapGen++;
+            readPages[page] = null;
+            writePages[page] = null;
+            trappedPages[page] = null;
+            cleanPages[page] = null;
+            sharedPages[page] = null;
+        }
+    }
+
+    /**
+     * Map [address, address + size) to data[offset, offset + size).
+     * Writes go to the array if writable, otherwise to the page handler.
+     * Address and size must be page aligned.
+     */
+    public void map(int address, int size, byte[] data, int offset, boolean writable) {
+        checkAligned(address, size);
+        if (offset < 0 || offset + size > data.length)
+            throw new IllegalArgumentException("offset=" + offset + " size=" + size + " length=" + data.length);
+
+        for (int n = 0; n < size; n += PAGE_SIZE) {
+            int page = (address + n) >>> 8;
+            mapRead(page, data, offset + n);
+            if (writable) {
+                mapWrite(page, data, offset + n);
+            } else {
+                writePages[page] = null;
+                trappedPages[page] = null;
+                cleanPages[page] = null;
+            }
+        }
+    }
+
+    public void mapRead(int page, byte[] data, int base) {
+        if (readPages[page] != data || readBase[page] != base)
+            mapGen++;
+        readPages[page] = data;
+        readBase[page] = base;
+        sharedPages[page] = null;
+    }
+
+    public void mapWrite(int page, byte[] data, int base) {
+        if (sharedPages[page] != null)
+            unshare(sharedRamPage(sharedPages[page]), true);
+        writePages[page] = data;
+        writeBase[page] = base;
+        trappedPages[page] = null;
+        cleanPages[page] = null;
+    }
+
+    /**
+     * @return array the page is read from, null for an I/O page.
+     * Together with {@link #getReadBase(int)} this identifies the bank currently mapped.
+     */
+    public byte[] getReadArray(int page) {
+        return readPages[page];
+    }
+
+    public int getReadBase(int page) {
+        return readBase[page];
+    }
+
+    /**
+     * @return counter bumped whenever a page is mapped to another slice or to its handler, e.g. by a bank switch.
+     * Sharing and unsharing RAM pages keeps their content and does not count.
+     */
+    public int getMapGeneration() {
+        return mapGen;
+    }
+
+    /**
+     * @return true if reads of the page come straight from an array (RAM or ROM)
+     */
+    public boolean isReadMapped(int page) {
+        return readPages[page] != null;
+    }
+
+    /**
+     * @return true if writes to the page land in an array, trapped or not
+     */
+    public boolean isWriteMapped(int page) {
+        return writePages[page] != null || trappedPages[page] != null || cleanPages[page] != null;
+    }
+
+    public boolean isWriteTrapped(int page) {
+        return trappedPages[page] != null;
+    }
+
+    public void addWriteListener(WriteListener listener) {
+        WriteListener[] res = Arrays.copyOf(listeners, listeners.length + 1);
+        res[listeners.length] = listener;
+        listeners = res;
+    }
+
+    public void removeWriteListener(WriteListener listener) {
+        listeners = Arrays.stream(listeners).filter(l -> l != listener).toArray(WriteListener[]::new);
+    }
+
+    /**
+     * Notify the listeners of writes to the page.
+     * Every mirror of the same array slice is trapped as well, so writes through a mirror are seen too.
+     * Does nothing if the page is not write mapped to an array.
+     */
+    public void trapWrites(int page) {
+        final boolean clean = cleanPages[page] != null;
+        final byte[] data = clean ? cleanPages[page] : writePages[page];
+        if (data == null)
+            return;
+        final int base = clean ? cleanBase[page] : writeBase[page];
+
+        for (int p = 0; p < PAGES; p++) {
+            if ((writePages[p] == data && writeBase[p] == base) || (cleanPages[p] == data && cleanBase[p] == base)) {
+                trappedPages[p] = data;
+                trappedBase[p] = base;
+                writePages[p] = null;
+                cleanPages[p] = null;
+            }
+        }
+    }
+
+    /**
+     * Make writes to the page and its mirrors direct again.
+     */
+    public void untrapWrites(int page) {
+        final byte[] data = trappedPages[page];
+        if (data == null)
+            return;
+        final int base = trappedBase[page];
+        // a clean RAM page must still see its next write
+        final int ramPage = ramPage(data, base);
+        final boolean clean = ramPage >= 0 && (dirtyPages & (1L << ramPage)) == 0;
+
+        for (int p = 0; p < PAGES; p++) {
+            if (trappedPages[p] == data && trappedBase[p] == base) {
+                // a shared page must still see its next write too
+                if (clean || sharedPages[p] != null) {
+                    cleanPages[p] = data;
+                    cleanBase[p] = base;
+                } else {
+                    writePages[p] = data;
+                    writeBase[p] = base;
+                }
+                trappedPages[p] = null;
+            }
+        }
+    }
+
+    /**
+     * Start a new dirty page interval.
+     *
+     * @return bit per RAM page (see {@link #RAM_PAGES}) written since the last call, all pages on the first call
+     */
+    public long takeDirtyPages() {
+        final long dirty = dirtyPages;
+        dirtyPages = 0;
+        for (int p = 0; p < PAGES; p++) {
+            final byte[] data = writePages[p];
+            if (data != null && ramPage(data, writeBase[p]) >= 0) {
+                cleanPages[p] = data;
+                cleanBase[p] = writeBase[p];
+                writePages[p] = null;
+            }
+        }
+        return dirty;
+    }
+
+    /**
+     * Copy RAM page (0 to {@link #RAM_PAGES} - 1) into dst.
+     */
+    public void copyRamPage(int ramPage, byte[] dst) {
+        if (shared[ramPage] != null)
+            System.arraycopy(shared[ramPage], 0, dst, 0, PAGE_SIZE);
+        else
+            System.arraycopy(ownArray(ramPage), ownBase(ramPage), dst, 0, PAGE_SIZE);
+    }
+
+    /**
+     * Overwrite RAM page (0 to {@link #RAM_PAGES} - 1) with src.
+     * Like {@link #loadState(ByteBuffer)} this bypasses the listeners and dirty tracking.
+     */
+    public void loadRamPage(int ramPage, byte[] src) {
+        unshare(ramPage, false);
+        System.arraycopy(src, 0, ownArray(ramPage), ownBase(ramPage), PAGE_SIZE);
+    }
+
+    /**
+     * Freeze every RAM page into an immutable array and share it copy-on-write with this bus.
+     * Pages still shared from an earlier call are not copied again.
+     *
+     * @return the pages, for {@link #mapSharedPages(byte[][])} of other buses
+     */
+    public byte[][] sharePages() {
+        for (int i = 0; i < RAM_PAGES; i++) {
+            if (shared[i] == null) {
+                final byte[] page = new byte[PAGE_SIZE];
+                System.arraycopy(ownArray(i), ownBase(i), page, 0, PAGE_SIZE);
+                shared[i] = page;
+            }
+        }
+        mapShared();
+        return shared.clone();
+    }
+
+    /**
+     * Read RAM from pages returned by {@link #sharePages()} of another bus,
+     * copying each one only when it is first written.
+     */
+    public void mapSharedPages(byte[][] pages) {
+        for (int i = 0; i < RAM_PAGES; i++) {
+            unshare(i, false);
+            shared[i] = pages[i];
+        }
+        mapShared();
+    }
+
+    /**
+     * Map the aliases of the shared RAM pages to read the shared array and write through the slow path.
+     */
+    private void mapShared() {
+        for (int p = 0; p < PAGES; p++) {
+            final byte[] own = readPages[p];
+            final int base = readBase[p];
+            final int i = ramPage(own, base);
+            if (i < 0 || shared[i] == null)
+                continue;
+            if (writePages[p] == own && writeBase[p] == base) {
+                // the first write unshares, then marks dirty and goes direct
+                cleanPages[p] = own;
+                cleanBase[p] = base;
+                writePages[p] = null;
+            }
+            readPages[p] = shared[i];
+            readBase[p] = 0;
+            sharedPages[p] = shared[i];
+        }
+    }
+
+    /**
+     * Map the aliases of RAM page i back to this bus.
+     *
+     * @param copy copy the shared content back, false if it is about to be overwritten
+     */
+    private void unshare(int i, boolean copy) {
+        final byte[] page = shared[i];
+        if (page == null)
+            return;
+        final byte[] own = ownArray(i);
+        final int base = ownBase(i);
+        if (copy)
+            System.arraycopy(page, 0, own, base, PAGE_SIZE);
+        shared[i] = null;
+        for (int p = 0; p < PAGES; p++) {
+            if (sharedPages[p] == page) {
+                readPages[p] = own;
+                readBase[p] = base;
+                sharedPages[p] = null;
+            }
+        }
+    }
+
+    private int sharedRamPage(byte[] page) {
+        for (int i = 0; i < RAM_PAGES; i++) {
+            if (shared[i] == page)
+                return i;
+        }
+        throw new IllegalStateException("Not a shared page");
+    }
+
+    private void unshareAll() {
+        for (int i = 0; i < RAM_PAGES; i++) {
+            unshare(i, true);
+        }
+    }
+
+    private byte[] ownArray(int ramPage) {
+        return ramPage < RAM_SIZE / PAGE_SIZE ? ram : prgRam;
+    }
+
+    private int ownBase(int ramPage) {
+        return ramPage < RAM_SIZE / PAGE_SIZE ? ramPage << 8 : (ramPage << 8) - RAM_SIZE;
+    }
+
+    /**
+     * @return RAM page of the array slice, -1 if it is not RAM
+     */
+    private int ramPage(byte[] data, int base) {
+        if (data == ram)
+            return base >>> 8;
+        if (data == prgRam)
+            return (RAM_SIZE + base) >>> 8;
+        return -1;
+    }
+
+    /** bytes written by {@link #saveState(ByteBuffer)} */
+    public static final int STATE_SIZE = RAM_SIZE + PRG_RAM_SIZE;
+
+    /**
+     * Write RAM and PRG-RAM. The page mapping belongs to the mapper and is not saved.
+     */
+    public void saveState(ByteBuffer buf) {
+        for (int i = 0; i < RAM_PAGES; i++) {
+            final byte[] page = shared[i];
+            if (page != null)
+                buf.put(page);
+            else
+                buf.put(ownArray(i), ownBase(i), PAGE_SIZE);
+        }
+    }
+
+    /**
+     * Restore RAM and PRG-RAM. Write listeners are not notified,
+     * caches of code in RAM must be invalidated by the caller.
+     * Every RAM page counts as dirty afterwards.
+     */
+    public void loadState(ByteBuffer buf) {
+        for (int i = 0; i < RAM_PAGES; i++) {
+            unshare(i, false);
+        }
+        buf.get(ram);
+        buf.get(prgRam);
+        dirtyPages = ALL_RAM_PAGES;
+    }
+
+    /**
+     * @return handler used for the page when it is not mapped to an array
+     */
+    public IoHandler getHandler(int page) {
+        return handlers[page];
+    }
+
+    @Override
+    public byte readByte(int address) {
+        final int page = (address >>> 8) & 0xFF;
+        final byte[] data = readPages[page];
+        if (data != null)
+            return data[readBase[page] | (address & 0xFF)];
+        return handlers[page].read(address & 0xFFFF);
+    }
+
+    @Override
+    public int readU8(int address) {
+        return readByte(address) & 0xFF;
+    }
+
+    @Override
+    public int readU16(int address) {
+        // both bytes in the same directly mapped page
+        if ((address & 0xFF) != 0xFF) {
+            final int page = (address >>> 8) & 0xFF;
+            final byte[] data = readPages[page];
+            if (data != null) {
+                final int i = readBase[page] | (address & 0xFF);
+                return (data[i] & 0xFF) | ((data[i + 1] & 0xFF) << 8);
+            }
+        }
+        return readU8(address) | (readU8(address + 1) << 8);
+    }
+
+    @Override
+    public void writeByte(int address, byte value) {
+        final int page = (address >>> 8) & 0xFF;
+        final byte[] data = writePages[page];
+        if (data != null)
+            data[writeBase[page] | (address & 0xFF)] = value;
+        else
+            writeSlow(page, address & 0xFFFF, value);
+    }
+
+    private void writeSlow(int page, int address, byte value) {
+        if (sharedPages[page] != null) {
+            // copy-on-write, then write through the page's own mapping
+            unshare(sharedRamPage(sharedPages[page]), true);
+        }
+
+        final byte[] clean = cleanPages[page];
+        if (clean != null) {
+            final int base = cleanBase[page];
+            markDirty(clean, base);
+            clean[base | (address & 0xFF)] = value;
+            return;
+        }
+
+        final byte[] trapped = trappedPages[page];
+        if (trapped == null) {
+            handlers[page].write(address, value);
+            return;
+        }
+
+        final int base = trappedBase[page];
+        trapped[base | (address & 0xFF)] = value;
+        final int ramPage = ramPage(trapped, base);
+        if (ramPage >= 0)
+            dirtyPages |= 1L << ramPage;
+        for (WriteListener listener : listeners) {
+            listener.written(address, value);
+        }
+    }
+
+    /**
+     * First write to a clean page: mark it and map it and its mirrors direct again.
+     */
+    private void markDirty(byte[] data, int base) {
+        dirtyPages |= 1L << ramPage(data, base);
+        for (int p = 0; p < PAGES; p++) {
+            if (cleanPages[p] == data && cleanBase[p] == base) {
+                writePages[p] = data;
+                writeBase[p] = base;
+                cleanPages[p] = null;
+            }
+        }
+    }
+
+    private static void checkAligned(int address, int size) {
+        if ((address & 0xFF) != 0 || (size & 0xFF) != 0 || address < 0 || address + size > 0x10000)
+            throw new IllegalArgumentException(String.format("address=$%04X size=$%X", address, size));
+    }
+}
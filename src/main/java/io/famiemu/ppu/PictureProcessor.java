@@ -0,0 +1,815 @@
+package io.famiemu.ppu;
+
+import io.famiemu.AddressReader;
+import io.famiemu.Scheduler;
+import io.famiemu.cpu.Processor;
+import io.famiemu.memory.IoHandler;
+import io.famiemu.rom.RomImage;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * The 2C02 picture processing unit, registers at $2000-$2007 mirrored up to $3FFF.
+ * <p></p>
+ * A scanline {@link Scheduler.Event} renders each visible line in one go, when the line starts,
+ * into an ARGB {@link #getFrameBuffer()} that is reused for every frame.
+ * Register writes take effect on the next line, which is enough for scroll splits and sprite-0 waits,
+ * but not for effects changing registers in the middle of a line.
+ * <p></p>
+ * Each line copies the rows of its background tiles, already decoded by a {@link TileCache},
+ * then evaluates the up to 8 sprites of the line and composes them with the background.
+ * Nothing is allocated per line or frame.
+ * With a {@link #setRenderInterval render interval}, frames nobody looks at skip all of that
+ * and only test sprite 0 against the background under it.
+ *
+ * <pre>
+ * $0000-$1FFF  pattern tables, CHR-ROM or CHR-RAM in 1K slots
+ * $2000-$2FFF  4 nametables in 1K slots, mirrored into 2K of VRAM (4K for four-screen)
+ * $3000-$3EFF  mirror of $2000-$2EFF
+ * $3F00-$3F1F  palette RAM
+ * </pre>
+ * V-Blank starts on {@link Scheduler#VBLANK_SCANLINE}, where NMI is raised on the CPU if enabled.
+ */
+public class PictureProcessor implements IoHandler {
+
+    public static final int WIDTH = 256;
+    public static final int HEIGHT = 240;
+    /** last scanline of a frame, which reloads the vertical scroll */
+    public static final int PRE_RENDER_SCANLINE = Scheduler.SCANLINES_PER_FRAME - 1;
+
+    public static final int CHR_SIZE = 0x2000;
+    public static final int CHR_SLOT_SIZE = 0x400;
+    public static final int NAMETABLE_SIZE = 0x400;
+    public static final int OAM_SIZE = 0x100;
+    public static final int PALETTE_SIZE = 0x20;
+
+    // PPUCTRL $2000
+    public static final int CTRL_INCREMENT_32 = 0x04;
+    public static final int CTRL_SPRITE_TABLE = 0x08;
+    public static final int CTRL_BG_TABLE = 0x10;
+    public static final int CTRL_SPRITE_8X16 = 0x20;
+    public static final int CTRL_NMI = 0x80;
+
+    // PPUMASK $2001
+    public static final int MASK_GREYSCALE = 0x01;
+    public static final int MASK_BG_LEFT = 0x02;
+    public static final int MASK_SPRITES_LEFT = 0x04;
+    public static final int MASK_BG = 0x08;
+    public static final int MASK_SPRITES = 0x10;
+
+    // PPUSTATUS $2002
+    public static final int STATUS_OVERFLOW = 0x20;
+    public static final int STATUS_SPRITE0 = 0x40;
+    public static final int STATUS_VBLANK = 0x80;
+
+    /** CPU cycles of a $4014 OAM DMA */
+    public static final int OAM_DMA_CYCLES = 513;
+
+    private static final int SPRITES_PER_LINE = 8;
+
+    // sprite pixels of a line: palette index in the low 5 bits
+    private static final int SPRITE_BEHIND = 0x20;
+    private static final int SPRITE_ZERO = 0x40;
+
+    private static final byte[] NO_CHR_RAM = new byte[CHR_SIZE];
+
+    private final Scheduler scheduler;
+    private final Processor cpu;
+
+    // pattern tables in 1K slots, base is the offset in the CHR array
+    private final TileCache[] chrTiles = new TileCache[CHR_SIZE / CHR_SLOT_SIZE];
+    private final int[] chrBase = new int[CHR_SIZE / CHR_SLOT_SIZE];
+    /** owned CHR-RAM, null with CHR-ROM */
+    private TileCache chrRam;
+
+    // nametables in 1K slots of vram
+    private final byte[] vram = new byte[4 * NAMETABLE_SIZE];
+    private final int[] nametableBase = new int[4];
+
+    private final byte[] palette = new byte[PALETTE_SIZE];
+    /** palette RAM as ARGB, with greyscale applied */
+    private final int[] paletteArgb = new int[PALETTE_SIZE];
+    private final byte[] oam = new byte[OAM_SIZE];
+
+    private int ctrl;
+    private int mask;
+    private int status;
+    private int oamAddress;
+    /** current VRAM address, 15 bits: yyy NN YYYYY XXXXX */
+    private int v;
+    /** temporary VRAM address, the scroll written through $2000/$2005/$2006 */
+    private int t;
+    private int fineX;
+    /** second write of $2005/$2006 */
+    private boolean latch;
+    private int readBuffer;
+    /** last value written to any register, read back from the write-only ones */
+    private int openBus;
+
+    private int scanline;
+    private long frame;
+    private long nextLine;
+    /** lines fetched with rendering on, see {@link #getRenderingLines()} */
+    private long renderingLines;
+
+    /** palette, VRAM or CHR-RAM changed since {@link #takeMemoryWritten()} */
+    private boolean memoryWritten = true;
+
+    /** draw every Nth frame, 0 for none */
+    private int renderInterval = 1;
+    private boolean renderRequested;
+    /** the current frame is drawn into the frame buffer */
+    private boolean drawing = true;
+    /** {@link #frame} when the frame buffer was last completed */
+    private long renderedFrame = -1;
+
+    private int[] frameBuffer;
+    // one line of background, from fineX, and of sprites: palette index, 0 when transparent
+    private final byte[] bgLine = new byte[WIDTH + 16];
+    private final byte[] spriteLine = new byte[WIDTH];
+    private final int[] lineSprites = new int[SPRITES_PER_LINE];
+    private boolean spritesDrawn;
+
+    private final Scheduler.Event lineEvent = this::scanline;
+    private final Scheduler.Event nmiEvent = this::lateNmi;
+
+    public PictureProcessor(Scheduler scheduler, Processor cpu) {
+        this.scheduler = scheduler;
+        this.cpu = cpu;
+        setMirroring(RomImage.Mirroring.HORIZONTAL);
+        mapChrRam();
+        reset();
+    }
+
+    /**
+     * Point pattern table slots at CHR data, e.g. on a bank switch. Nothing is copied or decoded.
+     * Writes go through to the CHR array if the cache is {@link TileCache#isWritable()}.
+     *
+     * @param address multiple of {@link #CHR_SLOT_SIZE} in $0000-$1FFF
+     * @param offset  in the CHR array, multiple of {@link TileCache#TILE_SIZE}
+     */
+    public void mapChr(int address, int size, TileCache tiles, int offset) {
+        for (int n = 0; n < size; n += CHR_SLOT_SIZE) {
+            final int slot = ((address + n) >>> 10) & 7;
+            chrTiles[slot] = tiles;
+            chrBase[slot] = offset + n;
+        }
+    }
+
+    /**
+     * Map the 8K of CHR-RAM of this PPU, which is saved with its state.
+     */
+    public void mapChrRam() {
+        if (chrRam == null)
+            chrRam = TileCache.forRam(new byte[CHR_SIZE]);
+        mapChr(0, CHR_SIZE, chrRam, 0);
+    }
+
+    /**
+     * Map the first 8K of a CHR-ROM, dropping the CHR-RAM.
+     */
+    public void mapChrRom(TileCache chr) {
+        chrRam = null;
+        mapChr(0, CHR_SIZE, chr, 0);
+    }
+
+    public void setMirroring(RomImage.Mirroring mirroring) {
+        switch (mirroring) {
+            case HORIZONTAL:
+                setNametables(0, 0, 1, 1);
+                break;
+            case VERTICAL:
+                setNametables(0, 1, 0, 1);
+                break;
+            case FOUR_SCREEN:
+                setNametables(0, 1, 2, 3);
+                break;
+        }
+    }
+
+    /**
+     * Point the 4 nametables at 1K pages of VRAM.
+     */
+    public void setNametables(int nt0, int nt1, int nt2, int nt3) {
+        nametableBase[0] = nt0 * NAMETABLE_SIZE;
+        nametableBase[1] = nt1 * NAMETABLE_SIZE;
+        nametableBase[2] = nt2 * NAMETABLE_SIZE;
+        nametableBase[3] = nt3 * NAMETABLE_SIZE;
+    }
+
+    /**
+     * Clear the registers and restart on scanline 0 at the current time. Memory is kept.
+     */
+    public void reset() {
+        ctrl = mask = status = 0;
+        oamAddress = 0;
+        v = t = fineX = 0;
+        latch = false;
+        readBuffer = openBus = 0;
+        scanline = 0;
+        updatePalette();
+        schedule(scheduler.now());
+        scheduler.cancel(nmiEvent);
+    }
+
+    /**
+     * @return ARGB pixels of the last frame, {@link #WIDTH} x {@link #HEIGHT}, reused for every frame
+     */
+    public int[] getFrameBuffer() {
+        if (frameBuffer == null)
+            frameBuffer = new int[WIDTH * HEIGHT];
+        return frameBuffer;
+    }
+
+    /**
+     * Draw every Nth frame into the frame buffer: 1 (the default) for all of them, 0 for none.
+     * Frames in between are not composed, but V-Blank, NMI, sprite-0 hit and overflow
+     * happen exactly as in drawn frames, so the game runs the same.
+     */
+    public void setRenderInterval(int interval) {
+        if (interval < 0)
+            throw new IllegalArgumentException("interval=" + interval);
+        this.renderInterval = interval;
+    }
+
+    public int getRenderInterval() {
+        return renderInterval;
+    }
+
+    /**
+     * Draw the next frame whatever the interval, e.g. for a screenshot.
+     * It is complete when {@link #getRenderedFrame()} changes.
+     */
+    public void requestRender() {
+        renderRequested = true;
+    }
+
+    /**
+     * @return {@link #getFrame()} of the frame in the frame buffer, -1 before the first one
+     */
+    public long getRenderedFrame() {
+        return renderedFrame;
+    }
+
+    /**
+     * @return number of V-Blanks since construction
+     */
+    public long getFrame() {
+        return frame;
+    }
+
+    public int getScanline() {
+        return scanline;
+    }
+
+    /**
+     * @return visible and pre-render lines that started with rendering enabled, since this PPU was created.
+     * Each of them clocks a scanline counter like the MMC3's. Not saved with the state, only differences count.
+     */
+    public long getRenderingLines() {
+        return renderingLines;
+    }
+
+    /**
+     * @param n 1 for the next line counted by {@link #getRenderingLines()}
+     * @return master time when the nth such line from now starts, if rendering stays enabled
+     */
+    public long renderingLineTime(int n) {
+        int line = scanline;
+        long time = nextLine;
+        while (true) {
+            if ((line < HEIGHT || line == PRE_RENDER_SCANLINE) && --n <= 0)
+                return time;
+            line = line == PRE_RENDER_SCANLINE ? 0 : line + 1;
+            time += Scheduler.MASTER_PER_SCANLINE;
+        }
+    }
+
+    public byte[] getOam() {
+        return oam;
+    }
+
+    /**
+     * $4014: copy a 256-byte CPU page to OAM, from the current OAM address.
+     * The CPU is halted for {@link #OAM_DMA_CYCLES}.
+     */
+    public void oamDma(AddressReader mem, int page) {
+        final int base = page << 8;
+        for (int i = 0; i < OAM_SIZE; i++) {
+            oam[(oamAddress + i) & 0xFF] = mem.readByte(base + i);
+        }
+        scheduler.stall(OAM_DMA_CYCLES);
+    }
+
+    @Override
+    public byte read(int address) {
+        switch (address & 7) {
+            case 2: {
+                final int value = status | (openBus & 0x1F);
+                status &= ~STATUS_VBLANK;
+                latch = false;
+                openBus = value;
+                return (byte) value;
+            }
+            case 4:
+                openBus = oam[oamAddress] & 0xFF;
+                return (byte) openBus;
+            case 7: {
+                final int addr = v & 0x3FFF;
+                int value;
+                if (addr < 0x3F00) {
+                    value = readBuffer;
+                    readBuffer = readVram(addr);
+                } else {
+                    // palette reads are not buffered, the buffer gets the nametable below
+                    value = (palette[paletteIndex(addr)] & 0x3F) | (openBus & 0xC0);
+                    readBuffer = readVram(addr & 0x2FFF);
+                }
+                incrementAddress();
+                openBus = value;
+                return (byte) value;
+            }
+            default:
+                return (byte) openBus;
+        }
+    }
+
+    @Override
+    public void write(int address, byte value) {
+        final int data = value & 0xFF;
+        openBus = data;
+        switch (address & 7) {
+            case 0: {
+                final int old = ctrl;
+                ctrl = data;
+                t = (t & ~0x0C00) | ((data & 3) << 10);
+                // enabling NMI during V-Blank raises it right away
+                if ((old & CTRL_NMI) == 0 && (data & CTRL_NMI) != 0 && (status & STATUS_VBLANK) != 0)
+                    scheduler.schedule(nmiEvent, scheduler.now());
+                break;
+            }
+            case 1: {
+                final int old = mask;
+                mask = data;
+                if (((old ^ data) & MASK_GREYSCALE) != 0)
+                    updatePalette();
+                break;
+            }
+            case 3:
+                oamAddress = data;
+                break;
+            case 4:
+                oam[oamAddress] = value;
+                oamAddress = (oamAddress + 1) & 0xFF;
+                break;
+            case 5:
+                if (!latch) {
+                    t = (t & ~0x001F) | (data >>> 3);
+                    fineX = data & 7;
+                } else {
+                    t = (t & ~0x73E0) | ((data & 7) << 12) | ((data & 0xF8) << 2);
+                }
+                latch = !latch;
+                break;
+            case 6:
+                if (!latch) {
+                    t = (t & 0x00FF) | ((data & 0x3F) << 8);
+                } else {
+                    t = (t & 0x7F00) | data;
+                    v = t;
+                }
+                latch = !latch;
+                break;
+            case 7:
+                writeVram(v & 0x3FFF, value);
+                incrementAddress();
+                break;
+            default:
+                // $2002 is read-only
+                break;
+        }
+    }
+
+    private void incrementAddress() {
+        v = (v + ((ctrl & CTRL_INCREMENT_32) != 0 ? 32 : 1)) & 0x7FFF;
+    }
+
+    private int readVram(int addr) {
+        if (addr < 0x2000)
+            return readChr(addr);
+        if (addr < 0x3F00)
+            return readNametable(addr);
+        return palette[paletteIndex(addr)] & 0x3F;
+    }
+
+    private void writeVram(int addr, byte value) {
+        memoryWritten = true;
+        if (addr < 0x2000) {
+            final TileCache tiles = chrTiles[addr >>> 10];
+            if (tiles.isWritable())
+                tiles.write(chrBase[addr >>> 10] + (addr & 0x3FF), value);
+        } else if (addr < 0x3F00) {
+            vram[nametableBase[(addr >>> 10) & 3] + (addr & 0x3FF)] = value;
+        } else {
+            final int i = paletteIndex(addr);
+            palette[i] = (byte) (value & 0x3F);
+            paletteArgb[i] = argb(value);
+        }
+    }
+
+    private int readChr(int addr) {
+        final int slot = addr >>> 10;
+        return chrTiles[slot].getChr()[chrBase[slot] + (addr & 0x3FF)] & 0xFF;
+    }
+
+    private int readNametable(int addr) {
+        return vram[nametableBase[(addr >>> 10) & 3] + (addr & 0x3FF)] & 0xFF;
+    }
+
+    /**
+     * $3F10/$3F14/$3F18/$3F1C mirror the background entries below them.
+     */
+    private static int paletteIndex(int addr) {
+        addr &= 0x1F;
+        return (addr & 0x13) == 0x10 ? addr & 0x0F : addr;
+    }
+
+    private int argb(int color) {
+        return Palette.argb((mask & MASK_GREYSCALE) != 0 ? color & 0x30 : color);
+    }
+
+    private void updatePalette() {
+        for (int i = 0; i < PALETTE_SIZE; i++) {
+            paletteArgb[i] = argb(palette[paletteIndex(i)]);
+        }
+    }
+
+    private void schedule(long time) {
+        nextLine = time;
+        scheduler.schedule(lineEvent, time);
+    }
+
+    private long scanline(long due) {
+        final int line = scanline;
+        final boolean rendering = (mask & (MASK_BG | MASK_SPRITES)) != 0;
+        if (rendering && (line < HEIGHT || line == PRE_RENDER_SCANLINE))
+            renderingLines++;
+        if (line < HEIGHT) {
+            if (line == 0)
+                drawing = drawFrame();
+            if (rendering) {
+                if (drawing)
+                    renderLine(line);
+                else
+                    skipLine(line);
+                incrementY();
+                // reload the horizontal scroll for the next line
+                v = (v & ~0x041F) | (t & 0x041F);
+            } else if (drawing) {
+                Arrays.fill(getFrameBuffer(), line * WIDTH, (line + 1) * WIDTH, paletteArgb[0]);
+            }
+        } else if (line == Scheduler.VBLANK_SCANLINE) {
+            status |= STATUS_VBLANK;
+            frame++;
+            if (drawing)
+                renderedFrame = frame;
+            if ((ctrl & CTRL_NMI) != 0)
+                cpu.interrupt(Processor.Interruption.NMI);
+        } else if (line == PRE_RENDER_SCANLINE) {
+            status &= ~(STATUS_VBLANK | STATUS_SPRITE0 | STATUS_OVERFLOW);
+            if (rendering)
+                v = t;
+        }
+
+        scanline = line == PRE_RENDER_SCANLINE ? 0 : line + 1;
+        nextLine = due + Scheduler.MASTER_PER_SCANLINE;
+        return nextLine;
+    }
+
+    /**
+     * Decide whether the frame starting now is drawn.
+     */
+    private boolean drawFrame() {
+        if (renderRequested) {
+            renderRequested = false;
+            return true;
+        }
+        return renderInterval > 0 && frame % renderInterval == 0;
+    }
+
+    /**
+     * NMI enabled through $2000 during V-Blank, raised after the running CPU batch.
+     */
+    private long lateNmi(long due) {
+        if ((status & STATUS_VBLANK) != 0 && (ctrl & CTRL_NMI) != 0)
+            cpu.interrupt(Processor.Interruption.NMI);
+        return Scheduler.NEVER;
+    }
+
+    /**
+     * Coarse Y and fine Y of v to the next line, wrapping into the nametable below.
+     */
+    private void incrementY() {
+        if ((v & 0x7000) != 0x7000) {
+            v += 0x1000;
+            return;
+        }
+        v &= ~0x7000;
+        int y = (v & 0x03E0) >>> 5;
+        if (y == 29) {
+            y = 0;
+            v ^= 0x0800;
+        } else if (y == 31) {
+            // attribute rows used as tiles wrap without switching nametables
+            y = 0;
+        } else {
+            y++;
+        }
+        v = (v & ~0x03E0) | (y << 5);
+    }
+
+    private void renderLine(int line) {
+        final boolean bg = (mask & MASK_BG) != 0;
+        final boolean sprites = (mask & MASK_SPRITES) != 0;
+        if (bg)
+            fetchBackground();
+        if (sprites) {
+            drawSprites(line);
+        } else if (spritesDrawn) {
+            Arrays.fill(spriteLine, (byte) 0);
+            spritesDrawn = false;
+        }
+
+        final int[] out = getFrameBuffer();
+        final int off = line * WIDTH;
+        final int bgLeft = (mask & MASK_BG_LEFT) != 0 ? 0 : 8;
+        final int spriteLeft = (mask & MASK_SPRITES_LEFT) != 0 ? 0 : 8;
+        final int fx = fineX;
+        for (int x = 0; x < WIDTH; x++) {
+            final int b = bg && x >= bgLeft ? bgLine[x + fx] : 0;
+            final int s = x >= spriteLeft ? spriteLine[x] : 0;
+            int color = b;
+            if (s != 0) {
+                if (b != 0 && (s & SPRITE_ZERO) != 0 && x != WIDTH - 1)
+                    status |= STATUS_SPRITE0;
+                if (b == 0 || (s & SPRITE_BEHIND) == 0)
+                    color = s & 0x1F;
+            }
+            out[off + x] = paletteArgb[color];
+        }
+    }
+
+    /**
+     * Fetch the 33 tiles a line touches with fine X scroll, into bgLine from position 0.
+     */
+    private void fetchBackground() {
+        final int table = (ctrl & CTRL_BG_TABLE) << 8;
+        final int fineY = (v >>> 12) & 7;
+        int addr = v;
+        for (int x = 0; x < WIDTH + 8; x += 8) {
+            final int name = readNametable(0x2000 | (addr & 0x0FFF));
+            final int attribute = readNametable(0x23C0 | (addr & 0x0C00) | ((addr >>> 4) & 0x38) | ((addr >>> 2) & 0x07));
+            // quadrant of the 32x32 attribute area: coarse Y bit 1, coarse X bit 1
+            final int shift = ((addr >>> 4) & 4) | (addr & 2);
+            final int palette = (attribute >>> shift) & 3;
+
+            final int pattern = table | (name << 4) | fineY;
+            System.arraycopy(tilePixels(pattern), tileRow(pattern) + palette * TileCache.PALETTE_STRIDE, bgLine, x, 8);
+
+            // coarse X, wrapping into the next nametable
+            if ((addr & 0x1F) == 31)
+                addr = (addr & ~0x1F) ^ 0x0400;
+            else
+                addr++;
+        }
+    }
+
+    /**
+     * Pixel of the background at x on the current line, palette 0.
+     */
+    private int backgroundPixel(int x) {
+        final int sx = x + fineX;
+        int addr = v;
+        int coarseX = (addr & 0x1F) + (sx >>> 3);
+        if (coarseX >= 32) {
+            coarseX -= 32;
+            addr ^= 0x0400;
+        }
+        addr = (addr & ~0x1F) | coarseX;
+        final int name = readNametable(0x2000 | (addr & 0x0FFF));
+        final int pattern = ((ctrl & CTRL_BG_TABLE) << 8) | (name << 4) | ((v >>> 12) & 7);
+        return tilePixels(pattern)[tileRow(pattern) + (sx & 7)];
+    }
+
+    /**
+     * Find the first 8 sprites on the line, setting the overflow flag if there are more.
+     *
+     * @return number of sprites in lineSprites
+     */
+    private int evaluateSprites(int line, int height) {
+        int count = 0;
+        for (int i = 0; i < OAM_SIZE; i += 4) {
+            // sprites are drawn one line below their Y
+            final int row = line - 1 - (oam[i] & 0xFF);
+            if (row < 0 || row >= height)
+                continue;
+            if (count == SPRITES_PER_LINE) {
+                status |= STATUS_OVERFLOW;
+                break;
+            }
+            lineSprites[count++] = i;
+        }
+        return count;
+    }
+
+    /**
+     * @param i OAM offset of a sprite on the line
+     * @return pattern address of the sprite's row on the line, after vertical flip
+     */
+    private int spritePattern(int i, int line, int height) {
+        final int tile = oam[i + 1] & 0xFF;
+        int row = line - 1 - (oam[i] & 0xFF);
+        if ((oam[i + 2] & 0x80) != 0)
+            row = height - 1 - row;
+        if (height == 16)
+            return ((tile & 1) << 12) | ((tile & 0xFE) << 4) | ((row & 8) << 1) | (row & 7);
+        return ((ctrl & CTRL_SPRITE_TABLE) << 9) | (tile << 4) | row;
+    }
+
+    /**
+     * Evaluate the sprites on the line and draw them into spriteLine,
+     * the lowest OAM index winning where they overlap.
+     */
+    private void drawSprites(int line) {
+        final int height = (ctrl & CTRL_SPRITE_8X16) != 0 ? 16 : 8;
+        final int count = evaluateSprites(line, height);
+
+        if (spritesDrawn)
+            Arrays.fill(spriteLine, (byte) 0);
+        spritesDrawn = count > 0;
+
+        for (int n = 0; n < count; n++) {
+            final int i = lineSprites[n];
+            final int attributes = oam[i + 2] & 0xFF;
+            final int left = oam[i + 3] & 0xFF;
+            final int pattern = spritePattern(i, line, height);
+            // palette 0 has the bare 2-bit pixels
+            final byte[] pixels = tilePixels(pattern);
+            final int src = tileRow(pattern);
+
+            final int flags = 0x10 | ((attributes & 3) << 2) | (attributes & SPRITE_BEHIND) | (i == 0 ? SPRITE_ZERO : 0);
+            final boolean flip = (attributes & 0x40) != 0;
+            for (int p = 0; p < 8; p++) {
+                final int x = left + p;
+                if (x >= WIDTH)
+                    break;
+                final int px = pixels[src + (flip ? 7 - p : p)];
+                if (px != 0 && spriteLine[x] == 0)
+                    spriteLine[x] = (byte) (flags | px);
+            }
+        }
+    }
+
+    /**
+     * A line of a frame that is not drawn: only what the CPU can observe,
+     * the overflow flag and sprite 0 hitting the background.
+     */
+    private void skipLine(int line) {
+        if ((mask & MASK_SPRITES) == 0)
+            return;
+        final int height = (ctrl & CTRL_SPRITE_8X16) != 0 ? 16 : 8;
+        if ((status & STATUS_OVERFLOW) == 0)
+            evaluateSprites(line, height);
+
+        final int row = line - 1 - (oam[0] & 0xFF);
+        if ((status & STATUS_SPRITE0) != 0 || (mask & MASK_BG) == 0 || row < 0 || row >= height)
+            return;
+
+        final int pattern = spritePattern(0, line, height);
+        final byte[] pixels = tilePixels(pattern);
+        final int src = tileRow(pattern);
+        final boolean flip = (oam[2] & 0x40) != 0;
+        final int left = oam[3] & 0xFF;
+        final int clip = (mask & MASK_BG_LEFT) != 0 && (mask & MASK_SPRITES_LEFT) != 0 ? 0 : 8;
+        for (int p = 0; p < 8; p++) {
+            final int x = left + p;
+            // no hit on the last pixel
+            if (x >= WIDTH - 1)
+                break;
+            if (x >= clip && pixels[src + (flip ? 7 - p : p)] != 0 && backgroundPixel(x) != 0) {
+                status |= STATUS_SPRITE0;
+                return;
+            }
+        }
+    }
+
+    /**
+     * @return decoded pixels holding the tile row at a pattern address
+     */
+    private byte[] tilePixels(int addr) {
+        return chrTiles[addr >>> 10].pixels();
+    }
+
+    /**
+     * @return offset of the tile row at a pattern address in {@link #tilePixels}, palette 0
+     */
+    private int tileRow(int addr) {
+        final int slot = addr >>> 10;
+        return chrTiles[slot].offset((chrBase[slot] + (addr & 0x3FF)) / TileCache.TILE_SIZE)
+                + (addr & 7) * TileCache.ROW_STRIDE;
+    }
+
+    /** bytes written by {@link #saveRegisters(ByteBuffer)} */
+    public static final int REGISTERS_SIZE = 1 + 1 + 1 + 1 + 1 + 2 + 2 + 1 + 1 + 1 + 2 + 8 + 8 + OAM_SIZE;
+    /** bytes written by {@link #saveMemory(ByteBuffer)} */
+    public static final int MEMORY_SIZE = PALETTE_SIZE + 4 * NAMETABLE_SIZE + CHR_SIZE;
+    /** bytes written by {@link #saveState(ByteBuffer)} */
+    public static final int STATE_SIZE = REGISTERS_SIZE + MEMORY_SIZE;
+
+    /**
+     * Write {@link #saveRegisters} then {@link #saveMemory}.
+     */
+    public void saveState(ByteBuffer buf) {
+        saveRegisters(buf);
+        saveMemory(buf);
+    }
+
+    public void loadState(ByteBuffer buf) {
+        loadRegisters(buf);
+        loadMemory(buf);
+    }
+
+    /**
+     * Write registers, scanline timing and OAM, which change every frame.
+     * The next scanline is saved relative to the scheduler, so load after {@link Scheduler#loadState}.
+     */
+    public void saveRegisters(ByteBuffer buf) {
+        buf.put((byte) ctrl);
+        buf.put((byte) mask);
+        buf.put((byte) status);
+        buf.put((byte) oamAddress);
+        buf.put((byte) fineX);
+        buf.putShort((short) v);
+        buf.putShort((short) t);
+        buf.put((byte) (latch ? 1 : 0));
+        buf.put((byte) readBuffer);
+        buf.put((byte) openBus);
+        buf.putShort((short) scanline);
+        buf.putLong(frame);
+        buf.putLong(nextLine - scheduler.now());
+        buf.put(oam);
+    }
+
+    public void loadRegisters(ByteBuffer buf) {
+        ctrl = buf.get() & 0xFF;
+        mask = buf.get() & 0xFF;
+        status = buf.get() & 0xFF;
+        oamAddress = buf.get() & 0xFF;
+        fineX = buf.get() & 7;
+        v = buf.getShort() & 0x7FFF;
+        t = buf.getShort() & 0x7FFF;
+        latch = buf.get() != 0;
+        readBuffer = buf.get() & 0xFF;
+        openBus = buf.get() & 0xFF;
+        scanline = buf.getShort();
+        frame = buf.getLong();
+        final long untilNextLine = buf.getLong();
+        buf.get(oam);
+
+        updatePalette();
+        scheduler.cancel(nmiEvent);
+        schedule(scheduler.now() + untilNextLine);
+    }
+
+    /**
+     * Write palette, VRAM and CHR-RAM (zeros with CHR-ROM), which most frames leave alone.
+     */
+    public void saveMemory(ByteBuffer buf) {
+        buf.put(palette);
+        buf.put(vram);
+        buf.put(chrRam != null ? chrRam.getChr() : NO_CHR_RAM);
+    }
+
+    public void loadMemory(ByteBuffer buf) {
+        buf.get(palette);
+        buf.get(vram);
+        if (chrRam != null) {
+            buf.get(chrRam.getChr());
+            chrRam.invalidateAll();
+        } else
+            buf.position(buf.position() + CHR_SIZE);
+        updatePalette();
+        memoryWritten = true;
+    }
+
+    /**
+     * @return true if {@link #saveMemory} would write something else than at the last call,
+     * because palette, VRAM or CHR-RAM were written or loaded since
+     */
+    public boolean takeMemoryWritten() {
+        final boolean written = memoryWritten;
+        memoryWritten = false;
+        return written;
+    }
+}
@@ -0,0 +1,122 @@
+package io.famiemu.ppu;
+
+import java.util.Arrays;
+
+/**
+ * Pattern data decoded to one byte per pixel, so the PPU copies tile rows instead of shifting bit planes.
+ * <p></p>
+ * Tiles are indexed by their position in the CHR array, not by PPU address:
+ * a bank switch only points a pattern table slot at other tiles, and nothing has to be decoded again.
+ * Each tile is kept once per background palette, with the palette already in bits 2-3,
+ * so a background row is a plain 8-byte copy. Transparent pixels are 0 in every palette.
+ *
+ * <pre>
+ * pixels[tile * 256 + palette * 64 + row * 8 + x]
+ * </pre>
+ * A ROM cache ({@link #forRom}) is decoded up front and never changes, so machines on other threads
+ * can share it. A RAM cache ({@link #forRam}) decodes a tile on first use after it was written,
+ * and belongs to one PPU.
+ */
+public final class TileCache {
+
+    /** bytes of pattern data per tile */
+    public static final int TILE_SIZE = 16;
+    /** decoded bytes per tile, 4 palettes of 8x8 */
+    public static final int DECODED_SIZE = 256;
+    public static final int PALETTE_STRIDE = 64;
+    public static final int ROW_STRIDE = 8;
+
+    private final byte[] chr;
+    private final byte[] pixels;
+    /** tiles to decode before the next use, null for ROM */
+    private final boolean[] stale;
+
+    private TileCache(byte[] chr, boolean writable) {
+        this.chr = chr;
+        final int tiles = chr.length / TILE_SIZE;
+        this.pixels = new byte[tiles * DECODED_SIZE];
+        if (writable) {
+            stale = new boolean[tiles];
+            Arrays.fill(stale, true);
+        } else {
+            stale = null;
+            for (int tile = 0; tile < tiles; tile++) {
+                decode(tile);
+            }
+        }
+    }
+
+    /**
+     * Decode all of a CHR-ROM, which must not change afterwards.
+     */
+    public static TileCache forRom(byte[] chr) {
+        return new TileCache(chr, false);
+    }
+
+    /**
+     * Cache CHR-RAM, written through {@link #write}.
+     */
+    public static TileCache forRam(byte[] chr) {
+        return new TileCache(chr, true);
+    }
+
+    public byte[] getChr() {
+        return chr;
+    }
+
+    public boolean isWritable() {
+        return stale != null;
+    }
+
+    /**
+     * @return decoded pixels, see {@link #offset(int)}
+     */
+    public byte[] pixels() {
+        return pixels;
+    }
+
+    /**
+     * @param tile position in the CHR array / {@link #TILE_SIZE}
+     * @return offset of the tile's first row in palette 0, decoding it first if it is stale
+     */
+    public int offset(int tile) {
+        if (stale != null && stale[tile]) {
+            decode(tile);
+            stale[tile] = false;
+        }
+        return tile * DECODED_SIZE;
+    }
+
+    /**
+     * Write a byte of CHR-RAM, invalidating only its tile.
+     */
+    public void write(int index, byte value) {
+        if (chr[index] != value) {
+            chr[index] = value;
+            stale[index / TILE_SIZE] = true;
+        }
+    }
+
+    /**
+     * The CHR array was changed behind the cache, e.g. by loading a save-state.
+     */
+    public void invalidateAll() {
+        if (stale != null)
+            Arrays.fill(stale, true);
+    }
+
+    private void decode(int tile) {
+        final int src = tile * TILE_SIZE;
+        final int dst = tile * DECODED_SIZE;
+        for (int row = 0; row < 8; row++) {
+            final int lo = chr[src + row] & 0xFF;
+            final int hi = chr[src + row + 8] & 0xFF;
+            for (int x = 0; x < 8; x++) {
+                final int px = ((lo >>> (7 - x)) & 1) | (((hi >>> (7 - x)) & 1) << 1);
+                for (int palette = 0; palette < 4; palette++) {
+                    pixels[dst + palette * PALETTE_STRIDE + row * ROW_STRIDE + x] = (byte) (px == 0 ? 0 : palette << 2 | px);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,261 @@
+package io.famiemu.rom;
+
+import io.famiemu.ppu.TileCache;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * An iNES (.nes) cartridge image, memory-mapped and immutable.
+ * <p></p>
+ * The file is mapped with {@link FileChannel#map}, not read into the heap,
+ * and PRG/CHR are exposed as read-only views of the mapping.
+ * {@link #open(Path)} caches images by path, so every emulator instance of the same game
+ * shares one image, and one {@link #getPrgArray()} and {@link #getChrTiles()} copy.
+ *
+ * <pre>
+ * 0-3   "NES" $1A
+ * 4     PRG-ROM size in 16K units
+ * 5     CHR-ROM size in 8K units, 0 means CHR-RAM
+ * 6     mapper low nibble, 4-screen, trainer, battery, mirroring
+ * 7     mapper high nibble
+ * 16    512 byte trainer if present, then PRG, then CHR
+ * </pre>
+ */
+public final class RomImage {
+
+    public enum Mirroring {
+        HORIZONTAL,
+        VERTICAL,
+        FOUR_SCREEN,
+    }
+
+    public static final int HEADER_SIZE = 16;
+    public static final int TRAINER_SIZE = 512;
+    public static final int PRG_BANK_SIZE = 0x4000;
+    public static final int CHR_BANK_SIZE = 0x2000;
+
+    private static final ConcurrentHashMap<Path, RomImage> cache = new ConcurrentHashMap<>();
+
+    private final Path path;
+    private final ByteBuffer file;
+    private final int prgBanks;
+    private final int chrBanks;
+    private final int mapper;
+    private final Mirroring mirroring;
+    private final boolean battery;
+    private final int prgOffset;
+    private final int chrOffset;
+
+    private volatile byte[] prgArray;
+    private volatile byte[] chrArray;
+    private volatile TileCache chrTiles;
+
+    private RomImage(Path path, ByteBuffer file) throws IOException {
+        this.path = path;
+        this.file = file;
+
+        if (file.limit() < HEADER_SIZE
+                || file.get(0) != 'N' || file.get(1) != 'E' || file.get(2) != 'S' || file.get(3) != 0x1A)
+            throw new IOException("Not an iNES file: " + path);
+
+        final int flags6 = file.get(6) & 0xFF;
+        final int flags7 = file.get(7) & 0xFF;
+        prgBanks = file.get(4) & 0xFF;
+        chrBanks = file.get(5) & 0xFF;
+        mapper = (flags7 & 0xF0) | (flags6 >>> 4);
+        battery = (flags6 & 0x02) != 0;
+        if ((flags6 & 0x08) != 0) mirroring = Mirroring.FOUR_SCREEN;
+        else if ((flags6 & 0x01) != 0) mirroring = Mirroring.VERTICAL;
+        else mirroring = Mirroring.HORIZONTAL;
+
+        prgOffset = HEADER_SIZE + ((flags6 & 0x04) != 0 ? TRAINER_SIZE : 0);
+        chrOffset = prgOffset + prgBanks * PRG_BANK_SIZE;
+        if (prgBanks == 0 || chrOffset + chrBanks * CHR_BANK_SIZE > file.limit())
+            throw new IOException("Truncated iNES file: " + path + " PRG=" + prgBanks + " CHR=" + chrBanks);
+    }
+
+    /**
+     * Map the file, or return the image already mapped for it.
+     */
+    public static RomImage open(Path path) throws IOException {
+        final Path key = path.toRealPath();
+        RomImage image = cache.get(key);
+        if (image == null) {
+            image = map(key);
+            RomImage prev = cache.putIfAbsent(key, image);
+            if (prev != null)
+                image = prev;
+        }
+        return image;
+    }
+
+    /**
+     * Map the file without the cache.
+     */
+    public static RomImage map(Path path) throws IOException {
+        try (FileChannel ch = FileChannel.open(path, StandardOpenOption.READ)) {
+            // the mapping stays valid after the channel is closed
+            return new RomImage(path, ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size()));
+        }
+    }
+
+    /**
+     * Wrap an image already in memory, e.g. one built by a test program.
+     */
+    public static RomImage wrap(byte[] data) throws IOException {
+        return new RomImage(null, ByteBuffer.wrap(data).asReadOnlyBuffer());
+    }
+
+    /**
+     * Forget cached images, so the next {@link #open(Path)} maps the file again.
+     */
+    public static void clearCache() {
+        cache.clear();
+    }
+
+    /**
+     * @return real path of the file, null if wrapped
+     */
+    public Path getPath() {
+        return path;
+    }
+
+    public int getMapper() {
+        return mapper;
+    }
+
+    public Mirroring getMirroring() {
+        return mirroring;
+    }
+
+    public boolean hasBattery() {
+        return battery;
+    }
+
+    /**
+     * @return number of 16K PRG banks
+     */
+    public int getPrgBanks() {
+        return prgBanks;
+    }
+
+    /**
+     * @return number of 8K CHR banks, 0 if the board has CHR-RAM
+     */
+    public int getChrBanks() {
+        return chrBanks;
+    }
+
+    public int getPrgSize() {
+        return prgBanks * PRG_BANK_SIZE;
+    }
+
+    public int getChrSize() {
+        return chrBanks * CHR_BANK_SIZE;
+    }
+
+    /**
+     * @return read-only view of the whole PRG-ROM, with its own position
+     */
+    public ByteBuffer getPrg() {
+        return view(prgOffset, getPrgSize());
+    }
+
+    /**
+     * @return read-only view of the whole CHR-ROM, empty with CHR-RAM
+     */
+    public ByteBuffer getChr() {
+        return view(chrOffset, getChrSize());
+    }
+
+    /**
+     * @return read-only view of a 16K PRG bank
+     */
+    public ByteBuffer getPrgBank(int bank) {
+        if (bank < 0 || bank >= prgBanks)
+            throw new IndexOutOfBoundsException("PRG bank=" + bank + " of " + prgBanks);
+        return view(prgOffset + bank * PRG_BANK_SIZE, PRG_BANK_SIZE);
+    }
+
+    /**
+     * @return read-only view of an 8K CHR bank
+     */
+    public ByteBuffer getChrBank(int bank) {
+        if (bank < 0 || bank >= chrBanks)
+            throw new IndexOutOfBoundsException("CHR bank=" + bank + " of " + chrBanks);
+        return view(chrOffset + bank * CHR_BANK_SIZE, CHR_BANK_SIZE);
+    }
+
+    /**
+     * PRG-ROM as an array, for the page table of {@link io.famiemu.memory.MemoryBus}.
+     * Copied from the mapping once per image and shared by every caller, so it must not be written.
+     */
+    public byte[] getPrgArray() {
+        byte[] prg = prgArray;
+        if (prg == null) {
+            synchronized (this) {
+                prg = prgArray;
+                if (prg == null) {
+                    prg = new byte[getPrgSize()];
+                    getPrg().get(prg);
+                    prgArray = prg;
+                }
+            }
+        }
+        return prg;
+    }
+
+    /**
+     * CHR-ROM as an array, for the pattern tables of {@link io.famiemu.ppu.PictureProcessor}.
+     * Shared like {@link #getPrgArray()}, empty with CHR-RAM.
+     */
+    public byte[] getChrArray() {
+        byte[] chr = chrArray;
+        if (chr == null) {
+            synchronized (this) {
+                chr = chrArray;
+                if (chr == null) {
+                    chr = new byte[getChrSize()];
+                    getChr().get(chr);
+                    chrArray = chr;
+                }
+            }
+        }
+        return chr;
+    }
+
+    /**
+     * CHR-ROM decoded for the PPU, once per image and shared like {@link #getChrArray()}.
+     */
+    public TileCache getChrTiles() {
+        TileCache tiles = chrTiles;
+        if (tiles == null) {
+            synchronized (this) {
+                tiles = chrTiles;
+                if (tiles == null) {
+                    tiles = TileCache.forRom(getChrArray());
+                    chrTiles = tiles;
+                }
+            }
+        }
+        return tiles;
+    }
+
+    private ByteBuffer view(int offset, int size) {
+        ByteBuffer buf = file.duplicate();
+        buf.position(offset);
+        buf.limit(offset + size);
+        return buf.slice().asReadOnlyBuffer();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s mapper=%d PRG=%dK CHR=%dK %s%s",
+                path, mapper, getPrgSize() / 1024, getChrSize() / 1024, mirroring, battery ? " battery" : "");
+    }
+}
@@ -0,0 +1,152 @@
+package io.famiemu.trace;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import static io.famiemu.trace.BinaryTraceSink.*;
+
+/**
+ * Streams the records of a {@link BinaryTraceSink} file through a fixed buffer,
+ * so traces of any length are read in constant memory.
+ *
+ * <pre>
+ * while (reader.next()) {
+ *     reader.pc() ...
+ * }
+ * </pre>
+ */
+public class BinaryTraceReader implements Closeable {
+
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    private final ReadableByteChannel in;
+    private final ByteBuffer buf = ByteBuffer.allocateDirect(BUFFER_SIZE).order(ORDER);
+    private long index = -1;
+
+    private int pc, code, lo, hi, a, x, y, p, sp, cycle;
+
+    public BinaryTraceReader(ReadableByteChannel in) throws IOException {
+        this.in = in;
+        buf.limit(0);
+        if (!fill(HEADER_SIZE))
+            throw new IOException("Not a binary trace: too short");
+        final int magic = buf.getInt();
+        final int version = buf.getShort();
+        final int recordSize = buf.getShort();
+        buf.position(buf.position() + HEADER_SIZE - 8);
+        if (magic != MAGIC || version != VERSION || recordSize != RECORD_SIZE)
+            throw new IOException(String.format("Unsupported binary trace magic=%08X version=%d record=%d",
+                    magic, version, recordSize));
+    }
+
+    public static BinaryTraceReader open(Path path) throws IOException {
+        return new BinaryTraceReader(FileChannel.open(path, StandardOpenOption.READ));
+    }
+
+    /**
+     * Advance to the next record.
+     *
+     * @return false at the end of the trace
+     */
+    public boolean next() throws IOException {
+        if (!fill(RECORD_SIZE))
+            return false;
+        pc = buf.getShort() & 0xFFFF;
+        code = buf.get() & 0xFF;
+        lo = buf.get() & 0xFF;
+        hi = buf.get() & 0xFF;
+        a = buf.get() & 0xFF;
+        x = buf.get() & 0xFF;
+        y = buf.get() & 0xFF;
+        p = buf.get() & 0xFF;
+        sp = buf.get() & 0xFF;
+        buf.getShort();
+        cycle = buf.getInt();
+        index++;
+        return true;
+    }
+
+    /**
+     * @return 0-based number of the current record
+     */
+    public long index() {
+        return index;
+    }
+
+    public int pc() {
+        return pc;
+    }
+
+    public int opcode() {
+        return code;
+    }
+
+    /**
+     * @return first byte after the opcode, whether the instruction uses it or not
+     */
+    public int lo() {
+        return lo;
+    }
+
+    public int hi() {
+        return hi;
+    }
+
+    public int a() {
+        return a;
+    }
+
+    public int x() {
+        return x;
+    }
+
+    public int y() {
+        return y;
+    }
+
+    public int p() {
+        return p;
+    }
+
+    public int sp() {
+        return sp;
+    }
+
+    public int cycle() {
+        return cycle;
+    }
+
+    /**
+     * Format the current record as a {@link TraceFormat} line, without a line break.
+     */
+    public StringBuilder formatLine(StringBuilder sb) {
+        return TraceFormat.formatLine(sb, pc, code, lo, hi, a, x, y, p, sp, cycle);
+    }
+
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+
+    /**
+     * @return false if the channel ended before n more bytes
+     */
+    private boolean fill(int n) throws IOException {
+        if (buf.remaining() >= n)
+            return true;
+        buf.compact();
+        while (buf.position() < n) {
+            if (in.read(buf) < 0) {
+                buf.flip();
+                return false;
+            }
+        }
+        buf.flip();
+        return true;
+    }
+}
@@ -0,0 +1,221 @@
+package io.famiemu.trace;
+
+import io.famiemu.AddressReader;
+import io.famiemu.cpu.Processor;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Records one fixed-width binary record per instruction, written to a channel by a background thread.
+ * <p></p>
+ * Records are filled into one of two direct buffers while the writer thread drains the other,
+ * so the emulation thread only waits when the disk can't keep up.
+ * {@link BinaryTraceReader} reads the file back, {@link TraceConverter} turns it into {@link TraceFormat} text.
+ *
+ * <pre>
+ * header, {@link #HEADER_SIZE} bytes
+ * 0   int    {@link #MAGIC}
+ * 4   short  {@link #VERSION}
+ * 6   short  {@link #RECORD_SIZE}
+ * 8          reserved
+ *
+ * record, {@link #RECORD_SIZE} bytes, little-endian
+ * 0   short  PC
+ * 2   byte   opcode, operand lo, operand hi
+ * 5   byte   A, X, Y, P, SP
+ * 10         reserved
+ * 12  int    cycle
+ * </pre>
+ */
+public class BinaryTraceSink implements TraceSink, Closeable {
+
+    /** "FTRC" */
+    public static final int MAGIC = 0x46545243;
+    public static final int VERSION = 1;
+    public static final int HEADER_SIZE = 16;
+    public static final int RECORD_SIZE = 16;
+
+    static final ByteOrder ORDER = ByteOrder.LITTLE_ENDIAN;
+
+    private static final int DEFAULT_BUFFER_SIZE = 1 << 20;
+    /** tells the writer thread to stop */
+    private static final ByteBuffer EOF = ByteBuffer.allocate(0);
+
+    private final WritableByteChannel out;
+    private final BlockingQueue<ByteBuffer> full = new ArrayBlockingQueue<>(2);
+    private final BlockingQueue<ByteBuffer> free = new ArrayBlockingQueue<>(2);
+    private final Thread writer;
+    private volatile IOException error;
+
+    /** buffer being filled */
+    private ByteBuffer buf;
+    private long count;
+    private boolean closed;
+
+    public BinaryTraceSink(WritableByteChannel out) {
+        this(out, DEFAULT_BUFFER_SIZE);
+    }
+
+    /**
+     * @param bufferSize size of each of the two buffers, rounded down to whole records
+     */
+    public BinaryTraceSink(WritableByteChannel out, int bufferSize) {
+        final int size = Math.max(1, bufferSize / RECORD_SIZE) * RECORD_SIZE;
+        this.out = out;
+        this.buf = ByteBuffer.allocateDirect(size).order(ORDER);
+        free.add(ByteBuffer.allocateDirect(size).order(ORDER));
+
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ORDER);
+        header.putInt(MAGIC).putShort((short) VERSION).putShort((short) RECORD_SIZE);
+        header.clear();
+        write(header);
+
+        writer = new Thread(this::drain, "trace-writer");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    public static BinaryTraceSink toFile(Path path) throws IOException {
+        return new BinaryTraceSink(FileChannel.open(path,
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING));
+    }
+
+    @Override
+    public void trace(Processor cpu) {
+        final AddressReader reader = cpu.getReader();
+        final int pc = cpu.programCounter;
+
+        ByteBuffer b = buf;
+        if (!b.hasRemaining())
+            b = swap();
+        b.putShort((short) pc);
+        b.put(reader.readByte(pc));
+        b.put(reader.readByte((pc + 1) & 0xFFFF));
+        b.put(reader.readByte((pc + 2) & 0xFFFF));
+        b.put((byte) cpu.accumulator);
+        b.put((byte) cpu.xIndex);
+        b.put((byte) cpu.yIndex);
+        b.put((byte) cpu.getStatus());
+        b.put((byte) cpu.stackPointer);
+        b.putShort((short) 0);
+        b.putInt(cpu.cycle);
+        count++;
+    }
+
+    /**
+     * @return number of instructions recorded
+     */
+    public long count() {
+        return count;
+    }
+
+    /**
+     * Hand the buffered records to the writer thread. Does not wait for them to reach the channel.
+     */
+    @Override
+    public void flush() {
+        if (buf.position() > 0)
+            swap();
+    }
+
+    /**
+     * Write everything buffered and close the channel.
+     * The writer thread is stopped and the channel closed even if writing failed,
+     * the error is thrown afterwards.
+     */
+    @Override
+    public void close() throws IOException {
+        if (closed)
+            return;
+        closed = true;
+        try {
+            flush();
+        } catch (UncheckedIOException e) {
+            // the writer already failed, thrown below once it is stopped
+        } finally {
+            try {
+                put(full, EOF);
+                writer.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                out.close();
+            }
+        }
+        if (error != null)
+            throw error;
+    }
+
+    /**
+     * Queue the filled buffer and continue in a free one.
+     */
+    private ByteBuffer swap() {
+        checkError();
+        buf.flip();
+        put(full, buf);
+        try {
+            buf = free.take();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(e);
+        }
+        checkError();
+        buf.clear();
+        return buf;
+    }
+
+    private void drain() {
+        try {
+            while (true) {
+                final ByteBuffer b = full.take();
+                if (b == EOF)
+                    return;
+                if (error == null) {
+                    try {
+                        write(b);
+                    } catch (UncheckedIOException e) {
+                        // keep draining, so the emulation thread is not blocked, and report on the next swap
+                        error = e.getCause();
+                    }
+                }
+                free.put(b);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void write(ByteBuffer b) {
+        try {
+            while (b.hasRemaining()) {
+                out.write(b);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private void checkError() {
+        if (error != null)
+            throw new UncheckedIOException(error);
+    }
+
+    private static void put(BlockingQueue<ByteBuffer> queue, ByteBuffer b) {
+        try {
+            queue.put(b);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(e);
+        }
+    }
+}
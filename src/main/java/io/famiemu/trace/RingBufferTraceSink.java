@@ -0,0 +1,93 @@
+package io.famiemu.trace;
+
+import io.famiemu.AddressReader;
+import io.famiemu.cpu.Processor;
+
+/**
+ * Keeps the last N instructions in memory, without formatting anything.
+ * Useful to dump the history when something goes wrong.
+ */
+public class RingBufferTraceSink implements TraceSink {
+
+    private final int mask;
+
+    /** PC | opcode << 16 | ... packed per entry, see {@link #trace(Processor)} */
+    private final long[] codes;
+    /** A | X << 8 | Y << 16 | P << 24 | SP << 32 */
+    private final long[] registers;
+    private final long[] cycles;
+
+    private long count;
+
+    /**
+     * @param capacity rounded up to a power of 2
+     */
+    public RingBufferTraceSink(int capacity) {
+        if (capacity <= 0)
+            throw new IllegalArgumentException("capacity=" + capacity);
+        int size = Integer.highestOneBit(capacity);
+        if (size < capacity) size <<= 1;
+
+        this.mask = size - 1;
+        this.codes = new long[size];
+        this.registers = new long[size];
+        this.cycles = new long[size];
+    }
+
+    @Override
+    public void trace(Processor cpu) {
+        final AddressReader reader = cpu.getReader();
+        final int pc = cpu.programCounter;
+        final int i = (int) (count++) & mask;
+
+        codes[i] = pc
+                | (long) reader.readU8(pc) << 16
+                | (long) reader.readU8((pc + 1) & 0xFFFF) << 24
+                | (long) reader.readU8((pc + 2) & 0xFFFF) << 32;
+        registers[i] = cpu.accumulator
+                | cpu.xIndex << 8
+                | cpu.yIndex << 16
+                | (long) cpu.getStatus() << 24
+                | (long) cpu.stackPointer << 32;
+        cycles[i] = cpu.cycle;
+    }
+
+    public int capacity() {
+        return mask + 1;
+    }
+
+    /**
+     * @return number of entries currently held
+     */
+    public int size() {
+        return (int) Math.min(count, capacity());
+    }
+
+    /**
+     * @return total number of instructions traced since creation or {@link #clear()}
+     */
+    public long count() {
+        return count;
+    }
+
+    public void clear() {
+        count = 0;
+    }
+
+    /**
+     * Format the held entries, oldest first, one line per instruction.
+     */
+    public StringBuilder dump(StringBuilder sb) {
+        for (long n = count - size(); n < count; n++) {
+            int i = (int) n & mask;
+            long c = codes[i];
+            long r = registers[i];
+            TraceFormat.formatLine(sb,
+                    (int) (c & 0xFFFF), (int) (c >>> 16) & 0xFF, (int) (c >>> 24) & 0xFF, (int) (c >>> 32) & 0xFF,
+                    (int) r & 0xFF, (int) (r >>> 8) & 0xFF, (int) (r >>> 16) & 0xFF,
+                    (int) (r >>> 24) & 0xFF, (int) (r >>> 32) & 0xFF, cycles[i]);
+            sb.append('\n');
+        }
+        return sb;
+    }
+}
@@ -0,0 +1,72 @@
+package io.famiemu.trace;
+
+import io.famiemu.AddressReader;
+import io.famiemu.cpu.Processor;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Writes one {@link TraceFormat} text line per instruction through a buffered writer.
+ */
+public class TextTraceSink implements TraceSink, Closeable {
+
+    private final Writer out;
+    private final StringBuilder sb = new StringBuilder(80);
+    private char[] chars = new char[80];
+
+    public TextTraceSink(Writer out) {
+        this.out = out instanceof BufferedWriter ? out : new BufferedWriter(out, 1 << 16);
+    }
+
+    public static TextTraceSink toFile(Path path) throws IOException {
+        return new TextTraceSink(Files.newBufferedWriter(path, StandardCharsets.US_ASCII));
+    }
+
+    public static TextTraceSink toStdout() {
+        return new TextTraceSink(new OutputStreamWriter(System.out, StandardCharsets.US_ASCII));
+    }
+
+    @Override
+    public void trace(Processor cpu) {
+        final AddressReader reader = cpu.getReader();
+        final int pc = cpu.programCounter;
+
+        sb.setLength(0);
+        TraceFormat.formatLine(sb, pc,
+                reader.readU8(pc), reader.readU8((pc + 1) & 0xFFFF), reader.readU8((pc + 2) & 0xFFFF),
+                cpu.accumulator, cpu.xIndex, cpu.yIndex, cpu.getStatus(), cpu.stackPointer, cpu.cycle);
+        sb.append('\n');
+
+        // copy out of the builder, Writer.append(CharSequence) would allocate a String
+        final int len = sb.length();
+        if (chars.length < len) chars = new char[len];
+        sb.getChars(0, len, chars, 0);
+        try {
+            out.write(chars, 0, len);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public void flush() {
+        try {
+            out.flush();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        out.close();
+    }
+}
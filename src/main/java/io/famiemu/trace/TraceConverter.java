@@ -0,0 +1,54 @@
+package io.famiemu.trace;
+
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+/**
+ * Offline tool: converts a {@link BinaryTraceSink} file to the nestest-style text of {@link TraceFormat}.
+ *
+ * <pre>TraceConverter trace.bin [trace.log]</pre>
+ * Writes to stdout without an output file.
+ */
+public class TraceConverter {
+
+    /**
+     * @return number of records converted
+     */
+    public static long convert(BinaryTraceReader in, Writer out) throws IOException {
+        final StringBuilder sb = new StringBuilder(80);
+        char[] chars = new char[80];
+        long n = 0;
+        while (in.next()) {
+            sb.setLength(0);
+            in.formatLine(sb).append('\n');
+
+            final int len = sb.length();
+            if (chars.length < len) chars = new char[len];
+            sb.getChars(0, len, chars, 0);
+            out.write(chars, 0, len);
+            n++;
+        }
+        out.flush();
+        return n;
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1 || args.length > 2) {
+            System.err.println("usage: TraceConverter trace.bin [trace.log]");
+            System.exit(2);
+        }
+
+        final Path input = Paths.get(args[0]);
+        try (BinaryTraceReader in = BinaryTraceReader.open(input);
+             Writer out = args.length > 1
+                     ? Files.newBufferedWriter(Paths.get(args[1]), StandardCharsets.US_ASCII)
+                     : new OutputStreamWriter(System.out, StandardCharsets.US_ASCII)) {
+            convert(in, out);
+        }
+    }
+}
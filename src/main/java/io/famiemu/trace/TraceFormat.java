@@ -0,0 +1,86 @@
+package io.famiemu.trace;
+
+import io.famiemu.cpu.AddressingMode;
+import io.famiemu.cpu.OP;
+
+import static io.famiemu.util.ByteUtils.*;
+
+/**
+ * nestest-style text line, e.g.
+ * <pre>C000  4C F5 C5  JMP $C5F5                       A:00 X:00 Y:00 P:24 SP:FD CYC:7</pre>
+ */
+public class TraceFormat {
+
+    /** column where the register dump starts */
+    public static final int REGISTER_COLUMN = 48;
+
+    public static StringBuilder formatLine(StringBuilder sb, int pc, int code, int lo, int hi,
+                                           int a, int x, int y, int p, int sp, long cycle) {
+        int start = sb.length();
+        formatInstruction(sb, pc, code, lo, hi);
+        while (sb.length() - start < REGISTER_COLUMN) sb.append(' ');
+        return formatRegisters(sb, a, x, y, p, sp, cycle);
+    }
+
+    /**
+     * Address, raw bytes, mnemonic and operand of the instruction.
+     */
+    public static StringBuilder formatInstruction(StringBuilder sb, int pc, int code, int lo, int hi) {
+        int start = sb.length();
+        formatHex16(sb, pc).append("  ");
+
+        OP op = OP.lookup(code);
+        int bytes = op == null ? 1 : op.Bytes();
+        formatHex8(sb, code);
+        if (bytes > 1) formatHex8(sb.append(' '), lo);
+        if (bytes > 2) formatHex8(sb.append(' '), hi);
+        while (sb.length() - start < 16) sb.append(' ');
+
+        if (op == null) {
+            return sb.append("???");
+        }
+        sb.append(op.Inst().name());
+        return formatOperand(sb, op.Mode(), pc, lo, hi);
+    }
+
+    public static StringBuilder formatOperand(StringBuilder sb, AddressingMode mode, int pc, int lo, int hi) {
+        switch (mode) {
+            case Accumulator:
+                return sb.append(" A");
+            case Immediate:
+                return formatHex$8(sb.append(" #"), lo);
+            case ZeroPage:
+                return formatHex$8(sb.append(' '), lo);
+            case ZeroPageX:
+                return formatHex$8(sb.append(' '), lo).append(",X");
+            case ZeroPageY:
+                return formatHex$8(sb.append(' '), lo).append(",Y");
+            case Absolute:
+                return formatHex$16(sb.append(' '), toAddress16(lo, hi));
+            case AbsoluteX:
+                return formatHex$16(sb.append(' '), toAddress16(lo, hi)).append(",X");
+            case AbsoluteY:
+                return formatHex$16(sb.append(' '), toAddress16(lo, hi)).append(",Y");
+            case Indirect:
+                return formatHex$16(sb.append(" ("), toAddress16(lo, hi)).append(')');
+            case IndirectX:
+                return formatHex$8(sb.append(" ("), lo).append(",X)");
+            case IndirectY:
+                return formatHex$8(sb.append(" ("), lo).append("),Y");
+            case Relative:
+                // target is relative to the next instruction
+                return formatHex$16(sb.append(' '), (pc + 2 + (byte) lo) & 0xFFFF);
+            default:
+                return sb;
+        }
+    }
+
+    public static StringBuilder formatRegisters(StringBuilder sb, int a, int x, int y, int p, int sp, long cycle) {
+        formatHex8(sb.append("A:"), a);
+        formatHex8(sb.append(" X:"), x);
+        formatHex8(sb.append(" Y:"), y);
+        formatHex8(sb.append(" P:"), p);
+        formatHex8(sb.append(" SP:"), sp);
+        return sb.append(" CYC:").append(cycle);
+    }
+}
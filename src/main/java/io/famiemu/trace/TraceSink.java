@@ -0,0 +1,22 @@
+package io.famiemu.trace;
+
+import io.famiemu.cpu.Processor;
+
+/**
+ * Receives the processor state before each instruction is executed.
+ * <p></p>
+ * The processor only calls a sink when one is installed,
+ * so running without a sink costs a single null check per instruction.
+ */
+public interface TraceSink {
+
+    /** Sink that drops everything. Installing it is the same as turning tracing off. */
+    TraceSink NONE = cpu -> {};
+
+    /**
+     * Called before the instruction at {@link Processor#programCounter} is executed.
+     */
+    void trace(Processor cpu);
+
+    default void flush() {}
+}
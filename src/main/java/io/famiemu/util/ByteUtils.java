@@ -1,9 +1,13 @@
 package io.famiemu.util;
 
-import static java.lang.String.format;
-
+/**
+ * Hex writers look up each nibble in a table and append straight into the destination,
+ * without String.format, so formatting a trace line allocates nothing.
+ */
 public class ByteUtils {
 
+    private static final char[] HEX = "0123456789ABCDEF".toCharArray();
+
     public static int uint(byte b) {
         return b & 0xFF;
     }
@@ -13,24 +17,52 @@ public class ByteUtils {
     }
 
     public static StringBuilder formatHex$16(StringBuilder sb, int value) {
-        sb.append(format("$%04X", value));
-        return sb;
+        return formatHex16(sb.append('$'), value);
     }
 
     public static StringBuilder formatHex$8(StringBuilder sb, int value) {
-        sb.append(format("$%02X", value));
-        return sb;
+        return formatHex8(sb.append('$'), value);
     }
 
     public static StringBuilder formatHex16(StringBuilder sb, int value) {
-        sb.append(format("%04X", value));
-        return sb;
+        return formatHex8(formatHex8(sb, value >>> 8), value);
     }
 
     public static StringBuilder formatHex8(StringBuilder sb, int value) {
-        sb.append(format("%02X", value));
-        return sb;
+        return sb.append(HEX[(value >>> 4) & 0xF]).append(HEX[value & 0xF]);
+    }
+
+    /**
+     * @return position after the 2 digits
+     */
+    public static int writeHex8(char[] buf, int pos, int value) {
+        buf[pos] = HEX[(value >>> 4) & 0xF];
+        buf[pos + 1] = HEX[value & 0xF];
+        return pos + 2;
     }
 
+    /**
+     * @return position after the 4 digits
+     */
+    public static int writeHex16(char[] buf, int pos, int value) {
+        return writeHex8(buf, writeHex8(buf, pos, value >>> 8), value);
+    }
+
+    /**
+     * ASCII digits, e.g. into a direct buffer of an output channel.
+     *
+     * @return position after the 2 digits
+     */
+    public static int writeHex8(byte[] buf, int pos, int value) {
+        buf[pos] = (byte) HEX[(value >>> 4) & 0xF];
+        buf[pos + 1] = (byte) HEX[value & 0xF];
+        return pos + 2;
+    }
 
+    /**
+     * @return position after the 4 digits
+     */
+    public static int writeHex16(byte[] buf, int pos, int value) {
+        return writeHex8(buf, writeHex8(buf, pos, value >>> 8), value);
+    }
 }
@@ -1,5 +1,7 @@
 package io.famiemu.util;
 
+import io.famiemu.rom.RomImage;
+
 import java.io.File;
 import java.io.IOException;
 import java.nio.file.Files;
@@ -12,9 +14,17 @@ public class RomUtils {
         return Paths.get("rom", name);
     }
 
+    /**
+     * Read a private heap copy of the whole file.
+     * Prefer {@link #openRom(String)}, which shares one mapped image between instances.
+     */
     public static byte[] readRomBytes(String name) throws IOException {
         return Files.readAllBytes(findRom(name));
     }
 
+    public static RomImage openRom(String name) throws IOException {
+        return RomImage.open(findRom(name));
+    }
+
 
 }
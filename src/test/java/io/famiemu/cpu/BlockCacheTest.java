@@ -0,0 +1,59 @@
+package io.famiemu.cpu;
+
+import io.famiemu.Machine;
+import io.famiemu.mapper.Uxrom;
+import io.famiemu.rom.InesBuilder;
+import io.famiemu.rom.RomImage;
+import org.junit.Test;
+
+import java.io.IOException;
+
+import static org.junit.Assert.*;
+
+public class BlockCacheTest {
+
+    private static final int PRG_BANKS = 4;
+
+    /**
+     * UxROM: bank 0 and 1 at $8000 share code up to a bank switch to 1, then bank 0 counts in $10 and bank 1 in $11.
+     * The fixed bank at $C000 switches back to bank 0 and loops.
+     */
+    private static RomImage bankSwitchingImage() throws IOException {
+        final InesBuilder image = new InesBuilder(Uxrom.NUMBER, PRG_BANKS, 0);
+        for (int bank = 0; bank < 2; bank++) {
+            image.put(bank, 0x8000,
+                    0xA9, 0x01,         // LDA #1
+                    0x8D, 0x00, 0x80,   // STA $8000, switch to bank 1
+                    0xE6, 0x10 + bank,  // INC $10 in bank 0, INC $11 in bank 1
+                    0x4C, 0x00, 0xC0);  // JMP $C000
+        }
+        return image
+                .put(PRG_BANKS - 1, 0xC000,
+                        0xA9, 0x00,             // LDA #0
+                        0x8D, 0x00, 0xC0,       // STA $C000, switch to bank 0
+                        0x4C, 0x00, 0x80)       // JMP $8000
+                .put(PRG_BANKS - 1, 0xFFFC, 0x00, 0xC0)
+                .build();
+    }
+
+    private static void assertRunsSwitchedBank(int jitThreshold) throws IOException {
+        final Machine machine = new Machine(bankSwitchingImage());
+        machine.useBlockCache(jitThreshold);
+        machine.reset();
+        for (int frame = 0; frame < 3; frame++) {
+            machine.runFrame();
+            assertEquals("code of bank 0 run after the switch", 0, machine.getBus().readU8(0x10));
+            assertNotEquals("code of bank 1 never run", 0, machine.getBus().readU8(0x11));
+        }
+    }
+
+    @Test
+    public void replayStopsAtBankSwitch() throws IOException {
+        assertRunsSwitchedBank(0);
+    }
+
+    @Test
+    public void compiledBlockStopsAtBankSwitch() throws IOException {
+        assertRunsSwitchedBank(1);
+    }
+}
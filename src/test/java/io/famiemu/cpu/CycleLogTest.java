@@ -0,0 +1,77 @@
+package io.famiemu.cpu;
+
+import io.famiemu.memory.MemoryBus;
+import io.famiemu.trace.TextTraceSink;
+import org.junit.Test;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Runs the program of a nestest-style reference log on {@link Processor} and compares every traced line.
+ * <p></p>
+ * page-cross-cycles.log covers LDA abs,X / abs,Y / (zp),Y without and with a page crossing,
+ * stores and INC on crossing addresses, which take no penalty,
+ * and branches not taken, taken, and taken across a page forward and backward.
+ */
+public class CycleLogTest {
+
+    private static final String LOG = "page-cross-cycles.log";
+    private static final int ORIGIN = 0xC000;
+
+    private static List<String> readLog() throws IOException {
+        final List<String> lines = new ArrayList<>();
+        try (BufferedReader in = new BufferedReader(new InputStreamReader(
+                CycleLogTest.class.getResourceAsStream(LOG), StandardCharsets.US_ASCII))) {
+            for (String line = in.readLine(); line != null; line = in.readLine()) {
+                lines.add(line);
+            }
+        }
+        return lines;
+    }
+
+    @Test
+    public void cyclesMatchReferenceLog() throws IOException {
+        final List<String> expected = readLog();
+
+        // the program is the address and raw bytes of each line
+        final byte[] prg = new byte[0x4000];
+        for (String line : expected) {
+            final int pc = Integer.parseInt(line.substring(0, 4), 16);
+            final String[] bytes = line.substring(6, 14).trim().split(" ");
+            for (int i = 0; i < bytes.length; i++) {
+                prg[pc - ORIGIN + i] = (byte) Integer.parseInt(bytes[i], 16);
+            }
+        }
+        final MemoryBus bus = new MemoryBus();
+        bus.map(ORIGIN, prg.length, prg, 0, false);
+
+        final Processor cpu = new Processor(bus, bus);
+        cpu.programCounter = ORIGIN;
+        cpu.stackPointer = 0xFD;
+        cpu.setStatus(0x24);
+        // the reset sequence, as in nestest.log
+        cpu.cycle = 7;
+
+        final StringWriter out = new StringWriter();
+        final TextTraceSink sink = new TextTraceSink(out);
+        cpu.setTraceSink(sink);
+        for (int i = 0; i < expected.size(); i++) {
+            cpu.singleStep();
+        }
+        sink.flush();
+
+        final String[] actual = out.toString().split("\n");
+        assertEquals("lines", expected.size(), actual.length);
+        for (int i = 0; i < actual.length; i++) {
+            assertEquals("line " + (i + 1), expected.get(i), actual[i]);
+        }
+    }
+}
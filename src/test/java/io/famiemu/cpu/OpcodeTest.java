@@ -0,0 +1,607 @@
+package io.famiemu.cpu;
+
+import io.famiemu.memory.MemoryBus;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static io.famiemu.cpu.AddressingMode.*;
+import static org.junit.Assert.*;
+
+/**
+ * Every opcode of the {@link OP} table in every variant of its addressing mode, checked against a plain 6502 model:
+ * registers, N/Z/C/V and the other status bits, RAM, and cycles with the page crossing and taken branch penalties.
+ * Runs on {@link Processor}, {@link DispatchTable} and {@link BlockCache}.
+ * <p></p>
+ * The model decodes opcodes from their bit fields and takes base cycles from the published NMOS table,
+ * so a wrong entry in {@link OP} shows up as a difference instead of being copied into the expectation.
+ */
+public class OpcodeTest {
+
+    /** NMOS 6502 base cycles, 0 for codes that are not official */
+    private static final int[] CYCLES = {
+            7, 6, 0, 0, 0, 3, 5, 0, 3, 2, 2, 0, 0, 4, 6, 0,
+            2, 5, 0, 0, 0, 4, 6, 0, 2, 4, 0, 0, 0, 4, 7, 0,
+            6, 6, 0, 0, 3, 3, 5, 0, 4, 2, 2, 0, 4, 4, 6, 0,
+            2, 5, 0, 0, 0, 4, 6, 0, 2, 4, 0, 0, 0, 4, 7, 0,
+            6, 6, 0, 0, 0, 3, 5, 0, 3, 2, 2, 0, 3, 4, 6, 0,
+            2, 5, 0, 0, 0, 4, 6, 0, 2, 4, 0, 0, 0, 4, 7, 0,
+            6, 6, 0, 0, 0, 3, 5, 0, 4, 2, 2, 0, 5, 4, 6, 0,
+            2, 5, 0, 0, 0, 4, 6, 0, 2, 4, 0, 0, 0, 4, 7, 0,
+            0, 6, 0, 0, 3, 3, 3, 0, 2, 0, 2, 0, 4, 4, 4, 0,
+            2, 6, 0, 0, 4, 4, 4, 0, 2, 5, 2, 0, 0, 5, 0, 0,
+            2, 6, 2, 0, 3, 3, 3, 0, 2, 2, 2, 0, 4, 4, 4, 0,
+            2, 5, 0, 0, 4, 4, 4, 0, 2, 4, 2, 0, 4, 4, 4, 0,
+            2, 6, 0, 0, 3, 3, 5, 0, 2, 2, 2, 0, 4, 4, 6, 0,
+            2, 5, 0, 0, 0, 4, 6, 0, 2, 4, 0, 0, 0, 4, 7, 0,
+            2, 6, 0, 0, 3, 3, 5, 0, 2, 2, 2, 0, 4, 4, 6, 0,
+            2, 5, 0, 0, 0, 4, 6, 0, 2, 4, 0, 0, 0, 4, 7, 0,
+    };
+
+    /** addressing modes of the group 1 codes (xxxbbb01) by bbb */
+    private static final AddressingMode[] GROUP1 = {
+            IndirectX, ZeroPage, Immediate, Absolute, IndirectY, ZeroPageX, AbsoluteY, AbsoluteX,
+    };
+
+    private static final int C = 0x01, Z = 0x02, I = 0x04, D = 0x08, B = 0x10, U = 0x20, V = 0x40, N = 0x80;
+
+    /** register and operand inputs, around the sign and zero boundaries */
+    private static final int[] VALUES = {0x00, 0x01, 0x7F, 0x80, 0xFF};
+    /** status inputs: I, I + C, D + I + C, everything but B */
+    private static final int[] STATUS = {U | I, U | I | C, U | D | I | C, 0xFF & ~B};
+
+    private static final int ORIGIN = 0x8000;
+    private static final int BRK_TARGET = 0x9000;
+    private static final int MAX_REPORTED = 20;
+
+    /**
+     * Plain NMOS 6502 without decimal mode on a flat 64K, with all flags in one status byte.
+     */
+    static final class Model {
+        final byte[] mem = new byte[0x10000];
+        int pc, a, x, y, sp, p, cycles;
+
+        static AddressingMode mode(int code) {
+            if (CYCLES[code] == 0)
+                return Unknown;
+            switch (code) {
+                case 0x20: return Absolute;
+                case 0x6C: return Indirect;
+                case 0x0A: case 0x2A: case 0x4A: case 0x6A: return Accumulator;
+                default: break;
+            }
+            if ((code & 0x1F) == 0x10)
+                return Relative;
+
+            final int cc = code & 3, bbb = (code >>> 2) & 7, aaa = code >>> 5;
+            if (cc == 1)
+                return GROUP1[bbb];
+            // STX and LDX index with Y
+            final boolean indexY = cc == 2 && (aaa == 4 || aaa == 5);
+            switch (bbb) {
+                case 0: return cc == 0 && aaa < 4 ? Implied : Immediate;
+                case 1: return ZeroPage;
+                case 3: return Absolute;
+                case 5: return indexY ? ZeroPageY : ZeroPageX;
+                case 7: return cc == 2 && aaa == 5 ? AbsoluteY : AbsoluteX;
+                default: return Implied;
+            }
+        }
+
+        static int length(AddressingMode mode) {
+            switch (mode) {
+                case Implied:
+                case Accumulator:
+                    return 1;
+                case Absolute:
+                case AbsoluteX:
+                case AbsoluteY:
+                case Indirect:
+                    return 3;
+                default:
+                    return 2;
+            }
+        }
+
+        int read(int address) {
+            return mem[address & 0xFFFF] & 0xFF;
+        }
+
+        void write(int address, int value) {
+            mem[address & 0xFFFF] = (byte) value;
+        }
+
+        int read16(int address) {
+            return read(address) | read(address + 1) << 8;
+        }
+
+        boolean is(int flag) {
+            return (p & flag) != 0;
+        }
+
+        void flag(int flag, boolean on) {
+            p = on ? p | flag : p & ~flag;
+        }
+
+        int nz(int value) {
+            value &= 0xFF;
+            flag(Z, value == 0);
+            flag(N, value >= 0x80);
+            return value;
+        }
+
+        void push(int value) {
+            write(0x100 | sp, value);
+            sp = (sp - 1) & 0xFF;
+        }
+
+        int pull() {
+            sp = (sp + 1) & 0xFF;
+            return read(0x100 | sp);
+        }
+
+        void compare(int register, int value) {
+            flag(C, register >= value);
+            nz(register - value);
+        }
+
+        void adc(int value) {
+            final int carry = is(C) ? 1 : 0;
+            final int signed = (byte) a + (byte) value + carry;
+            final int sum = a + value + carry;
+            flag(C, sum > 0xFF);
+            flag(V, signed < -128 || signed > 127);
+            a = nz(sum);
+        }
+
+        void sbc(int value) {
+            final int borrow = is(C) ? 0 : 1;
+            final int signed = (byte) a - (byte) value - borrow;
+            final int diff = a - value - borrow;
+            flag(C, diff >= 0);
+            flag(V, signed < -128 || signed > 127);
+            a = nz(diff);
+        }
+
+        void step() {
+            final int code = read(pc);
+            final AddressingMode mode = mode(code);
+            if (mode == Unknown)
+                throw new IllegalStateException("Not an official code " + code);
+            cycles += CYCLES[code];
+
+            final int next = (pc + length(mode)) & 0xFFFF;
+            int address = -1;
+            boolean crossed = false;
+            switch (mode) {
+                case Immediate: address = pc + 1; break;
+                case ZeroPage: address = read(pc + 1); break;
+                case ZeroPageX: address = (read(pc + 1) + x) & 0xFF; break;
+                case ZeroPageY: address = (read(pc + 1) + y) & 0xFF; break;
+                case Absolute: address = read16(pc + 1); break;
+                case AbsoluteX:
+                case AbsoluteY:
+                case IndirectY: {
+                    final int base = mode == IndirectY
+                            ? read(read(pc + 1)) | read((read(pc + 1) + 1) & 0xFF) << 8
+                            : read16(pc + 1);
+                    address = (base + (mode == AbsoluteX ? x : y)) & 0xFFFF;
+                    crossed = (base & 0xFF00) != (address & 0xFF00);
+                    break;
+                }
+                case Indirect: {
+                    // the high byte does not carry into the next page
+                    final int pointer = read16(pc + 1);
+                    address = read(pointer) | read((pointer & 0xFF00) | ((pointer + 1) & 0xFF)) << 8;
+                    break;
+                }
+                case IndirectX: {
+                    final int pointer = (read(pc + 1) + x) & 0xFF;
+                    address = read(pointer) | read((pointer + 1) & 0xFF) << 8;
+                    break;
+                }
+                case Relative: address = (next + (byte) read(pc + 1)) & 0xFFFF; break;
+                default: break;
+            }
+            pc = next;
+            final int m = address < 0 ? 0 : read(address);
+            final int carry = is(C) ? 1 : 0;
+
+            switch (code) {
+                case 0x00: push((next + 1) >>> 8); push(next + 1); push(p | B | U); flag(I, true); pc = read16(0xFFFE); return;
+                case 0x20: push((next - 1) >>> 8); push(next - 1); pc = address; return;
+                case 0x40: { p = (pull() & ~B) | U; final int lo = pull(); pc = lo | pull() << 8; return; }
+                case 0x60: { final int lo = pull(); pc = ((lo | pull() << 8) + 1) & 0xFFFF; return; }
+                case 0x08: push(p | B | U); return;
+                case 0x28: p = (pull() & ~B) | U; return;
+                case 0x48: push(a); return;
+                case 0x68: a = nz(pull()); return;
+                case 0x88: y = nz(y - 1); return;
+                case 0xA8: y = nz(a); return;
+                case 0xC8: y = nz(y + 1); return;
+                case 0xE8: x = nz(x + 1); return;
+                case 0x18: flag(C, false); return;
+                case 0x38: flag(C, true); return;
+                case 0x58: flag(I, false); return;
+                case 0x78: flag(I, true); return;
+                case 0x98: a = nz(y); return;
+                case 0xB8: flag(V, false); return;
+                case 0xD8: flag(D, false); return;
+                case 0xF8: flag(D, true); return;
+                case 0x8A: a = nz(x); return;
+                case 0x9A: sp = x; return;
+                case 0xAA: x = nz(a); return;
+                case 0xBA: x = nz(sp); return;
+                case 0xCA: x = nz(x - 1); return;
+                case 0xEA: return;
+                default: break;
+            }
+
+            if (mode == Relative) {
+                // N, V, C, Z by the top two bits, branch if the flag equals bit 5
+                final int flag = new int[]{N, V, C, Z}[code >>> 6];
+                if (is(flag) == ((code & 0x20) != 0)) {
+                    cycles += (next & 0xFF00) != (address & 0xFF00) ? 2 : 1;
+                    pc = address;
+                }
+                return;
+            }
+
+            final int aaa = code >>> 5;
+            switch (code & 3) {
+                case 1:
+                    if (crossed && aaa != 4)
+                        cycles++;
+                    switch (aaa) {
+                        case 0: a = nz(a | m); break;
+                        case 1: a = nz(a & m); break;
+                        case 2: a = nz(a ^ m); break;
+                        case 3: adc(m); break;
+                        case 4: write(address, a); break;
+                        case 5: a = nz(m); break;
+                        case 6: compare(a, m); break;
+                        default: sbc(m); break;
+                    }
+                    break;
+                case 2: {
+                    if (crossed && aaa == 5)
+                        cycles++;
+                    final int value = mode == Accumulator ? a : m;
+                    int result;
+                    switch (aaa) {
+                        case 0: flag(C, value >= 0x80); result = nz(value << 1); break;
+                        case 1: flag(C, value >= 0x80); result = nz(value << 1 | carry); break;
+                        case 2: flag(C, (value & 1) != 0); result = nz(value >>> 1); break;
+                        case 3: flag(C, (value & 1) != 0); result = nz(value >>> 1 | carry << 7); break;
+                        case 4: write(address, x); return;
+                        case 5: x = nz(m); return;
+                        case 6: result = nz(m - 1); break;
+                        default: result = nz(m + 1); break;
+                    }
+                    if (mode == Accumulator) a = result;
+                    else write(address, result);
+                    break;
+                }
+                default:
+                    if (crossed && aaa == 5)
+                        cycles++;
+                    switch (aaa) {
+                        case 1: flag(Z, (a & m) == 0); flag(N, (m & 0x80) != 0); flag(V, (m & 0x40) != 0); break;
+                        case 2:
+                        case 3: pc = address; break;
+                        case 4: write(address, y); break;
+                        case 5: y = nz(m); break;
+                        case 6: compare(y, m); break;
+                        default: compare(x, m); break;
+                    }
+                    break;
+            }
+        }
+    }
+
+    /**
+     * RAM, registers and the instruction bytes of one case.
+     */
+    private static final class Case {
+        final byte[] ram = new byte[MemoryBus.RAM_SIZE];
+        final int[] code = new int[3];
+        int length;
+        int pc, a, x, y, sp, p;
+    }
+
+    private final MemoryBus bus = new MemoryBus();
+    private final byte[] prg = new byte[0x8000];
+    private final Processor cpu = new Processor(bus, bus);
+    private final BlockCache blocks = new BlockCache(cpu, bus);
+
+    @Before
+    public void setUp() {
+        bus.map(ORIGIN, prg.length, prg, 0, false);
+        prg[0x7FFE] = (byte) BRK_TARGET;
+        prg[0x7FFF] = (byte) (BRK_TARGET >>> 8);
+    }
+
+    /**
+     * Indexed and branch modes are run without and with a page crossing, JMP ($xxFF) and ($xx,X) also wrapped.
+     */
+    private static int variants(AddressingMode mode) {
+        switch (mode) {
+            case AbsoluteX:
+            case AbsoluteY:
+            case IndirectY:
+            case Indirect:
+            case IndirectX:
+                return 2;
+            case Relative:
+                // same page, forward to the next page, back to the previous page
+                return 3;
+            default:
+                return 1;
+        }
+    }
+
+    private static void code(Case t, OP op, int... operands) {
+        t.code[0] = op.Key();
+        System.arraycopy(operands, 0, t.code, 1, operands.length);
+        t.length = 1 + operands.length;
+    }
+
+    /**
+     * Put m where the mode of op reads its operand, index registers picked for the variant.
+     */
+    private static void setUp(Case t, OP op, int variant, int ai, int m, int p) {
+        Arrays.fill(t.ram, (byte) 0);
+        t.pc = ORIGIN;
+        t.a = VALUES[ai];
+        t.x = VALUES[(ai + 1) % VALUES.length];
+        t.y = VALUES[(ai + 2) % VALUES.length];
+        t.sp = 0xFD;
+        t.p = p;
+        // pulled by PLA, PLP, RTS and RTI
+        t.ram[0x1FE] = (byte) m;
+        t.ram[0x1FF] = (byte) (m ^ 0x5A);
+        t.ram[0x100] = (byte) 0x81;
+
+        final boolean alt = variant > 0;
+        final int index = alt ? 0x20 : 0x05;
+        switch (op.Mode()) {
+            case Accumulator:
+            case Implied:
+                code(t, op);
+                break;
+            case Immediate:
+                code(t, op, m);
+                break;
+            case ZeroPage:
+                code(t, op, 0x40);
+                t.ram[0x40] = (byte) m;
+                break;
+            case ZeroPageX:
+                t.x = index;
+                code(t, op, 0x40);
+                t.ram[0x40 + index] = (byte) m;
+                break;
+            case ZeroPageY:
+                t.y = index;
+                code(t, op, 0x40);
+                t.ram[0x40 + index] = (byte) m;
+                break;
+            case Absolute:
+                code(t, op, 0x05, 0x03);
+                t.ram[0x305] = (byte) m;
+                break;
+            case AbsoluteX:
+            case AbsoluteY:
+                // $0300 + 5, or $03F0 + $20 into the next page
+                if (op.Mode() == AbsoluteX) t.x = index;
+                else t.y = index;
+                code(t, op, alt ? 0xF0 : 0x00, 0x03);
+                t.ram[(alt ? 0x3F0 : 0x300) + index] = (byte) m;
+                break;
+            case Indirect:
+                if (alt) {
+                    // JMP ($02FF) takes the high byte from $0200, not $0300
+                    code(t, op, 0xFF, 0x02);
+                    t.ram[0x2FF] = 0x34;
+                    t.ram[0x200] = 0x56;
+                    t.ram[0x300] = 0x12;
+                } else {
+                    code(t, op, 0x00, 0x03);
+                    t.ram[0x300] = 0x34;
+                    t.ram[0x301] = (byte) 0x92;
+                }
+                break;
+            case IndirectX: {
+                // ($FA,X) with X = 5 reads the pointer from $FF and $00
+                final int zp = alt ? 0xFA : 0x40;
+                t.x = 0x05;
+                code(t, op, zp);
+                final int pointer = (zp + t.x) & 0xFF;
+                t.ram[pointer] = 0x05;
+                t.ram[(pointer + 1) & 0xFF] = 0x03;
+                t.ram[0x305] = (byte) m;
+                break;
+            }
+            case IndirectY: {
+                final int base = alt ? 0x3F0 : 0x300;
+                t.y = index;
+                code(t, op, 0x40);
+                t.ram[0x40] = (byte) base;
+                t.ram[0x41] = (byte) (base >>> 8);
+                t.ram[base + index] = (byte) m;
+                break;
+            }
+            case Relative:
+                t.pc = variant == 0 ? ORIGIN : variant == 1 ? ORIGIN + 0xF0 : ORIGIN + 0x100;
+                code(t, op, variant == 0 ? 0x10 : variant == 1 ? 0x20 : 0xF0);
+                break;
+            default:
+                throw new IllegalStateException("Unexpected value: " + op.Mode());
+        }
+    }
+
+    private static void load(Model model, Case t) {
+        Arrays.fill(model.mem, 0, 0x10000, (byte) 0);
+        System.arraycopy(t.ram, 0, model.mem, 0, t.ram.length);
+        for (int i = 0; i < t.length; i++) {
+            model.mem[t.pc + i] = (byte) t.code[i];
+        }
+        model.mem[0xFFFE] = (byte) BRK_TARGET;
+        model.mem[0xFFFF] = (byte) (BRK_TARGET >>> 8);
+        model.pc = t.pc;
+        model.a = t.a;
+        model.x = t.x;
+        model.y = t.y;
+        model.sp = t.sp;
+        model.p = t.p;
+        model.cycles = 0;
+    }
+
+    private void load(Case t) {
+        System.arraycopy(t.ram, 0, bus.getRam(), 0, t.ram.length);
+        Arrays.fill(prg, 0, 0x200, (byte) 0);
+        for (int i = 0; i < t.length; i++) {
+            prg[t.pc - ORIGIN + i] = (byte) t.code[i];
+        }
+        blocks.invalidateAll();
+        cpu.programCounter = t.pc;
+        cpu.accumulator = t.a;
+        cpu.xIndex = t.x;
+        cpu.yIndex = t.y;
+        cpu.stackPointer = t.sp;
+        cpu.setStatus(t.p);
+        cpu.cycle = 0;
+    }
+
+    /**
+     * @return first difference between the processor and the model, null if none
+     */
+    private String compare(Model e) {
+        if (cpu.programCounter != e.pc) return diff("PC", e.pc, cpu.programCounter);
+        if (cpu.accumulator != e.a) return diff("A", e.a, cpu.accumulator);
+        if (cpu.xIndex != e.x) return diff("X", e.x, cpu.xIndex);
+        if (cpu.yIndex != e.y) return diff("Y", e.y, cpu.yIndex);
+        if (cpu.stackPointer != e.sp) return diff("SP", e.sp, cpu.stackPointer);
+        if (cpu.getStatus() != e.p) return diff("P", e.p, cpu.getStatus());
+        if (cpu.cycle != e.cycles) return diff("cycles", e.cycles, cpu.cycle);
+        final byte[] ram = bus.getRam();
+        for (int i = 0; i < ram.length; i++) {
+            if (ram[i] != e.mem[i])
+                return diff(String.format("$%04X", i), e.mem[i] & 0xFF, ram[i] & 0xFF);
+        }
+        return null;
+    }
+
+    private static String diff(String field, int expected, int actual) {
+        return String.format("%s expected $%X actual $%X", field, expected, actual);
+    }
+
+    private void checkAll(Runnable step) {
+        final List<String> failures = new ArrayList<>();
+        int failed = 0;
+        final Case t = new Case();
+        final Model model = new Model();
+        for (int code = 0; code < 256; code++) {
+            final OP op = OP.lookup(code);
+            if (op == null)
+                continue;
+            for (int variant = 0; variant < variants(op.Mode()); variant++) {
+                for (int ai = 0; ai < VALUES.length; ai++) {
+                    for (int m : VALUES) {
+                        for (int p : STATUS) {
+                            setUp(t, op, variant, ai, m, p);
+                            load(model, t);
+                            model.step();
+                            load(t);
+                            step.run();
+
+                            final String d = compare(model);
+                            if (d != null && failed++ < MAX_REPORTED) {
+                                failures.add(String.format("$%02X %s %s #%d A=$%02X X=$%02X Y=$%02X M=$%02X P=$%02X: %s",
+                                        code, op.Inst(), op.Mode(), variant, t.a, t.x, t.y, m, p, d));
+                            }
+                        }
+                    }
+                }
+            }
+        }
+        assertEquals(failed + " failed cases, first ones:\n" + String.join("\n", failures), 0, failed);
+    }
+
+    @Test
+    public void opTableMatchesOfficialCodes() {
+        for (int code = 0; code < 256; code++) {
+            final OP op = OP.lookup(code);
+            final AddressingMode mode = Model.mode(code);
+            final String name = String.format("$%02X", code);
+            if (mode == Unknown) {
+                assertNull(name + " is not official", op);
+                continue;
+            }
+            assertNotNull(name + " missing", op);
+            assertEquals(name + " mode", mode, op.Mode());
+            assertEquals(name + " bytes", Model.length(mode), op.Bytes());
+            assertEquals(name + " cycles", CYCLES[code], op.Cycles());
+        }
+    }
+
+    @Test
+    public void interpreter() {
+        checkAll(cpu::singleStep);
+    }
+
+    @Test
+    public void dispatchTable() {
+        checkAll(() -> DispatchTable.get().run(cpu, 1));
+    }
+
+    @Test
+    public void blockCache() {
+        checkAll(() -> blocks.run(1));
+    }
+
+    /**
+     * SED, then ADC or SBC: the 2A03 has no decimal mode, the result stays binary.
+     */
+    private void assertBinary(int code, boolean carry, int a, int m, int expectedA, int expectedP) {
+        final int[] program = {0xF8, carry ? 0x38 : 0x18, 0xA9, a, code, m};
+        final Runnable[] cores = {
+                () -> cpu.run(8),
+                () -> DispatchTable.get().run(cpu, 8),
+                () -> blocks.run(8),
+        };
+        for (Runnable core : cores) {
+            Arrays.fill(prg, 0, 0x200, (byte) 0);
+            for (int i = 0; i < program.length; i++) {
+                prg[i] = (byte) program[i];
+            }
+            blocks.invalidateAll();
+            cpu.programCounter = ORIGIN;
+            cpu.setStatus(U | I);
+            cpu.cycle = 0;
+            core.run();
+            assertEquals("PC", ORIGIN + program.length, cpu.programCounter);
+            assertEquals("A", expectedA, cpu.accumulator);
+            assertEquals("P", expectedP, cpu.getStatus());
+        }
+    }
+
+    @Test
+    public void adcIgnoresDecimalFlag() {
+        // decimal $09 + $01 = $10
+        assertBinary(0x69, false, 0x09, 0x01, 0x0A, U | D | I);
+        // decimal $58 + $46 + 1 = $05 with carry
+        assertBinary(0x69, true, 0x58, 0x46, 0x9F, U | N | V | D | I);
+    }
+
+    @Test
+    public void sbcIgnoresDecimalFlag() {
+        // decimal $10 - $01 = $09
+        assertBinary(0xE9, true, 0x10, 0x01, 0x0F, U | D | I | C);
+        // decimal $00 - $01 = $99 with borrow
+        assertBinary(0xE9, true, 0x00, 0x01, 0xFF, U | N | D | I);
+    }
+}
@@ -0,0 +1,94 @@
+package io.famiemu.diff;
+
+import io.famiemu.Machine;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class LockStepDiffTest {
+
+    private static final int ROUTINE_LENGTH = 16;
+
+    /**
+     * 16K NROM program: copies a routine to RAM, enables IRQs, then loops over a page boundary calling the routine,
+     * which rewrites its own address operand and opcode, and doing RMW on zero page and page crossing abs,X.
+     * The APU frame IRQ handler acknowledges it and counts in $01.
+     */
+    private static byte[] corpus() {
+        final byte[] prg = new byte[0x4000];
+        put(prg, 0xC000,
+                0x78,                   // SEI
+                0xD8,                   // CLD
+                0xA2, 0xFF,             // LDX #$FF
+                0x9A,                   // TXS
+                0xA2, 0x00,             // LDX #0
+                0xBD, 0x00, 0xD0,       // LDA $D000,X
+                0x9D, 0x00, 0x03,       // STA $0300,X
+                0xE8,                   // INX
+                0xE0, ROUTINE_LENGTH,   // CPX #16
+                0xD0, 0xF5,             // BNE $C007
+                0x58,                   // CLI
+                0x4C, 0xF0, 0xC0);      // JMP $C0F0
+        put(prg, 0xC0F0,
+                0x20, 0x00, 0x03,       // JSR $0300
+                0xE6, 0x00,             // INC $00
+                0xFE, 0xF0, 0x04,       // INC $04F0,X, crosses for X >= $10
+                0x3E, 0xF0, 0x04,       // ROL $04F0,X
+                0xE8,                   // INX
+                0xA5, 0x00,             // LDA $00
+                0x29, 0x03,             // AND #3
+                0xD0, 0xEE,             // BNE $C0F0, back across the page
+                0xC8,                   // INY
+                0xB9, 0xF0, 0x04,       // LDA $04F0,Y
+                0x4C, 0xF0, 0xC0);      // JMP $C0F0
+        // copied to $0300
+        put(prg, 0xD000,
+                0xEE, 0x00, 0x04,       // INC $0400
+                0xEE, 0x01, 0x03,       // INC $0301, the next call increments the next byte
+                0x18,                   // CLC, flipped to SEC and back
+                0xAD, 0x06, 0x03,       // LDA $0306
+                0x49, 0x20,             // EOR #$20
+                0x8D, 0x06, 0x03,       // STA $0306
+                0x60);                  // RTS
+        put(prg, 0xD100,
+                0x48,                   // PHA
+                0xAD, 0x15, 0x40,       // LDA $4015, acknowledge
+                0xE6, 0x01,             // INC $01
+                0x68,                   // PLA
+                0x40);                  // RTI
+        put(prg, 0xFFFA,
+                0x07, 0xD1,             // NMI at the RTI
+                0x00, 0xC0,
+                0x00, 0xD1);
+        return prg;
+    }
+
+    private static void put(byte[] prg, int address, int... bytes) {
+        for (int i = 0; i < bytes.length; i++) {
+            prg[(address & 0x3FFF) + i] = (byte) bytes[i];
+        }
+    }
+
+    private static void assertSameAsReference(long cycles, int slice) {
+        final byte[] prg = corpus();
+        final Machine candidate = new Machine(prg);
+        candidate.useBlockCache(1);
+        final LockStepDiff diff = new LockStepDiff(new Machine(prg), candidate);
+
+        final Divergence d = diff.run(cycles, slice);
+        assertNull(String.valueOf(d), d);
+
+        assertNotEquals("IRQ never taken", 0, candidate.getBus().readU8(0x01));
+    }
+
+    @Test
+    public void blocksMatchSingleStep() {
+        // a few hundred cycles per slice, so whole and compiled blocks run
+        assertSameAsReference(200_000, 300);
+    }
+
+    @Test
+    public void blocksMatchSingleStepPerInstruction() {
+        assertSameAsReference(40_000, 1);
+    }
+}
@@ -0,0 +1,75 @@
+package io.famiemu.mapper;
+
+import io.famiemu.Machine;
+import io.famiemu.memory.MemoryBus;
+import io.famiemu.rom.InesBuilder;
+import io.famiemu.rom.RomImage;
+import org.junit.Test;
+
+import java.io.IOException;
+
+import static org.junit.Assert.*;
+
+public class Mmc1Test {
+
+    /**
+     * iNES image of mapper 1 with 16K PRG banks numbered in their first byte, and 8K of CHR-ROM.
+     */
+    static RomImage image(int prgBanks) throws IOException {
+        return new InesBuilder(Mmc1.NUMBER, prgBanks, 1)
+                .numberPrg(RomImage.PRG_BANK_SIZE)
+                .build();
+    }
+
+    /**
+     * Load a register through the shift register, low bit first.
+     */
+    static void load(MemoryBus bus, int address, int value) {
+        for (int i = 0; i < 5; i++) {
+            bus.writeByte(address, (byte) ((value >>> i) & 1));
+        }
+    }
+
+    @Test
+    public void prg32kModeMirrors16kRom() throws IOException {
+        final Machine machine = new Machine(image(1));
+        final MemoryBus bus = machine.getBus();
+
+        // PRG mode 0: 32K at $8000
+        load(bus, 0x8000, 0x00);
+        assertEquals(0, bus.readU8(0x8000));
+        assertEquals(0, bus.readU8(0xC000));
+        assertEquals(bus.readU8(0xBFFC), bus.readU8(0xFFFC));
+    }
+
+    @Test
+    public void prg32kModeSwitchesBankPairs() throws IOException {
+        final Machine machine = new Machine(image(4));
+        final MemoryBus bus = machine.getBus();
+
+        load(bus, 0x8000, 0x00);
+        load(bus, 0xE000, 2);
+        assertEquals(2, bus.readU8(0x8000));
+        assertEquals(3, bus.readU8(0xC000));
+    }
+
+    @Test
+    public void resetReadsVectorFromPowerOnBanks() throws IOException {
+        final int prgBanks = 4;
+        final Machine machine = new Machine(new InesBuilder(Mmc1.NUMBER, prgBanks, 1)
+                .numberPrg(RomImage.PRG_BANK_SIZE)
+                .put(1, 0xFFFC, 0x00, 0x81)
+                .put(prgBanks - 1, 0xFFFC, 0x00, 0xC3)
+                .build());
+        final MemoryBus bus = machine.getBus();
+
+        // 32K mode on banks 0 and 1, the vector at $FFFC is now the one of bank 1
+        load(bus, 0x8000, 0x00);
+        load(bus, 0xE000, 0);
+        assertEquals(0x81, bus.readU8(0xFFFD));
+
+        machine.reset();
+        assertEquals(0xC300, machine.getCpu().programCounter);
+        assertEquals(prgBanks - 1, bus.readU8(0xC000));
+    }
+}
@@ -0,0 +1,67 @@
+package io.famiemu.mapper;
+
+import io.famiemu.Machine;
+import io.famiemu.memory.MemoryBus;
+import io.famiemu.rom.InesBuilder;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+
+import static org.junit.Assert.*;
+
+public class Mmc3Test {
+
+    private static final int CHR_BANKS_8K = 4;
+
+    private MemoryBus bus;
+
+    /**
+     * 32K PRG and 32K CHR-ROM, every 1K CHR bank numbered in its first byte.
+     */
+    @Before
+    public void setUp() throws IOException {
+        bus = new Machine(new InesBuilder(Mmc3.NUMBER, 2, CHR_BANKS_8K)
+                .numberChr(0x400)
+                .build()).getBus();
+    }
+
+    private int readChr(int address) {
+        bus.readByte(0x2002);
+        bus.writeByte(0x2006, (byte) (address >>> 8));
+        bus.writeByte(0x2006, (byte) address);
+        // the first read returns the buffer
+        bus.readByte(0x2007);
+        return bus.readU8(0x2007);
+    }
+
+    private void setBank(int select, int bank) {
+        bus.writeByte(0x8000, (byte) select);
+        bus.writeByte(0x8001, (byte) bank);
+    }
+
+    @Test
+    public void oneKBankFollowsInversion() {
+        setBank(0x03, 13);
+        assertEquals(13, readChr(0x1400));
+
+        setBank(0x82, 9);
+        assertEquals(9, readChr(0x0000));
+        // register 3 moved along with the inversion
+        assertEquals(13, readChr(0x0400));
+        // the 2K banks of registers 0 and 1 are at $1000 now
+        assertEquals(0, readChr(0x1000));
+        assertEquals(1, readChr(0x1400));
+    }
+
+    @Test
+    public void twoKBankFollowsInversion() {
+        setBank(0x01, 6);
+        assertEquals(6, readChr(0x0800));
+        assertEquals(7, readChr(0x0C00));
+
+        setBank(0x81, 10);
+        assertEquals(10, readChr(0x1800));
+        assertEquals(11, readChr(0x1C00));
+    }
+}
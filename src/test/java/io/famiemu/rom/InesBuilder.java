@@ -0,0 +1,77 @@
+package io.famiemu.rom;
+
+import java.io.IOException;
+
+/**
+ * iNES image for tests and benchmarks: the header for a mapper and bank counts, PRG and CHR-ROM filled in by hand.
+ * <pre>
+ * RomImage rom = new InesBuilder(Uxrom.NUMBER, 4, 0)
+ *         .put(3, 0xFFFC, 0x00, 0xC0)
+ *         .build();
+ * </pre>
+ */
+public class InesBuilder {
+
+    private final byte[] data;
+    private final int prgSize;
+
+    /**
+     * @param prgBanks 16K PRG banks
+     * @param chrBanks 8K CHR-ROM banks, 0 for CHR-RAM
+     */
+    public InesBuilder(int mapper, int prgBanks, int chrBanks) {
+        prgSize = prgBanks * RomImage.PRG_BANK_SIZE;
+        data = new byte[RomImage.HEADER_SIZE + prgSize + chrBanks * RomImage.CHR_BANK_SIZE];
+        data[0] = 'N';
+        data[1] = 'E';
+        data[2] = 'S';
+        data[3] = 0x1A;
+        data[4] = (byte) prgBanks;
+        data[5] = (byte) chrBanks;
+        data[6] = (byte) (mapper << 4);
+        data[7] = (byte) (mapper & 0xF0);
+    }
+
+    /**
+     * Put bytes into a 16K PRG bank as seen at a CPU address, only the offset in the bank counts.
+     */
+    public InesBuilder put(int bank, int address, int... bytes) {
+        final int offset = RomImage.HEADER_SIZE + bank * RomImage.PRG_BANK_SIZE + (address & (RomImage.PRG_BANK_SIZE - 1));
+        for (int i = 0; i < bytes.length; i++) {
+            data[offset + i] = (byte) bytes[i];
+        }
+        return this;
+    }
+
+    /**
+     * Write the number of every PRG bank of the given size into its first byte.
+     */
+    public InesBuilder numberPrg(int bankSize) {
+        for (int bank = 0; bank < prgSize / bankSize; bank++) {
+            data[RomImage.HEADER_SIZE + bank * bankSize] = (byte) bank;
+        }
+        return this;
+    }
+
+    /**
+     * Write the number of every CHR bank of the given size into its first byte.
+     */
+    public InesBuilder numberChr(int bankSize) {
+        final int chr = RomImage.HEADER_SIZE + prgSize;
+        for (int bank = 0; bank < (data.length - chr) / bankSize; bank++) {
+            data[chr + bank * bankSize] = (byte) bank;
+        }
+        return this;
+    }
+
+    /**
+     * @return the file, not copied
+     */
+    public byte[] toBytes() {
+        return data;
+    }
+
+    public RomImage build() throws IOException {
+        return RomImage.wrap(data);
+    }
+}
@@ -0,0 +1,76 @@
+package io.famiemu.trace;
+
+import io.famiemu.cpu.Processor;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+
+import static org.junit.Assert.*;
+
+public class BinaryTraceSinkTest {
+
+    /**
+     * Accepts the header, then fails every write.
+     */
+    private static final class FailingChannel implements WritableByteChannel {
+        boolean open = true;
+        int writes;
+
+        @Override
+        public int write(ByteBuffer src) throws IOException {
+            if (writes++ > 0)
+                throw new IOException("disk full");
+            final int n = src.remaining();
+            src.position(src.limit());
+            return n;
+        }
+
+        @Override
+        public boolean isOpen() {
+            return open;
+        }
+
+        @Override
+        public void close() {
+            open = false;
+        }
+    }
+
+    @Test
+    public void closeAfterWriteErrorStopsWriterAndClosesChannel() throws InterruptedException {
+        final Processor cpu = new Processor(address -> (byte) 0xEA, (address, value) -> {});
+        final FailingChannel channel = new FailingChannel();
+        // one record per buffer, so every record is handed to the writer
+        final BinaryTraceSink sink = new BinaryTraceSink(channel, BinaryTraceSink.RECORD_SIZE);
+
+        boolean reported = false;
+        final long deadline = System.currentTimeMillis() + 5000;
+        while (!reported && System.currentTimeMillis() < deadline) {
+            try {
+                sink.trace(cpu);
+            } catch (UncheckedIOException e) {
+                reported = true;
+            }
+        }
+        assertTrue("write error reported to the emulation thread", reported);
+        // leave a full buffer behind the error, so close has to flush into a failed writer
+        for (int i = 0; i < 2; i++) {
+            try {
+                sink.trace(cpu);
+            } catch (UncheckedIOException e) {
+                // expected once the buffer is full
+            }
+        }
+
+        try {
+            sink.close();
+            fail("close must throw the write error");
+        } catch (IOException e) {
+            assertEquals("disk full", e.getMessage());
+        }
+        assertFalse("channel closed", channel.isOpen());
+    }
+}